@@ -0,0 +1,162 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous structured logger for request paths. Events are placed into a lock-free ring buffer and written to
+ * standard out by a single background thread, so request threads never block on console I/O. When the buffer is full
+ * events are dropped (and counted) rather than making the caller wait.
+ *
+ * Events below -Dauction.log.level (DEBUG, INFO, WARN, ERROR; default INFO) are discarded. DEBUG and INFO events are
+ * sampled at 1 in -Dauction.log.sample (default 1, log everything). Fields are passed as alternating keys and values:
+ *
+ *     AsyncLog.info("replica.bid", "auctionID", auctionID, "amount", amount);
+ */
+public final class AsyncLog {
+
+    public static final int DEBUG = 0;
+    public static final int INFO  = 1;
+    public static final int WARN  = 2;
+    public static final int ERROR = 3;
+
+    private static final String[] LEVEL_NAMES = {"DEBUG", "INFO", "WARN", "ERROR"};
+    private static final int CAPACITY = 1 << 14;
+
+    private static final int minLevel = AsyncLog.parseLevel(System.getProperty("auction.log.level", "INFO"));
+    private static final int sampleRate = Math.max(1, Integer.getInteger("auction.log.sample", 1));
+
+    //--> Producers claim slots by advancing 'tail'. Only the drain thread reads slots and advances 'head'.
+    private static final AtomicReferenceArray<Event> ring = new AtomicReferenceArray<>(CAPACITY);
+    private static final AtomicLong head = new AtomicLong();
+    private static final AtomicLong tail = new AtomicLong();
+    private static final LongAdder dropped = new LongAdder();
+
+    static {
+        Thread drainer = new Thread(AsyncLog::drain, "async-log");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    private AsyncLog() {}
+
+    public static void debug(String event, Object... fields) { AsyncLog.log(DEBUG, event, fields); }
+
+    public static void info(String event, Object... fields) { AsyncLog.log(INFO, event, fields); }
+
+    public static void warn(String event, Object... fields) { AsyncLog.log(WARN, event, fields); }
+
+    public static void error(String event, Object... fields) { AsyncLog.log(ERROR, event, fields); }
+
+    /** Returns the number of events dropped because the ring buffer was full. **/
+    public static long getDropped() {
+        return dropped.sum();
+    }
+
+    /** Queues an event if it passes the level and sampling checks. Never blocks. **/
+    public static void log(int level, String event, Object... fields) {
+        if (level < minLevel) {
+            return;
+        }
+        if (level < WARN && sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return;
+        }
+
+        long slot;
+        do {
+            slot = tail.get();
+            if (slot - head.get() >= CAPACITY) {
+                dropped.increment();
+                return;
+            }
+        } while (!tail.compareAndSet(slot, slot + 1));
+
+        ring.lazySet((int) (slot & (CAPACITY - 1)), new Event(level, System.currentTimeMillis(), Thread.currentThread().getName(), event, fields));
+    }
+
+    /** Drain loop. Writes queued events in order and parks briefly when there is nothing to write. **/
+    private static void drain() {
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+        StringBuilder line = new StringBuilder(256);
+
+        while (true) {
+            long next = head.get();
+
+            if (next == tail.get()) {
+                AsyncLog.flush(out);
+                LockSupport.parkNanos(1_000_000);
+                continue;
+            }
+
+            //--> Slot has been claimed but the producer hasn't stored the event yet.
+            int index = (int) (next & (CAPACITY - 1));
+            Event event = ring.get(index);
+            if (event == null) {
+                Thread.onSpinWait();
+                continue;
+            }
+
+            ring.lazySet(index, null);
+            head.lazySet(next + 1);
+
+            line.setLength(0);
+            event.format(line);
+            try {
+                out.write(line.toString());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static void flush(Writer out) {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static int parseLevel(String level) {
+        for (int i = 0; i < LEVEL_NAMES.length; i++) {
+            if (LEVEL_NAMES[i].equalsIgnoreCase(level)) {
+                return i;
+            }
+        }
+        return INFO;
+    }
+
+    /** A queued log event. Formatted on the drain thread only. **/
+    private static class Event {
+        private final int level;
+        private final long timestamp;
+        private final String thread;
+        private final String name;
+        private final Object[] fields;
+
+        private Event(int level, long timestamp, String thread, String name, Object[] fields) {
+            this.level = level;
+            this.timestamp = timestamp;
+            this.thread = thread;
+            this.name = name;
+            this.fields = fields;
+        }
+
+        /** Appends the event as "timestamp LEVEL [thread] name key=value ..." followed by a line separator. **/
+        private void format(StringBuilder line) {
+            line.append(Instant.ofEpochMilli(timestamp)).append(' ')
+                .append(LEVEL_NAMES[level]).append(" [").append(thread).append("] ").append(name);
+
+            for (int i = 0; i + 1 < fields.length; i += 2) {
+                line.append(' ').append(fields[i]).append('=').append(fields[i + 1]);
+            }
+            line.append(System.lineSeparator());
+        }
+    }
+}
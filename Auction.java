@@ -1,44 +1,81 @@
 
 import java.io.Serializable;
 
-/** Represents an auction maintained by the AuctionServer. */
-public class Auction implements Serializable {
-
-    private double startPrice;
-    private double reserve;
-    private double topBid;
-    private String name;
-    private String desc;
-    private String auctionID;
-    private UserDetails topBidder;
-    private UserDetails sellerDetails;
+/**
+ * Represents an auction maintained by the AuctionServer. Auctions are immutable once created. A bid produces a new
+ * copy (see withBid) so readers can share Auction objects without copying or locking.
+ */
+public class Auction implements AuctionView, Serializable {
+
+    //--> Prices are held in pence (see Money) so comparisons are exact.
+    private final long startPrice;
+    private final long reserve;
+    private final long topBid;
+    private final String name;
+    private final String desc;
+    //--> Allocated by AuctionIds. Only converted to text at the client boundary.
+    private final long auctionID;
+    //--> Users are referenced by their UserDirectory ID rather than a full UserDetails object.
+    private final int topBidderID;
+    private final int sellerID;
+
+    //--> Incremented on every change. Lets followers ignore replicated updates older than the copy they hold.
+    private final long version;
 
     /** Construction for Auction objects. */
-    public Auction(String name, double startPrice, double reserve, String desc, UserDetails sellerDetails, String auctionID) {
+    public Auction(String name, long startPrice, long reserve, String desc, int sellerID, long auctionID) {
         this.name = name;
         this.startPrice = startPrice;
         this.reserve = reserve;
         this.desc = desc;
-        this.sellerDetails = sellerDetails;
+        this.sellerID = sellerID;
 
         //--> TopBid set to start price so bids lower than start price aren't accepted.
         this.topBid = startPrice;
 
-        //--> Get substring of UUID. Limit auction ID to 8 characters.
         this.auctionID = auctionID;
+        this.topBidderID = UserDirectory.NO_USER;
+        this.version = 0;
+    }
+
+    /** Restores an auction with all of its fields, e.g. when read back from an OffHeapAuctionStore. **/
+    Auction(String name, long startPrice, long reserve, String desc, int sellerID, long auctionID,
+            long topBid, int topBidderID, long version) {
+        this.name = name;
+        this.startPrice = startPrice;
+        this.reserve = reserve;
+        this.desc = desc;
+        this.sellerID = sellerID;
+        this.auctionID = auctionID;
+        this.topBid = topBid;
+        this.topBidderID = topBidderID;
+        this.version = version;
+    }
+
+    /** Copy constructor used by withBid. **/
+    private Auction(Auction previous, long topBid, int topBidderID) {
+        this.name = previous.name;
+        this.startPrice = previous.startPrice;
+        this.reserve = previous.reserve;
+        this.desc = previous.desc;
+        this.sellerID = previous.sellerID;
+        this.auctionID = previous.auctionID;
+        this.topBid = topBid;
+        this.topBidderID = topBidderID;
+        this.version = previous.version + 1;
     }
 
     /** Returns the auctions name. **/
     public String getAuctionName() { return name; }
 
-    /** Returns the auctions current top bidder.  **/
-    public UserDetails getTopBidder() { return topBidder; }
+    /** Returns the ID of the auctions current top bidder or UserDirectory.NO_USER if nobody has bid.  **/
+    public int getTopBidderID() { return topBidderID; }
 
-    /** Returns the auctions current top bid. **/
-    public double getTopBid() { return topBid; }
+    /** Returns the auctions current top bid in pence. **/
+    public long getTopBid() { return topBid; }
 
-    /** Returns the auctions reserve price. **/
-    public double getReserve() { return reserve; }
+    /** Returns the auctions reserve price in pence. **/
+    public long getReserve() { return reserve; }
 
     /** Returns the auctions description. **/
     public String getAuctionDesc() { return desc; }
@@ -46,37 +83,51 @@ public class Auction implements Serializable {
     /** Returns the auctions name. **/
     public String getName() { return name; }
 
-    /** Updates the auctions top bid. **/
-    public void setTopBid(double topBid) { this.topBid = topBid; }
-
-    /** Updates the auctions top bidder. **/
-    public void setTopBidder(UserDetails topBidder) { this.topBidder = topBidder; }
-
-    /** Returns the auctions unique ID. **/
-    public String getAuctionID() { return auctionID; }
-
-    /** Returns the sellers details (name and email address) **/
-    public UserDetails getSellerDetails() { return sellerDetails; }
-
-    /** Returns the auction starting price. **/
-    public double getStartPrice() { return startPrice; }
-
-    /** Returns a String of all auction data. **/
-    public String getAuctionData() {
-        String auctionString  = "";
-        String topBidderName  = "";
-        String topBidderEmail = "";
+    /** Returns a copy of this auction with the provided bid as its top bid and the next version. **/
+    public Auction withBid(long amount, int bidderID) {
+        return new Auction(this, amount, bidderID);
+    }
 
-        if (topBidder != null) {
-            topBidderName = topBidder.getName();
-            topBidderEmail = topBidder.getEmail();
+    /** Returns the auctions version. Incremented on every change. **/
+    public long getVersion() { return version; }
+
+    /**
+     * Returns true if this copy should replace 'other' when two copies of the auction disagree (e.g. after a partition
+     * heals). Bids only ever rise so the higher top bid wins, then the later version. Remaining ties are broken on
+     * the bidder then the data hash so every replica picks the same copy.
+     */
+    public boolean supersedes(Auction other) {
+        if (topBid != other.topBid) {
+            return topBid > other.topBid;
+        } else if (version != other.version) {
+            return version > other.version;
+        } else if (topBidderID != other.topBidderID) {
+            return topBidderID < other.topBidderID;
         }
+        return this.getDataHash() > other.getDataHash();
+    }
 
-        String sellerName  = sellerDetails.getName();
-        String sellerEmail = sellerDetails.getEmail();
-
-        auctionString = auctionString + startPrice + reserve + topBid + name + desc + auctionID + sellerName + sellerEmail + topBidderName + topBidderEmail;
-        return auctionString;
+    /** Returns the auctions unique ID. **/
+    public long getAuctionID() { return auctionID; }
+
+    /** Returns the ID of the seller. Resolve through the UserDirectory for name and email address. **/
+    public int getSellerID() { return sellerID; }
+
+    /** Returns the auction starting price in pence. **/
+    public long getStartPrice() { return startPrice; }
+
+    /** Returns a hash of all auction data. Used to compare replica responses without building Strings. **/
+    public int getDataHash() {
+        int hash = Long.hashCode(startPrice);
+        hash = 31 * hash + Long.hashCode(reserve);
+        hash = 31 * hash + Long.hashCode(topBid);
+        hash = 31 * hash + name.hashCode();
+        hash = 31 * hash + desc.hashCode();
+        hash = 31 * hash + Long.hashCode(auctionID);
+        hash = 31 * hash + sellerID;
+        hash = 31 * hash + topBidderID;
+        hash = 31 * hash + Long.hashCode(version);
+        return hash;
     }
 
-}
\ No newline at end of file
+}
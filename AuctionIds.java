@@ -0,0 +1,78 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocates and formats auction IDs. IDs are primitive longs laid out as 41 bits of milliseconds since EPOCH, 10 bits
+ * of front-end node ID (-Dauction.node.id) and a 12 bit sequence, so they are unique across front-ends and restarts
+ * and increase monotonically. The text form is only used at the client boundary.
+ */
+public final class AuctionIds {
+
+    //--> Returned by parse for text that isn't an auction ID. Never allocated.
+    public static final long NONE = 0;
+
+    private static final long EPOCH = 1577836800000L;                                                    //--> 2020-01-01T00:00:00Z
+    static final int NODE_BITS = 10;
+    static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final int TIME_SHIFT = NODE_BITS + SEQUENCE_BITS;
+    private static final int RADIX = 36;
+
+    private static final long NODE = (long) ClusterConfig.getNodeID() << SEQUENCE_BITS;
+    private static final AtomicLong last = new AtomicLong();
+
+    private AuctionIds() {}
+
+    /**
+     * Returns a new auction ID. Never returns the same ID twice. If the sequence for the current millisecond is used up
+     * or the clock has moved backwards, IDs carry on from the last one allocated.
+     */
+    public static long next() {
+        long candidate = ((System.currentTimeMillis() - EPOCH) << TIME_SHIFT) | NODE;
+
+        while (true) {
+            long previous = last.get();
+            long next;
+            if (candidate > previous) {
+                next = candidate;
+            } else if ((previous & SEQUENCE_MASK) != SEQUENCE_MASK) {
+                next = previous + 1;
+            } else {
+                next = (((previous >>> TIME_SHIFT) + 1) << TIME_SHIFT) | NODE;                        //--> Borrow the next millisecond.
+            }
+
+            if (last.compareAndSet(previous, next)) {
+                return next;
+            }
+        }
+    }
+
+    /** Returns the lowest auction ID that can be allocated in the millisecond (epoch milliseconds). **/
+    public static long firstAt(long millis) {
+        if (millis <= EPOCH) {
+            return 0;
+        }
+        long elapsed = millis - EPOCH;
+        return elapsed >= (1L << (63 - TIME_SHIFT)) ? Long.MAX_VALUE : elapsed << TIME_SHIFT;
+    }
+
+    /** Returns the highest auction ID that can be allocated in the millisecond (epoch milliseconds). **/
+    public static long lastAt(long millis) {
+        return AuctionIds.firstAt(millis) | ((1L << TIME_SHIFT) - 1);
+    }
+
+    /** Returns the text form of an auction ID shown to users. **/
+    public static String format(long auctionID) {
+        return Long.toString(auctionID, RADIX);
+    }
+
+    /** Returns the auction ID for its text form or NONE if the text isn't a valid auction ID. **/
+    public static long parse(String text) {
+        try {
+            long auctionID = Long.parseLong(text.trim().toLowerCase(), RADIX);
+            return auctionID > 0 ? auctionID : NONE;
+        } catch (NumberFormatException e) {
+            return NONE;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+import java.io.Serializable;
+
+/** A lot to be created by a bulk import (see CanSell.createAuctions). Prices are in pence. */
+public class AuctionLot implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+    private final long startPrice;
+    private final long reserve;
+    private final String desc;
+
+    /** Constructor for AuctionLot objects. */
+    public AuctionLot(String name, long startPrice, long reserve, String desc) {
+        this.name = name;
+        this.startPrice = startPrice;
+        this.reserve = reserve;
+        this.desc = desc;
+    }
+
+    /** Returns the lots name. **/
+    public String getName() { return name; }
+
+    /** Returns the lots start price in pence. **/
+    public long getStartPrice() { return startPrice; }
+
+    /** Returns the lots reserve price in pence. **/
+    public long getReserve() { return reserve; }
+
+    /** Returns the lots description. **/
+    public String getDesc() { return desc; }
+
+    /** Returns true if the lot could be created interactively: a name, a start price above zero and a higher reserve. **/
+    public boolean isValid() {
+        return name != null && !name.isEmpty() && desc != null && startPrice > 0 && reserve > startPrice;
+    }
+}
@@ -0,0 +1,127 @@
+import java.io.Serializable;
+
+/**
+ * A combined auction query: optional keyword, seller, top bid range and reserve-met filters, a sort order, a page and
+ * a projection of the fields to return (AuctionRow field constants). Replicas evaluate the filters against their
+ * indexes and only return matching rows with the projected fields. Setters return the query so they can be chained.
+ */
+public class AuctionQuery implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String keyWord;
+    private String sellerName;
+    private int sellerID = UserDirectory.NO_USER;
+    private long minPrice = 0;
+    private long maxPrice = Long.MAX_VALUE;
+    private Boolean reserveMet;
+    private int sortOrder = AuctionSort.TOP_BID;
+    private int offset = 0;
+    private int limit = 20;
+    private int fields = AuctionRow.ALL;
+
+    public AuctionQuery() {}
+
+    /** Copy constructor used by the AuctionServer to build the query sent to replicas. **/
+    private AuctionQuery(AuctionQuery query) {
+        this.keyWord = query.keyWord;
+        this.sellerName = query.sellerName;
+        this.sellerID = query.sellerID;
+        this.minPrice = query.minPrice;
+        this.maxPrice = query.maxPrice;
+        this.reserveMet = query.reserveMet;
+        this.sortOrder = query.sortOrder;
+        this.offset = query.offset;
+        this.limit = query.limit;
+        this.fields = query.fields;
+    }
+
+    /** Only auctions whose name contains the keyword. **/
+    public AuctionQuery keyWord(String keyWord) {
+        this.keyWord = keyWord;
+        return this;
+    }
+
+    /** Only auctions sold by the user with this name. **/
+    public AuctionQuery seller(String sellerName) {
+        this.sellerName = sellerName;
+        return this;
+    }
+
+    /** Only auctions with a top bid from 'minPrice' to 'maxPrice' pence inclusive. **/
+    public AuctionQuery priceRange(long minPrice, long maxPrice) {
+        this.minPrice = minPrice;
+        this.maxPrice = maxPrice;
+        return this;
+    }
+
+    /** Only auctions that have (true) or haven't (false) met their reserve. Null matches either. **/
+    public AuctionQuery reserveMet(Boolean reserveMet) {
+        this.reserveMet = reserveMet;
+        return this;
+    }
+
+    /** Orders results by an AuctionSort order. **/
+    public AuctionQuery sortOrder(int sortOrder) {
+        this.sortOrder = sortOrder;
+        return this;
+    }
+
+    /** Skips 'offset' results then returns up to 'limit'. **/
+    public AuctionQuery page(int offset, int limit) {
+        this.offset = offset;
+        this.limit = limit;
+        return this;
+    }
+
+    /** Returns only the provided AuctionRow fields. The fields the sort order needs are always returned too. **/
+    public AuctionQuery fields(int fields) {
+        this.fields = fields;
+        return this;
+    }
+
+    public String getKeyWord() { return keyWord; }
+
+    public String getSellerName() { return sellerName; }
+
+    public int getSellerID() { return sellerID; }
+
+    public long getMinPrice() { return minPrice; }
+
+    public long getMaxPrice() { return maxPrice; }
+
+    public Boolean getReserveMet() { return reserveMet; }
+
+    public int getSortOrder() { return sortOrder; }
+
+    public int getOffset() { return offset; }
+
+    public int getLimit() { return limit; }
+
+    /** Returns the requested fields plus those the sort order reads, so the AuctionServer can merge replica rows. **/
+    public int getFields() {
+        int sortFields = AuctionRow.TOP_BID | AuctionRow.START_PRICE | AuctionRow.RESERVE;
+        if (sortOrder == AuctionSort.RELEVANCE) {
+            sortFields |= AuctionRow.NAME;
+        }
+        return fields | sortFields;
+    }
+
+    /** Returns a copy for replicas: the seller resolved to its ID and the page widened to the first 'limit' results. **/
+    public AuctionQuery forReplicas(int sellerID, int limit) {
+        AuctionQuery query = new AuctionQuery(this);
+        query.sellerName = null;
+        query.sellerID = sellerID;
+        query.offset = 0;
+        query.limit = limit;
+        return query;
+    }
+
+    /** Returns true if the auction passes every filter. **/
+    public boolean matches(Auction auction) {
+        return AuctionSort.matches(auction, keyWord)
+                && (sellerID == UserDirectory.NO_USER || auction.getSellerID() == sellerID)
+                && auction.getTopBid() >= minPrice && auction.getTopBid() <= maxPrice
+                && (reserveMet == null || reserveMet == (auction.getTopBid() >= auction.getReserve()));
+    }
+}
@@ -0,0 +1,94 @@
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * The fields of an auction requested by an AuctionQuery projection. Only the projected fields are written when the
+ * row is serialized, so rows cost bytes in proportion to what was asked for. Fields that weren't projected read as
+ * null or zero. The auction ID is always included.
+ */
+public class AuctionRow implements AuctionView, Externalizable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int NAME = 1;
+    public static final int DESC = 1 << 1;
+    public static final int TOP_BID = 1 << 2;
+    public static final int START_PRICE = 1 << 3;
+    public static final int RESERVE = 1 << 4;
+    public static final int SELLER_ID = 1 << 5;
+    public static final int TOP_BIDDER_ID = 1 << 6;
+    public static final int ALL = (1 << 7) - 1;
+
+    private int fields;
+    private long auctionID;
+    private String name;
+    private String desc;
+    private long topBid;
+    private long startPrice;
+    private long reserve;
+    private int sellerID;
+    private int topBidderID;
+
+    /** Used by deserialization only. **/
+    public AuctionRow() {}
+
+    /** Copies the projected fields of an auction. **/
+    public AuctionRow(Auction auction, int fields) {
+        this.fields = fields;
+        this.auctionID = auction.getAuctionID();
+        if ((fields & NAME) != 0) { this.name = auction.getName(); }
+        if ((fields & DESC) != 0) { this.desc = auction.getAuctionDesc(); }
+        if ((fields & TOP_BID) != 0) { this.topBid = auction.getTopBid(); }
+        if ((fields & START_PRICE) != 0) { this.startPrice = auction.getStartPrice(); }
+        if ((fields & RESERVE) != 0) { this.reserve = auction.getReserve(); }
+        if ((fields & SELLER_ID) != 0) { this.sellerID = auction.getSellerID(); }
+        if ((fields & TOP_BIDDER_ID) != 0) { this.topBidderID = auction.getTopBidderID(); }
+    }
+
+    /** Returns the projected fields as a mask of the field constants. **/
+    public int getFields() { return fields; }
+
+    public long getAuctionID() { return auctionID; }
+
+    public String getName() { return name; }
+
+    public String getAuctionDesc() { return desc; }
+
+    public long getTopBid() { return topBid; }
+
+    public long getStartPrice() { return startPrice; }
+
+    public long getReserve() { return reserve; }
+
+    public int getSellerID() { return sellerID; }
+
+    public int getTopBidderID() { return topBidderID; }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(fields);
+        out.writeLong(auctionID);
+        if ((fields & NAME) != 0) { Utility.writeString(out, name); }
+        if ((fields & DESC) != 0) { Utility.writeString(out, desc); }
+        if ((fields & TOP_BID) != 0) { out.writeLong(topBid); }
+        if ((fields & START_PRICE) != 0) { out.writeLong(startPrice); }
+        if ((fields & RESERVE) != 0) { out.writeLong(reserve); }
+        if ((fields & SELLER_ID) != 0) { out.writeInt(sellerID); }
+        if ((fields & TOP_BIDDER_ID) != 0) { out.writeInt(topBidderID); }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        fields = in.readByte();
+        auctionID = in.readLong();
+        if ((fields & NAME) != 0) { name = Utility.readString(in); }
+        if ((fields & DESC) != 0) { desc = Utility.readString(in); }
+        if ((fields & TOP_BID) != 0) { topBid = in.readLong(); }
+        if ((fields & START_PRICE) != 0) { startPrice = in.readLong(); }
+        if ((fields & RESERVE) != 0) { reserve = in.readLong(); }
+        if ((fields & SELLER_ID) != 0) { sellerID = in.readInt(); }
+        if ((fields & TOP_BIDDER_ID) != 0) { topBidderID = in.readInt(); }
+    }
+}
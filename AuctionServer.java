@@ -7,8 +7,16 @@ import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.*;
-import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.rmi.server.RemoteServer;
+import java.rmi.server.ServerNotActiveException;
 import java.rmi.server.UnicastRemoteObject;
 import org.jgroups.*;
 import org.jgroups.blocks.*;
@@ -26,13 +34,78 @@ public class AuctionServer extends UnicastRemoteObject implements CanSell, CanBu
     private JChannel channel;
     private RpcDispatcher dispatcher;
     private RequestOptions requestOptions;
-    private RspList responses = null;
+    private UserDirectory users = new UserDirectory();
+    private ShardRouter router;
+    private ViewId routerViewId;
+
+    //--> Runs repairs of non-majority replicas after the response has been returned to the client.
+    private ExecutorService repairExecutor = ExecutionMode.newExecutor();
+
+    //--> Admission control. Calls over a users rate or the adaptive in-flight limit are rejected before reaching replicas.
+    private RateLimiter rateLimiter = new RateLimiter(ClusterConfig.getRateLimit(), ClusterConfig.getRateBurst());
+    private RateLimiter readLimiter = new RateLimiter(ClusterConfig.getReadRateLimit(), ClusterConfig.getReadRateBurst());
+    private ConcurrencyLimiter concurrency = new ConcurrencyLimiter(ClusterConfig.getConcurrencyInitial(),
+            ClusterConfig.getConcurrencyMin(), ClusterConfig.getConcurrencyMax(), ClusterConfig.getConcurrencyTarget());
+
+    //--> Auction IDs allocated per client request ID. A retried create reuses its IDs so it reaches the same owners.
+    private DedupCache<long[]> allocatedIDs = DedupCache.fromConfig();
+
+    //--> Owners per auction. Read up front so an even factor stops the server before it joins the cluster.
+    private final int replicationFactor = ClusterConfig.getReplicationFactor();
+
+    //--> Partitions the auction and user IDs this front-end allocates from those of any other front-end.
+    private final int nodeID = ClusterConfig.getNodeID();
+
+    //--> Replicas that are suspected, unresponsive or slow are left out of requests until they have been caught up.
+    private ReplicaHealth health = new ReplicaHealth(ClusterConfig.getSlowFactor(), ClusterConfig.getSlowFloor());
+    //--> Hot-path instrumentation. Exposed over JMX as auction:type=Metrics,name=frontend.
+    private Metrics metrics = new Metrics("frontend");
+    private LatencyRecorder showAuctionLatency = metrics.timer("rmi.showAuction");
+    private LatencyRecorder showActiveLatency = metrics.timer("rmi.showActive");
+    private LatencyRecorder showTopLatency = metrics.timer("rmi.showTop");
+    private LatencyRecorder listMyAuctionsLatency = metrics.timer("rmi.listMyAuctions");
+    private LatencyRecorder browseLatency = metrics.timer("rmi.browse");
+    private LatencyRecorder queryLatency = metrics.timer("rmi.query");
+    private LatencyRecorder bidLatency = metrics.timer("rmi.bid");
+    private LatencyRecorder createAuctionLatency = metrics.timer("rmi.createAuction");
+    private LatencyRecorder createAuctionsLatency = metrics.timer("rmi.createAuctions");
+    private LatencyRecorder closeAuctionLatency = metrics.timer("rmi.closeAuction");
+    private LatencyRecorder getSettlementLatency = metrics.timer("rmi.getSettlement");
+    private LatencyRecorder listMySettlementsLatency = metrics.timer("rmi.listMySettlements");
+    private LatencyRecorder settledBetweenLatency = metrics.timer("rmi.settledBetween");
+    private LatencyRecorder repairLatency = metrics.timer("repair");
+    private LongAdder votes = metrics.counter("votes");
+    private LongAdder voteMismatches = metrics.counter("votes.mismatched");
+    private LongAdder repairBytes = metrics.counter("repair.bytes");
+    private LongAdder rateLimited = metrics.counter("admission.rateLimited");
+    private LongAdder shed = metrics.counter("admission.shed");
+    //--> Held while sending a write so writes to the same auction reach every replica in the same order.
+    private static final int WRITE_ORDER_STRIPES = 256;
+    private final Object[] writeOrder = new Object[WRITE_ORDER_STRIPES];
+    {
+        Arrays.setAll(writeOrder, i -> new Object());
+    }
+
+    private ConcurrentHashMap<Address, LatencyRecorder> replicaLatencies = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService prober = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task);
+        thread.setDaemon(true);
+        return thread;
+    });
 
     /** AuctionServer constructor. Creates and lists remote objects inside RMIRegistry and
      *  generates the severs public and private keys. */
     public AuctionServer() throws RemoteException {
+        this("rmi://localhost/AuctionService");
+    }
+
+    /** Binds the server under the provided registry URL. A null URL doesn't bind it (e.g. when run in process). */
+    public AuctionServer(String serviceURL) throws RemoteException {
         try {
-            Naming.rebind("rmi://localhost/AuctionService", this);
+            if (serviceURL != null) {
+                Naming.rebind(serviceURL, this);
+            }
         } catch(RemoteException e) {
             e.printStackTrace();
             System.err.println("RemoteException caught. Reconfigure registry.");
@@ -47,10 +120,14 @@ public class AuctionServer extends UnicastRemoteObject implements CanSell, CanBu
 
         byte[] privateKeyBytes =  Utility.getFileBytes("private_key_5");
         byte[] publicKeyBytes  =  Utility.getFileBytes("public_key_5");
-        PKCS8EncodedKeySpec privKeySpec = new PKCS8EncodedKeySpec(privateKeyBytes);
-        X509EncodedKeySpec pubKeySpec = new X509EncodedKeySpec(publicKeyBytes);
 
         try {
+            //--> Without key files the server still runs but clients can't log in.
+            if (privateKeyBytes == null || publicKeyBytes == null) {
+                throw new InvalidKeySpecException("Server key files not found.");
+            }
+            PKCS8EncodedKeySpec privKeySpec = new PKCS8EncodedKeySpec(privateKeyBytes);
+            X509EncodedKeySpec pubKeySpec = new X509EncodedKeySpec(publicKeyBytes);
             KeyFactory keyFactory = KeyFactory.getInstance("DSA", "SUN");
             serverPrivKey = keyFactory.generatePrivate(privKeySpec);
             serverPublicKey = keyFactory.generatePublic(pubKeySpec);
@@ -69,15 +146,103 @@ public class AuctionServer extends UnicastRemoteObject implements CanSell, CanBu
         this.serverPubKey = serverPublicKey;
 
         try {
-            this.channel = new JChannel();                                                                                    //--> Create a Channel and create request options. Block and wait for all responses. Second argument is timeout.
-            this.requestOptions = new RequestOptions(ResponseMode.GET_ALL, 1000).setTransientFlags(DONT_LOOPBACK);
+            this.channel = ClusterConfig.createChannel("frontend");                                             //--> Create a Channel and create request options. Block and wait for all responses. Second argument is timeout.
+            this.requestOptions = new RequestOptions(ResponseMode.GET_ALL, ClusterConfig.getRpcTimeout()).setTransientFlags(DONT_LOOPBACK);
             this.channel.connect("AUCTION_CLUSTER");                                                               //--> Join the cluster or create if it doesn't already exist.
+            this.refuseDuplicateNodeID();
             this.dispatcher = new RpcDispatcher(this.channel, this);                                                 //--> Set target of remote calls (server object). Setting server object to 'this' causes infinite remote calls?
+            this.dispatcher.setMembershipListener(new MembershipListener() {                                      //--> Exclude suspected replicas as soon as the failure detector reports them.
+                @Override
+                public void viewAccepted(View view) {
+                    health.viewAccepted(view);
+                    forgetDepartedReplicas(view);
+                }
+
+                @Override
+                public void suspect(Address member) {
+                    health.suspect(member);
+                }
+            });
+            this.loadUserDirectory();
+
+            long probeInterval = ClusterConfig.getProbeInterval();
+            this.prober.scheduleWithFixedDelay(this::probeExcludedReplicas, probeInterval, probeInterval, TimeUnit.MILLISECONDS);
+        } catch(RemoteException e) {
+            throw e;                                                                                            //--> Refused to start (see refuseDuplicateNodeID).
         } catch(Exception e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Leaves the cluster and throws if another front-end is running with this front-ends node ID, as both would
+     * allocate the same auction and user IDs. Two front-ends started without -Dauction.node.id always clash.
+     */
+    private void refuseDuplicateNodeID() throws RemoteException {
+        for (Address member : channel.getView().getMembers()) {
+            if (!member.equals(channel.getAddress()) && FrontendFirstPolicy.getNodeID(member) == nodeID) {
+                AsyncLog.warn("frontend.duplicateNodeID", "nodeID", nodeID, "member", member);
+                this.channel.close();
+                UnicastRemoteObject.unexportObject(this, true);
+                throw new RemoteException("Front-end " + member + " is already running as node " + nodeID
+                        + ". Start this one with a different -Dauction.node.id.");
+            }
+        }
+    }
+
+    /** Loads the replicated user directory from the replica servers so user IDs survive front-end restarts. */
+    private void loadUserDirectory() throws Exception {
+        ArrayList<Address> members = new ArrayList<Address>(channel.getView().getMembers());
+        members.remove(0);                                                                            //--> Remove coordinator (RMI Server)
+
+        if (members.size() == 0) {
+            return;
+        }
+
+        RspList<Object> userResponses = this.dispatcher.callRemoteMethods(members, "getUsers", null, null, this.requestOptions);
+        for (Object a : userResponses.keySet()) {
+            UserDirectory memberUsers = (UserDirectory) userResponses.getValue((Address)a);
+            if (memberUsers != null) {
+                users.putAll(memberUsers);
+            }
+        }
+    }
+
+    /** Returns the ID of the provided user. Users seen for the first time are assigned an ID which is registered on all replicas. */
+    private int resolveUserID(UserDetails userDetails, ArrayList<Address> members) {
+        Integer userID = users.getUserID(userDetails.getName());
+        UserDetails known = userID == null ? null : users.getUserDetails(userID);
+
+        if (known != null && known.getEmail().equals(userDetails.getEmail())) {
+            return userID;
+        }
+
+        synchronized (users) {
+            userID = users.getUserID(userDetails.getName());
+            if (userID == null) {
+                userID = users.nextUserID(nodeID);
+            }
+
+            try {
+                this.dispatcher.callRemoteMethods(members,
+                        "registerUser",
+                        new Object[]{userID, userDetails},
+                        new Class<?>[]{int.class, UserDetails.class},
+                        this.requestOptions);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+
+            users.register(userID, userDetails);
+            return userID;
+        }
+    }
+
+    /** Returns the details of the user with the provided ID. **/
+    public UserDetails getUserDetails(int userID) throws RemoteException {
+        return users.getUserDetails(userID);
+    }
+
     /** Main method calls AuctionServer constructor. Creates initial server. */
     public static void main(String[] args) {
         try {
@@ -90,190 +255,744 @@ public class AuctionServer extends UnicastRemoteObject implements CanSell, CanBu
     /** Calls 'showAuction' method on all cluster nodes. **/
     public ArrayList<Auction> showAuction(String keyWord) throws RemoteException {
 
-        View view = channel.getView();                                                                      //--> Get current view.
-        ArrayList<Address> members = new ArrayList<Address>(view.getMembers());                                   //--> Get all members in the cluster.
-        members.remove(0);                                                                            //--> Remove coordinator (RMI Server)
+        this.admitRead("showAuction");
+        long start = System.nanoTime();
+        try {
+            View view = channel.getView();                                                                      //--> Get current view.
+            ArrayList<Address> members = new ArrayList<Address>(view.getMembers());                                   //--> Get all members in the cluster.
+            members.remove(0);                                                                            //--> Remove coordinator (RMI Server)
+
+            //--> If no replicator servers up.
+            if (members.size() == 0) {
+                AsyncLog.warn("frontend.noReplicas");
+                return null;
+            }
 
-        //--> If no replicator servers up.
-        if (members.size() == 0) {
-            System.out.println("No active server to request auction data from.");
-            return null;
-        }
+            //--> When auctions are partitioned each replica only returns its own shard. Vote per auction amongst its owners.
+            ShardRouter router = this.getRouter();
+            if (router.isPartitioned()) {
+                RspList<Object> responses = null;
+                try {
+                    responses = this.callReplicas(members,
+                            "showAuction",
+                            new Object[]{keyWord},
+                            new Class<?>[]{String.class});
+                } catch(Exception e) {
+                    e.printStackTrace();
+                }
+                return this.mergePartitionedResponses(responses, router);
+            }
 
-        //--> Forward closeAuction request to all cluster members.
-        try {
-            responses = this.dispatcher.callRemoteMethods(members,
-                    "showAuction",
-                    new Object[]{keyWord},
-                    new Class[]{String.class},
-                    this.requestOptions);
-        } catch(Exception e) {
-            e.printStackTrace();
+            return this.voteOnSerialized(members, "showAuctionBytes", new Object[]{keyWord}, new Class<?>[]{String.class});
+        } finally {
+            showAuctionLatency.record(System.nanoTime() - start);
+            concurrency.release(System.nanoTime() - start);
         }
-
-        HashMap<Address, Integer> responseHashes = Utility.getResponseHashValue(responses, members);        //--> Generate hash values for each of the members responses.
-        Address majorityResponse = Utility.getMajorityResponseAddress(responseHashes);                      //--> Get the address of a majority response member.
-        this.updateNonMajorityState(responseHashes, majorityResponse, members);                             //--> Update non-majority responses.
-        return (ArrayList<Auction>) responses.getValue(majorityResponse);                                   //--> Return the response received from the majority response member.
     }
 
     /** Calls 'showActive' method on all cluster nodes. **/
     public ArrayList<Auction> showActive() throws RemoteException {
 
-        View view = channel.getView();                                                                      //--> Get current view.
-        ArrayList<Address> members = new ArrayList<Address>(view.getMembers());                                   //--> Get all members in the cluster.
-        members.remove(0);                                                                            //--> Remove coordinator (RMI Server)
+        this.admitRead("showActive");
+        long start = System.nanoTime();
+        try {
+            View view = channel.getView();                                                                      //--> Get current view.
+            ArrayList<Address> members = new ArrayList<Address>(view.getMembers());                                   //--> Get all members in the cluster.
+            members.remove(0);                                                                            //--> Remove coordinator (RMI Server)
+
+            //--> If no replicator servers up.
+            if (members.size() == 0) {
+                AsyncLog.warn("frontend.noReplicas");
+                return null;
+            }
 
-        //--> If no replicator servers up.
-        if (members.size() == 0) {
-            System.out.println("No active server to request auction data from.");
-            return null;
+            //--> When auctions are partitioned each replica only returns its own shard. Vote per auction amongst its owners.
+            ShardRouter router = this.getRouter();
+            if (router.isPartitioned()) {
+                RspList<Object> responses = this.callReplicas(members, "showActive", null, null);
+                return this.mergePartitionedResponses(responses, router);
+            }
+
+            return this.voteOnSerialized(members, "showActiveBytes", null, null);
+        } finally {
+            showActiveLatency.record(System.nanoTime() - start);
+            concurrency.release(System.nanoTime() - start);
         }
+    }
 
-        //--> Forward closeAuction request to all cluster members.
-        try {
-            responses = this.dispatcher.callRemoteMethods(members,
-                    "showActive",
-                    null,
-                    null,
-                    this.requestOptions);
-        } catch(Exception e) {
-            e.printStackTrace();
+    /**
+     * Calls a replica read that returns a cached serialized auction list. Identical catalogues give identical bytes so
+     * the bytes are voted on directly and only the majority response is deserialized.
+     */
+    @SuppressWarnings("unchecked")
+    private ArrayList<Auction> voteOnSerialized(ArrayList<Address> members, String method, Object[] args, Class<?>[] types) {
+        RspList<Object> responses = this.callReplicas(members, method, args, types);
+
+        HashMap<Address, Integer> responseHashes = new HashMap<>();
+        for (Object a : responses.keySet()) {
+            byte[] value = (byte[]) responses.getValue(a);
+            responseHashes.put((Address)a, value == null ? "null".hashCode() : Arrays.hashCode(value));
         }
 
-        if (responses == null) {
+        Address majorityResponse = Utility.getMajorityResponseAddress(responseHashes);                      //--> Get the address of a majority response member.
+        if (majorityResponse == null) {
             return null;
         }
 
-        HashMap<Address, Integer> responseHashes = Utility.getResponseHashValue(responses, members);        //--> Generate hash values for each of the members responses.
-        Address majorityResponse = Utility.getMajorityResponseAddress(responseHashes);                      //--> Get the address of a majority response member.
-        this.updateNonMajorityState(responseHashes, majorityResponse, members);                             //--> Update non-majority responses.
-        return (ArrayList<Auction>) responses.getValue(majorityResponse);                                   //--> Return the response received from the majority response member.
+        this.recordVote(responseHashes, majorityResponse);
+        this.repairInBackground(AuctionIds.NONE, responseHashes, majorityResponse, members);                        //--> Update non-majority responses.
+        return (ArrayList<Auction>) Utility.deserialize((byte[]) responses.getValue(majorityResponse));   //--> Return the response received from the majority response member.
     }
 
-    /** Calls 'bid' method on all replica servers. */
-    public String bid(String auctionID, UserDetails bidder, double amount) throws RemoteException {
+    /**
+     * Scatter-gather search. Each replica returns its own sorted top 'limit' matches (only auctions it is primary for)
+     * and the sorted lists are merged with a heap, so no replica has to return the full result set.
+     */
+    @SuppressWarnings("unchecked")
+    public ArrayList<Auction> showTop(String keyWord, int sortOrder, int limit) throws RemoteException {
 
-        View view = channel.getView();                                                                      //--> Get current view.
-        ArrayList<Address> members = new ArrayList<Address>(view.getMembers());                                   //--> Get all members in the cluster.
-        members.remove(0);
+        this.admitRead("showTop");
+        long start = System.nanoTime();
+        try {
+            ArrayList<Address> members = this.getReplicas();
 
-        // If no replicator servers up.
-        if (members.size() == 0) {
-            System.out.println("No active server to request auction data from.");
-            return null;
+            //--> If no replicator servers up.
+            if (members.size() == 0) {
+                AsyncLog.warn("frontend.noReplicas");
+                return null;
+            }
+
+            int k = AuctionSort.clampLimit(limit);
+            RspList<Object> topResponses;
+
+            //--> Query every replica concurrently. Latency is bounded by the slowest replica.
+            try {
+                topResponses = this.callReplicas(members,
+                        "searchTopBytes",
+                        new Object[]{keyWord, sortOrder, k},
+                        new Class<?>[]{String.class, int.class, int.class});
+            } catch(Exception e) {
+                e.printStackTrace();
+                return null;
+            }
+
+            ArrayList<ArrayList<Auction>> sortedLists = new ArrayList<>();
+            for (Object a : topResponses.keySet()) {
+                byte[] memberBytes = (byte[]) topResponses.getValue((Address)a);
+                if (memberBytes != null) {
+                    sortedLists.add((ArrayList<Auction>) Utility.deserialize(memberBytes));   //--> Cached on the replica until its catalogue changes.
+                }
+            }
+
+            return Utility.mergeTopK(sortedLists, AuctionSort.comparator(sortOrder, keyWord), k);
+        } finally {
+            showTopLatency.record(System.nanoTime() - start);
+            concurrency.release(System.nanoTime() - start);
         }
+    }
 
+    /**
+     * Returns a page of a sellers auctions. Each replica returns its own sorted top 'offset + limit' lots from its seller
+     * index and the sorted lists are merged with a heap, so the cost depends on the sellers lots not the catalogue.
+     */
+    @SuppressWarnings("unchecked")
+    public ArrayList<Auction> listMyAuctions(String username, int sortOrder, int offset, int limit) throws RemoteException {
+
+        this.admitUser(username, "listMyAuctions");
+        long start = System.nanoTime();
         try {
-            //--> Forward closeAuction request to all cluster members.
-            responses = this.dispatcher.callRemoteMethods(members,
-                    "bid",
-                    new Object[]{auctionID, bidder, amount},
-                    new Class[]{String.class, UserDetails.class, double.class},
-                    this.requestOptions);
-        } catch(Exception e) {
-            e.printStackTrace();
+            ArrayList<Address> members = this.getReplicas();
+
+            //--> If no replicator servers up.
+            if (members.size() == 0) {
+                AsyncLog.warn("frontend.noReplicas");
+                return null;
+            }
+
+            //--> Users that have never been seen can't own any auctions.
+            Integer sellerID = users.getUserID(username);
+            if (sellerID == null) {
+                return new ArrayList<>();
+            }
+
+            int skip = Math.min(Math.max(0, offset), Integer.MAX_VALUE - AuctionSort.MAX_LIMIT);
+            int k = skip + AuctionSort.clampLimit(limit);
+            RspList<Object> lotResponses;
+
+            try {
+                lotResponses = this.callReplicas(members,
+                        "sellerAuctions",
+                        new Object[]{sellerID, sortOrder, k},
+                        new Class<?>[]{int.class, int.class, int.class});
+            } catch(Exception e) {
+                e.printStackTrace();
+                return null;
+            }
+
+            ArrayList<ArrayList<Auction>> sortedLists = new ArrayList<>();
+            for (Object a : lotResponses.keySet()) {
+                ArrayList<Auction> memberAuctions = (ArrayList<Auction>) lotResponses.getValue((Address)a);
+                if (memberAuctions != null) {
+                    sortedLists.add(memberAuctions);
+                }
+            }
+
+            ArrayList<Auction> merged = Utility.mergeTopK(sortedLists, AuctionSort.comparator(sortOrder, null), k);
+            return skip >= merged.size() ? new ArrayList<>() : new ArrayList<>(merged.subList(skip, merged.size()));
+        } finally {
+            listMyAuctionsLatency.record(System.nanoTime() - start);
+            concurrency.release(System.nanoTime() - start);
         }
+    }
 
-        HashMap<Address, Integer> responseHashes = new HashMap<>();
+    /**
+     * Returns the settlement of a closed auction from its owners. Settlements never change once archived so the first
+     * owner to answer with one is used rather than voting. Settlements stay on the replicas that settled the auction
+     * and aren't moved by state transfer or rebalancing, so if no current owner holds it the other replicas are asked.
+     */
+    public Settlement getSettlement(long auctionID) throws RemoteException {
 
-        //--> Generate response hashes.
-        for (Object a : responses.keySet())  {
-            String value = (String)responses.getValue(a);
-            if (value == null) {
-                responseHashes.put((Address)a, "null".hashCode());
-            } else {
-                responseHashes.put((Address)a, value.hashCode());
+        this.admitRead("getSettlement");
+        long start = System.nanoTime();
+        try {
+            ArrayList<Address> owners = this.getRouter().getOwners(auctionID);
+
+            //--> If no replicator servers up.
+            if (owners.size() == 0) {
+                AsyncLog.warn("frontend.noReplicas");
+                return null;
+            }
+
+            Settlement settlement = this.findSettlement(owners, auctionID);
+            if (settlement == null) {
+                //--> Owners have changed since the close (a replica joined or left), or joined after it.
+                ArrayList<Address> others = this.getReplicas();
+                others.removeAll(owners);
+                if (others.size() > 0) {
+                    settlement = this.findSettlement(others, auctionID);
+                }
             }
+            return settlement;
+        } finally {
+            getSettlementLatency.record(System.nanoTime() - start);
+            concurrency.release(System.nanoTime() - start);
         }
+    }
 
-        Address majorityResponse = Utility.getMajorityResponseAddress(responseHashes);                      //--> Get the address of a majority response member.
-        this.updateNonMajorityState(responseHashes, majorityResponse, members);                             //--> Update non-majority responses.
-        return (String) responses.getValue(majorityResponse);                                               //--> Return the response received from the majority response member.
+    /** Returns the first settlement of the auction returned by the replicas, or null if none hold it. **/
+    private Settlement findSettlement(ArrayList<Address> replicas, long auctionID) {
+        RspList<Object> responses = this.callReplicas(replicas, "getSettlement", new Object[]{auctionID}, new Class<?>[]{long.class});
+        for (Object a : responses.keySet()) {
+            Settlement settlement = (Settlement) responses.getValue((Address)a);
+            if (settlement != null) {
+                return settlement;
+            }
+        }
+        return null;
     }
 
-    /** Calls 'createAuction' method on all replica servers. */
-    public String createAuction(String name, double startPrice, double reserve, String desc, UserDetails userDetails) throws RemoteException {
+    /**
+     * Returns a page of the sellers settlements. Every replica returns its newest 'offset + limit' and, as each closed
+     * auction is settled on all of its owners, duplicates are dropped while merging.
+     */
+    public ArrayList<Settlement> listMySettlements(String username, int offset, int limit) throws RemoteException {
 
-        View view = channel.getView();                                                                      //--> Get current view.
-        ArrayList<Address> members = new ArrayList<Address>(view.getMembers());                                   //--> Get all members in the cluster.
-        members.remove(0);                                                                            //--> Remove coordinator (RMI Server)
+        this.admitUser(username, "listMySettlements");
+        long start = System.nanoTime();
+        try {
+            ArrayList<Address> members = this.getReplicas();
 
-        //--> If no replicator servers up.
-        if (members.size() == 0) {
-            System.out.println("No active server to request auction data from.");
-            return null;
+            //--> If no replicator servers up.
+            if (members.size() == 0) {
+                AsyncLog.warn("frontend.noReplicas");
+                return null;
+            }
+
+            //--> Users that have never been seen can't own any auctions.
+            Integer sellerID = users.getUserID(username);
+            if (sellerID == null) {
+                return new ArrayList<>();
+            }
+
+            int skip = Math.min(Math.max(0, offset), Integer.MAX_VALUE - AuctionSort.MAX_LIMIT);
+            int k = skip + AuctionSort.clampLimit(limit);
+            RspList<Object> responses = this.callReplicas(members, "sellerSettlements", new Object[]{sellerID, k}, new Class<?>[]{int.class, int.class});
+            return AuctionServer.mergeSettlements(responses, skip, k);
+        } finally {
+            listMySettlementsLatency.record(System.nanoTime() - start);
+            concurrency.release(System.nanoTime() - start);
         }
+    }
 
-        String auctionID = (UUID.randomUUID().toString()).substring(0, 8);
+    /**
+     * Reporting over the replicas settlement archives. Auction IDs start with their creation time (see AuctionIds) so
+     * the time range becomes an auction ID range, which each archive answers from its sparse index.
+     */
+    public ArrayList<Settlement> settledBetween(long fromMillis, long toMillis, int offset, int limit) throws RemoteException {
 
+        this.admitRead("settledBetween");
+        long start = System.nanoTime();
         try {
-            //--> Forward closeAuction request to all cluster members.
-            responses = this.dispatcher.callRemoteMethods(members,
-                    "createAuction",
-                    new Object[]{name, startPrice, reserve, desc, userDetails, auctionID},
-                    new Class[]{String.class, double.class, double.class, String.class, UserDetails.class, String.class},
-                    this.requestOptions);
-        } catch(Exception e) {
-            e.printStackTrace();
+            ArrayList<Address> members = this.getReplicas();
+
+            //--> If no replicator servers up.
+            if (members.size() == 0) {
+                AsyncLog.warn("frontend.noReplicas");
+                return null;
+            }
+
+            if (toMillis < fromMillis) {
+                return new ArrayList<>();
+            }
+
+            long fromID = AuctionIds.firstAt(fromMillis);
+            long toID = AuctionIds.lastAt(toMillis);
+            int skip = Math.min(Math.max(0, offset), Integer.MAX_VALUE - AuctionSort.MAX_LIMIT);
+            int k = skip + AuctionSort.clampLimit(limit);
+            RspList<Object> responses = this.callReplicas(members, "settledBetween", new Object[]{fromID, toID, k}, new Class<?>[]{long.class, long.class, int.class});
+            return AuctionServer.mergeSettlements(responses, skip, k);
+        } finally {
+            settledBetweenLatency.record(System.nanoTime() - start);
+            concurrency.release(System.nanoTime() - start);
         }
+    }
 
-        HashMap<Address, Integer> responseHashes = new HashMap<>();
+    /**
+     * Merges the replicas newest-first settlement lists into one page. Each closed auction is settled on all of its
+     * owners so duplicates are dropped.
+     */
+    @SuppressWarnings("unchecked")
+    private static ArrayList<Settlement> mergeSettlements(RspList<Object> responses, int skip, int k) {
+        HashMap<Long, Settlement> distinct = new HashMap<>();
+        for (Object a : responses.keySet()) {
+            ArrayList<Settlement> memberSettlements = (ArrayList<Settlement>) responses.getValue((Address)a);
+            if (memberSettlements != null) {
+                for (Settlement settlement : memberSettlements) {
+                    distinct.putIfAbsent(settlement.getAuctionID(), settlement);
+                }
+            }
+        }
 
-        for (Object a : responses.keySet())  {
-            String value = (String)responses.getValue(a);
-            if (value == null) {
-                responseHashes.put((Address)a, "null".hashCode());
-            } else {
-                responseHashes.put((Address)a, value.hashCode());
+        ArrayList<Settlement> merged = new ArrayList<>(distinct.values());
+        merged.sort(SettlementArchive.NEWEST_FIRST);
+        return skip >= merged.size() ? new ArrayList<>() : new ArrayList<>(merged.subList(skip, Math.min(k, merged.size())));
+    }
+
+    /**
+     * Price range browsing. Each replica walks its price index and returns its first 'offset + limit' matches in order.
+     * The sorted lists are merged with a heap so no replica has to return the whole range.
+     */
+    @SuppressWarnings("unchecked")
+    public ArrayList<Auction> browse(long minPrice, long maxPrice, int sortOrder, int offset, int limit) throws RemoteException {
+
+        this.admitRead("browse");
+        long start = System.nanoTime();
+        try {
+            ArrayList<Address> members = this.getReplicas();
+
+            //--> If no replicator servers up.
+            if (members.size() == 0) {
+                AsyncLog.warn("frontend.noReplicas");
+                return null;
+            }
+
+            int skip = Math.min(Math.max(0, offset), Integer.MAX_VALUE - AuctionSort.MAX_LIMIT);
+            int k = skip + AuctionSort.clampLimit(limit);
+            RspList<Object> browseResponses;
+
+            try {
+                browseResponses = this.callReplicas(members,
+                        "browse",
+                        new Object[]{minPrice, maxPrice, sortOrder, k},
+                        new Class<?>[]{long.class, long.class, int.class, int.class});
+            } catch(Exception e) {
+                e.printStackTrace();
+                return null;
+            }
+
+            ArrayList<ArrayList<Auction>> sortedLists = new ArrayList<>();
+            for (Object a : browseResponses.keySet()) {
+                ArrayList<Auction> memberAuctions = (ArrayList<Auction>) browseResponses.getValue((Address)a);
+                if (memberAuctions != null) {
+                    sortedLists.add(memberAuctions);
+                }
             }
+
+            ArrayList<Auction> merged = Utility.mergeTopK(sortedLists, AuctionSort.comparator(sortOrder, null), k);
+            return skip >= merged.size() ? new ArrayList<>() : new ArrayList<>(merged.subList(skip, merged.size()));
+        } finally {
+            browseLatency.record(System.nanoTime() - start);
+            concurrency.release(System.nanoTime() - start);
         }
+    }
 
-        Address majorityResponse = Utility.getMajorityResponseAddress(responseHashes);                      //--> Get the address of a majority response member.
-        this.updateNonMajorityState(responseHashes, majorityResponse, members);                             //--> Update non-majority responses.
-        return (String) responses.getValue(majorityResponse);                                               //--> Return the response received from the majority response member.
+    /**
+     * Combined query. The filters are pushed down so each replica returns only its own sorted top 'offset + limit'
+     * matching rows, projected to the requested fields. The sorted lists are merged with a heap.
+     */
+    @SuppressWarnings("unchecked")
+    public ArrayList<AuctionRow> query(AuctionQuery query) throws RemoteException {
+
+        this.admitRead("query");
+        long start = System.nanoTime();
+        try {
+            ArrayList<Address> members = this.getReplicas();
+
+            //--> If no replicator servers up.
+            if (members.size() == 0) {
+                AsyncLog.warn("frontend.noReplicas");
+                return null;
+            }
+
+            //--> Users that have never been seen can't own any auctions.
+            int sellerID = UserDirectory.NO_USER;
+            if (query.getSellerName() != null) {
+                Integer userID = users.getUserID(query.getSellerName());
+                if (userID == null) {
+                    return new ArrayList<>();
+                }
+                sellerID = userID;
+            }
+
+            int skip = Math.min(Math.max(0, query.getOffset()), Integer.MAX_VALUE - AuctionSort.MAX_LIMIT);
+            int k = skip + AuctionSort.clampLimit(query.getLimit());
+            RspList<Object> queryResponses;
+
+            try {
+                queryResponses = this.callReplicas(members,
+                        "query",
+                        new Object[]{query.forReplicas(sellerID, k)},
+                        new Class<?>[]{AuctionQuery.class});
+            } catch(Exception e) {
+                e.printStackTrace();
+                return null;
+            }
+
+            ArrayList<ArrayList<AuctionRow>> sortedLists = new ArrayList<>();
+            for (Object a : queryResponses.keySet()) {
+                ArrayList<AuctionRow> memberRows = (ArrayList<AuctionRow>) queryResponses.getValue((Address)a);
+                if (memberRows != null) {
+                    sortedLists.add(memberRows);
+                }
+            }
+
+            ArrayList<AuctionRow> merged = Utility.mergeTopK(sortedLists, AuctionSort.comparator(query.getSortOrder(), query.getKeyWord()), k);
+            return skip >= merged.size() ? new ArrayList<>() : new ArrayList<>(merged.subList(skip, merged.size()));
+        } finally {
+            queryLatency.record(System.nanoTime() - start);
+            concurrency.release(System.nanoTime() - start);
+        }
     }
 
-    /** Calls 'closeAuction' method on all replica servers. */
-    public Auction closeAuction(String auctionID, String username) {
+    /** Calls 'bid' method on all replica servers. Replicas answer a retried request ID with the original response. */
+    public String bid(String requestID, long auctionID, UserDetails bidder, long amount) throws RemoteException {
 
-        View view = channel.getView();                                                                      //--> Get current view.
-        ArrayList<Address> members = new ArrayList<Address>(view.getMembers());                                   //--> Get all members in the cluster.
-        members.remove(0);                                                                            //--> Remove coordinator (RMI Server)
+        this.admitUser(bidder.getName(), "bid");
+        long start = System.nanoTime();
+        try {
+            ArrayList<Address> members = this.getRouter().getOwners(auctionID);                               //--> Only the replicas that own the auction.
 
-        //--> If no replicator servers up.
-        if (members.size() == 0) {
-            System.out.println("No active server to request auction data from.");
-            return null;
+            // If no replicator servers up.
+            if (members.size() == 0) {
+                AsyncLog.warn("frontend.noReplicas");
+                return null;
+            }
+
+            int bidderID = this.resolveUserID(bidder, this.getReplicas());
+
+            //--> Leader write mode. Only the auctions leader applies and answers. It replicates to the other owners itself.
+            if (ClusterConfig.isLeaderWriteMode()) {
+                return this.callLeader(members, "leaderBid",
+                        new Object[]{requestID, auctionID, bidderID, amount},
+                        new Class<?>[]{String.class, long.class, int.class, long.class});
+            }
+
+            RspList<Object> responses = null;
+            try {
+                //--> Forward closeAuction request to all cluster members.
+                responses = this.callReplicasInOrder(auctionID, members,
+                        "bid",
+                        new Object[]{requestID, auctionID, bidderID, amount},
+                        new Class<?>[]{String.class, long.class, int.class, long.class});
+            } catch(Exception e) {
+                e.printStackTrace();
+            }
+
+            HashMap<Address, Integer> responseHashes = new HashMap<>();
+
+            //--> Generate response hashes.
+            for (Object a : responses.keySet())  {
+                String value = (String)responses.getValue(a);
+                if (value == null) {
+                    responseHashes.put((Address)a, "null".hashCode());
+                } else {
+                    responseHashes.put((Address)a, value.hashCode());
+                }
+            }
+
+            Address majorityResponse = Utility.getMajorityResponseAddress(responseHashes);                      //--> Get the address of a majority response member.
+            this.recordVote(responseHashes, majorityResponse);
+            this.repairInBackground(auctionID, responseHashes, majorityResponse, members);                   //--> Update non-majority responses.
+            return (String) responses.getValue(majorityResponse);                                               //--> Return the response received from the majority response member.
+        } finally {
+            bidLatency.record(System.nanoTime() - start);
+            concurrency.release(System.nanoTime() - start);
         }
+    }
+
+    /** Calls 'createAuction' method on all replica servers. A retried request ID reuses the auction ID first allocated. */
+    public long createAuction(String requestID, String name, long startPrice, long reserve, String desc, UserDetails userDetails) throws RemoteException {
 
-        //--> Forward closeAuction request to all cluster members.
+        this.admitUser(userDetails.getName(), "createAuction");
+        long start = System.nanoTime();
         try {
-            responses = this.dispatcher.callRemoteMethods(members,
-                    "closeAuction",
-                    new Object[]{auctionID, username},
-                    new Class[]{String.class, String.class},
-                    this.requestOptions);
-        } catch(Exception e) {
-            e.printStackTrace();
+            View view = channel.getView();                                                                      //--> Get current view.
+            ArrayList<Address> members = new ArrayList<Address>(view.getMembers());                                   //--> Get all members in the cluster.
+            members.remove(0);                                                                            //--> Remove coordinator (RMI Server)
+
+            //--> If no replicator servers up.
+            if (members.size() == 0) {
+                AsyncLog.warn("frontend.noReplicas");
+                return AuctionIds.NONE;
+            }
+
+            long auctionID = this.allocateIDs(requestID, 1)[0];
+            int sellerID = this.resolveUserID(userDetails, members);
+            members = this.getRouter().getOwners(auctionID);                                                    //--> Only the replicas that will own the auction.
+
+            if (ClusterConfig.isLeaderWriteMode()) {
+                Long created = this.callLeader(members, "leaderCreateAuction",
+                        new Object[]{requestID, name, startPrice, reserve, desc, sellerID, auctionID},
+                        new Class<?>[]{String.class, String.class, long.class, long.class, String.class, int.class, long.class});
+                return created == null ? AuctionIds.NONE : created;
+            }
+
+            RspList<Object> responses = null;
+            try {
+                //--> Forward closeAuction request to all cluster members.
+                responses = this.callReplicasInOrder(auctionID, members,
+                        "createAuction",
+                        new Object[]{requestID, name, startPrice, reserve, desc, sellerID, auctionID},
+                        new Class<?>[]{String.class, String.class, long.class, long.class, String.class, int.class, long.class});
+            } catch(Exception e) {
+                e.printStackTrace();
+            }
+
+            HashMap<Address, Integer> responseHashes = new HashMap<>();
+
+            for (Object a : responses.keySet())  {
+                Long value = (Long)responses.getValue(a);
+                if (value == null) {
+                    responseHashes.put((Address)a, "null".hashCode());
+                } else {
+                    responseHashes.put((Address)a, value.hashCode());
+                }
+            }
+
+            Address majorityResponse = Utility.getMajorityResponseAddress(responseHashes);                      //--> Get the address of a majority response member.
+            this.recordVote(responseHashes, majorityResponse);
+            this.repairInBackground(auctionID, responseHashes, majorityResponse, members);                   //--> Update non-majority responses.
+
+            Long created = majorityResponse == null ? null : (Long) responses.getValue(majorityResponse);      //--> Return the response received from the majority response member.
+            return created == null ? AuctionIds.NONE : created;
+        } finally {
+            createAuctionLatency.record(System.nanoTime() - start);
+            concurrency.release(System.nanoTime() - start);
         }
+    }
 
-        HashMap<Address, Integer> responseHashes = new HashMap<>();
+    /**
+     * Bulk import. Allocates an ID for every valid lot then sends each replica the lots it owns in a single RPC, all
+     * replicas concurrently. A lot is created if a majority of its owners applied it (or its leader did in leader
+     * write mode). Returns the IDs in lot order with AuctionIds.NONE for lots that weren't created. Lots that fall
+     * short are dropped from every owner so none is left holding an auction its seller was told doesn't exist. A
+     * retried request ID reuses the IDs first allocated so lots already applied by a replica aren't created twice.
+     */
+    public long[] createAuctions(String requestID, ArrayList<AuctionLot> lots, UserDetails userDetails) throws RemoteException {
 
-        //--> Generate hash values for auctions.
-        for (Object a : responses.keySet()) {
-            Auction mAuc = (Auction) responses.getValue((Address)a);
-            if (mAuc != null) {
-                Integer aucHashValue = mAuc.getAuctionData().hashCode();
-                responseHashes.put((Address)a, aucHashValue);
-            } else {
-                responseHashes.put((Address)a, "null".hashCode());
+        this.admitUser(userDetails.getName(), "createAuctions");
+        long start = System.nanoTime();
+        try {
+            ArrayList<Address> replicas = this.getReplicas();
+
+            //--> If no replicator servers up.
+            if (replicas.size() == 0) {
+                AsyncLog.warn("frontend.noReplicas");
+                return new long[lots.size()];
+            }
+
+            long[] auctionIDs = this.allocateIDs(requestID, lots.size()).clone();
+
+            int sellerID = this.resolveUserID(userDetails, replicas);
+            ShardRouter router = this.getRouter();
+            boolean leaderMode = ClusterConfig.isLeaderWriteMode();
+
+            //--> Group the batch by the replicas that must apply each auction. In leader mode only the leader applies it.
+            HashMap<Address, ArrayList<Auction>> batches = new HashMap<>();
+            ArrayList<ArrayList<Address>> owners = new ArrayList<>(lots.size());
+            for (int i = 0; i < lots.size(); i++) {
+                AuctionLot lot = lots.get(i);
+                if (!lot.isValid()) {
+                    auctionIDs[i] = AuctionIds.NONE;
+                    owners.add(new ArrayList<>());
+                    continue;
+                }
+
+                Auction auction = new Auction(lot.getName(), lot.getStartPrice(), lot.getReserve(), lot.getDesc(), sellerID, auctionIDs[i]);
+
+                ArrayList<Address> auctionOwners = router.getOwners(auction.getAuctionID());
+                if (leaderMode) {
+                    ArrayList<Address> healthy = this.health.filterHealthy(auctionOwners);
+                    auctionOwners = healthy.size() == 0 ? healthy : new ArrayList<>(healthy.subList(0, 1));
+                }
+                owners.add(auctionOwners);
+
+                for (Address owner : auctionOwners) {
+                    batches.computeIfAbsent(owner, k -> new ArrayList<>()).add(auction);
+                }
+            }
+
+            //--> An empty batch, or one where every lot is invalid, has nothing to send.
+            if (batches.isEmpty()) {
+                Arrays.fill(auctionIDs, AuctionIds.NONE);
+                AsyncLog.info("frontend.createAuctions", "lots", lots.size(), "created", 0, "replicas", 0);
+                return auctionIDs;
+            }
+
+            String method = leaderMode ? "leaderCreateAuctions" : "createAuctions";
+            RspList<Object> responses = this.callReplicas(new ArrayList<>(batches.keySet()),
+                    member -> new MethodCall(method, new Object[]{requestID, batches.get(member)}, new Class<?>[]{String.class, ArrayList.class}));
+
+            //--> A replica answers with the number of auctions it applied. Only a full batch counts as applied.
+            HashSet<Address> applied = new HashSet<>();
+            for (Object a : responses.keySet()) {
+                Integer count = (Integer) responses.getValue(a);
+                if (count != null && count == batches.get((Address)a).size()) {
+                    applied.add((Address)a);
+                }
+            }
+
+            int created = 0;
+            HashMap<Address, ArrayList<Long>> rollbacks = new HashMap<>();
+            for (int i = 0; i < auctionIDs.length; i++) {
+                ArrayList<Address> auctionOwners = owners.get(i);
+                int acks = 0;
+                for (Address owner : auctionOwners) {
+                    if (applied.contains(owner)) {
+                        acks++;
+                    }
+                }
+
+                if (auctionOwners.size() == 0 || acks < auctionOwners.size() / 2 + 1) {
+                    //--> Every owner, not just those that answered: one that timed out may still apply it, and in
+                    //--> leader mode the leader may have passed it to its followers.
+                    if (auctionOwners.size() > 0) {
+                        for (Address owner : router.getOwners(auctionIDs[i])) {
+                            rollbacks.computeIfAbsent(owner, k -> new ArrayList<>()).add(auctionIDs[i]);
+                        }
+                    }
+                    auctionIDs[i] = AuctionIds.NONE;
+                } else {
+                    created++;
+                }
             }
+            this.rollbackInBackground(rollbacks);
+
+            AsyncLog.info("frontend.createAuctions", "lots", lots.size(), "created", created, "replicas", batches.size());
+            return auctionIDs;
+        } finally {
+            createAuctionsLatency.record(System.nanoTime() - start);
+            concurrency.release(System.nanoTime() - start);
         }
+    }
 
-        Address majorityResponse = Utility.getMajorityResponseAddress(responseHashes);                      //--> Get the address of a majority response member.
-        this.updateNonMajorityState(responseHashes, majorityResponse, members);                             //--> Update non-majority responses.
-        return (Auction) responses.getValue(majorityResponse);                                              //--> Return the response received from the majority response member.
+    /**
+     * Drops bulk imported auctions from the replicas that may hold them. Sent after the createAuctions batch from the
+     * same sender so a replica that applies the batch late still drops them afterwards.
+     */
+    private void rollbackInBackground(HashMap<Address, ArrayList<Long>> rollbacks) {
+        if (rollbacks.isEmpty()) {
+            return;
+        }
+
+        repairExecutor.execute(() -> {
+            RspList<Object> responses = this.callReplicas(new ArrayList<>(rollbacks.keySet()), member -> new MethodCall("dropAuctions",
+                    new Object[]{rollbacks.get(member).stream().mapToLong(Long::longValue).toArray()}, new Class<?>[]{long[].class}));
+            AsyncLog.info("frontend.createAuctionsRolledBack", "replicas", rollbacks.size(), "responded", responses.numReceived());
+        });
+    }
+
+    /**
+     * Calls 'closeAuction' method on all replica servers. Returns the settlement the majority computed, or null if the
+     * auction wasn't closed. Replicas answer a retried request ID with the original settlement.
+     */
+    public Settlement closeAuction(String requestID, long auctionID, String username) throws RemoteException {
+
+        this.admitUser(username, "closeAuction");
+        long start = System.nanoTime();
+        try {
+            View view = channel.getView();                                                                      //--> Get current view.
+            ArrayList<Address> members = new ArrayList<Address>(view.getMembers());                                   //--> Get all members in the cluster.
+            members.remove(0);                                                                            //--> Remove coordinator (RMI Server)
+
+            //--> If no replicator servers up.
+            if (members.size() == 0) {
+                AsyncLog.warn("frontend.noReplicas");
+                return null;
+            }
+
+            //--> Users that have never been seen can't own any auctions.
+            Integer sellerID = users.getUserID(username);
+            if (sellerID == null) {
+                return null;
+            }
+
+            members = this.getRouter().getOwners(auctionID);                                                    //--> Only the replicas that own the auction.
+
+            if (ClusterConfig.isLeaderWriteMode()) {
+                return this.callLeader(members, "leaderCloseAuction",
+                        new Object[]{requestID, auctionID, sellerID},
+                        new Class<?>[]{String.class, long.class, int.class});
+            }
+
+            //--> Forward closeAuction request to all cluster members.
+            RspList<Object> responses = null;
+            try {
+                responses = this.callReplicasInOrder(auctionID, members,
+                        "closeAuction",
+                        new Object[]{requestID, auctionID, sellerID},
+                        new Class<?>[]{String.class, long.class, int.class});
+            } catch(Exception e) {
+                e.printStackTrace();
+            }
+
+            HashMap<Address, Integer> responseHashes = new HashMap<>();
+
+            //--> Generate hash values for settlements.
+            for (Object a : responses.keySet()) {
+                Settlement settlement = (Settlement) responses.getValue((Address)a);
+                if (settlement != null) {
+                    responseHashes.put((Address)a, settlement.getDataHash());
+                } else {
+                    responseHashes.put((Address)a, "null".hashCode());
+                }
+            }
+
+            Address majorityResponse = Utility.getMajorityResponseAddress(responseHashes);                      //--> Get the address of a majority response member.
+            this.recordVote(responseHashes, majorityResponse);
+            Settlement settlement = majorityResponse == null ? null : (Settlement) responses.getValue(majorityResponse);
+
+            //--> Owners that didn't close it are sent the settlement rather than repaired from the majority state.
+            if (settlement != null) {
+                this.settleInBackground(settlement, responseHashes, majorityResponse);
+            } else {
+                this.repairInBackground(auctionID, responseHashes, majorityResponse, members);               //--> Update non-majority responses.
+            }
+            return settlement;                                                                                  //--> Return the response received from the majority response member.
+        } finally {
+            closeAuctionLatency.record(System.nanoTime() - start);
+            concurrency.release(System.nanoTime() - start);
+        }
     }
 
     /**
@@ -409,32 +1128,498 @@ public class AuctionServer extends UnicastRemoteObject implements CanSell, CanBu
         return verified;
     }
 
-    /** Updates all non-majority members with an up to date state. **/
+    /** Returns every replica server in the current view (all members except the coordinator RMI server). **/
+    private ArrayList<Address> getReplicas() {
+        ArrayList<Address> members = new ArrayList<Address>(channel.getView().getMembers());
+        members.remove(0);
+        return members;
+    }
+
+    /** Returns the shard router for the current view. Rebuilt only when the view changes. **/
+    private synchronized ShardRouter getRouter() {
+        View view = channel.getView();
+        if (router == null || !view.getViewId().equals(routerViewId)) {
+            router = new ShardRouter(this.getReplicas(), replicationFactor);
+            routerViewId = view.getViewId();
+        }
+        return router;
+    }
+
+    /**
+     * Calls a method on every healthy member with a unicast each so that each replicas latency is measured. Returns
+     * once every member has answered, or once a majority has answered and the rest have had the straggler grace
+     * period, or when the RPC timeout expires. Members that fail to answer within the RPC timeout are excluded from
+     * later requests.
+     */
+    private RspList<Object> callReplicas(ArrayList<Address> members, String method, Object[] args, Class<?>[] types) {
+        MethodCall call = new MethodCall(method, args, types);
+        return this.callReplicas(members, member -> call, null);
+    }
+
+    /** Same as callReplicas above but each member is sent its own call, e.g. only the part of a batch it owns. **/
+    private RspList<Object> callReplicas(ArrayList<Address> members, Function<Address, MethodCall> calls) {
+        return this.callReplicas(members, calls, null);
+    }
+
+    /**
+     * Same as callReplicas above for a write to a single auction. The unicasts for writes to the same auction are sent
+     * one write at a time, so every replica receives (and, as writes run on its delivery thread, applies) them in the
+     * same order. Concurrent RMI threads could otherwise interleave their sends, e.g. two equal bids could be applied
+     * in a different order on each replica.
+     */
+    private RspList<Object> callReplicasInOrder(long auctionID, ArrayList<Address> members, String method, Object[] args, Class<?>[] types) {
+        MethodCall call = new MethodCall(method, args, types);
+        return this.callReplicas(members, member -> call, writeOrder[(int) (AuctionStore.mix(auctionID) & (WRITE_ORDER_STRIPES - 1))]);
+    }
+
+    /** Sends the calls, holding 'sendLock' (if any) while sending, then waits for the responses as described above. **/
+    private RspList<Object> callReplicas(ArrayList<Address> members, Function<Address, MethodCall> calls, Object sendLock) {
+        ArrayList<Address> targets = this.health.filterHealthy(members);
+        if (targets.isEmpty()) {
+            return new RspList<>();                                                                     //--> Nothing to call (e.g. every replica excluded).
+        }
+
+        RspList<Object> received = new RspList<>(targets.size());
+        ArrayList<CompletableFuture<Object>> pending = new ArrayList<>(targets.size());
+        int[] completed = {0};
+        long[] starts = new long[targets.size()];
+
+        if (sendLock == null) {
+            this.send(targets, calls, pending, starts);
+        } else {
+            synchronized (sendLock) {
+                this.send(targets, calls, pending, starts);
+            }
+        }
+
+        for (int i = 0; i < targets.size(); i++) {
+            Address target = targets.get(i);
+            long start = starts[i];
+            CompletableFuture<Object> future = pending.get(i);
+            if (future == null) {
+                this.health.recordFailure(target);
+                synchronized (received) {
+                    completed[0]++;
+                }
+                continue;
+            }
+
+            future.whenComplete((value, error) -> {
+                if (error == null) {
+                    long latency = System.nanoTime() - start;
+                    this.replicaLatencies.computeIfAbsent(target, a -> metrics.timer("replica." + a + ".rpc")).record(latency);
+                    this.health.recordResponse(target, latency);
+                } else {
+                    this.health.recordFailure(target);
+                }
+                synchronized (received) {
+                    if (error == null) {
+                        received.addRsp(target, value);
+                    }
+                    completed[0]++;
+                    received.notifyAll();
+                }
+            });
+        }
+
+        int majority = targets.size() / 2 + 1;
+        long deadline = System.currentTimeMillis() + ClusterConfig.getRpcTimeout();
+        boolean graceStarted = false;
+
+        synchronized (received) {
+            try {
+                while (completed[0] < targets.size()) {
+                    if (!graceStarted && received.size() >= majority) {
+                        deadline = Math.min(deadline, System.currentTimeMillis() + ClusterConfig.getStragglerGrace());
+                        graceStarted = true;
+                    }
+
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    received.wait(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            //--> Stragglers may still answer until the RPC timeout. Then they are cancelled, which records them as failed.
+            long rpcTimeoutLeft = ClusterConfig.getRpcTimeout() - (System.nanoTime() - starts[0]) / 1_000_000;
+            for (CompletableFuture<Object> future : pending) {
+                if (future != null && !future.isDone()) {
+                    Utility.cancelAfter(future, Math.max(0, rpcTimeoutLeft));
+                }
+            }
+
+            //--> Copy so that late responses don't change the list while it is being voted on.
+            RspList<Object> responses = new RspList<>(received.size());
+            for (Address member : received.keySet()) {
+                responses.addRsp(member, received.getValue(member));
+            }
+            return responses;
+        }
+    }
+
+    /** Sends each target its call. A target that couldn't be sent to gets a null future. **/
+    private void send(ArrayList<Address> targets, Function<Address, MethodCall> calls, ArrayList<CompletableFuture<Object>> pending, long[] starts) {
+        for (int i = 0; i < targets.size(); i++) {
+            starts[i] = System.nanoTime();
+            try {
+                pending.add(this.dispatcher.callRemoteMethodWithFuture(targets.get(i), calls.apply(targets.get(i)), this.requestOptions));
+            } catch (Exception e) {
+                pending.add(null);
+            }
+        }
+    }
+
+    /** Drops the rpc timers of replicas that have left the view so departed addresses don't pile up in Metrics. **/
+    private void forgetDepartedReplicas(View view) {
+        replicaLatencies.keySet().removeIf(replica -> {
+            if (view.containsMember(replica)) {
+                return false;
+            }
+            metrics.removeTimer("replica." + replica + ".rpc");
+            return true;
+        });
+    }
+
+    /** Probes excluded replicas. A replica that answers is caught up and readmitted. **/
+    private void probeExcludedReplicas() {
+        ArrayList<Address> replicas = this.getReplicas();
+        RequestOptions probeOptions = new RequestOptions(ResponseMode.GET_ALL, ClusterConfig.getSlowFloor() * 10);
+
+        for (Address member : this.health.getExcluded()) {
+            if (!replicas.contains(member)) {
+                continue;
+            }
+
+            try {
+                this.dispatcher.callRemoteMethod(member, "ping", null, null, probeOptions);
+                this.catchUp(member, replicas, true);
+                this.health.readmit(member);
+                //--> Writes made while the first copy ran went only to the healthy replicas. Later ones reach it directly.
+                this.catchUp(member, replicas, false);
+            } catch (Exception e) {
+                //--> Still unhealthy. Try again on the next probe.
+            }
+        }
+    }
+
+    /**
+     * Brings a recovered replica up to date from the healthy replicas: the auctions it owns and the closes it missed.
+     * Merged rather than replaced so the copy can't undo a newer bid the replica already holds. With 'dropMissing' the
+     * replica also drops owned auctions that none of their healthy owners hold (closed longer ago than the tombstone
+     * time to live, or never applied by a majority). Only safe while the replica is excluded: once readmitted it may
+     * hold a new auction its peers haven't applied yet.
+     */
+    private void catchUp(Address member, ArrayList<Address> replicas, boolean dropMissing) throws Exception {
+        ArrayList<Address> sources = new ArrayList<>(replicas);
+        sources.remove(member);
+        sources.removeAll(this.health.getExcluded());
+
+        if (dropMissing) {
+            this.dispatcher.callRemoteMethod(member, "putUsers", new Object[]{users}, new Class<?>[]{UserDirectory.class}, this.requestOptions);
+        }
+
+        if (sources.size() == 0) {
+            return;
+        }
+
+        //--> Unpartitioned every replica holds every auction so one source is enough.
+        ShardRouter router = this.getRouter();
+        List<Address> copyFrom = router.isPartitioned() ? sources : sources.subList(0, 1);
+
+        ArrayList<Auction> owned = new ArrayList<>();
+        HashSet<Long> held = new HashSet<>();
+        HashSet<Long> closed = new HashSet<>();
+        for (Address source : copyFrom) {
+            ArrayList<Auction> state = this.dispatcher.callRemoteMethod(source, "getState", null, null, this.requestOptions);
+            for (Auction auction : state) {
+                if (router.isOwner(member, auction.getAuctionID())) {
+                    owned.add(auction);
+                    held.add(auction.getAuctionID());
+                }
+            }
+            long[] sourceClosed = this.dispatcher.callRemoteMethod(source, "getClosed", null, null, this.requestOptions);
+            for (long auctionID : sourceClosed) {
+                closed.add(auctionID);
+            }
+        }
+
+        if (dropMissing) {
+            ArrayList<Auction> memberState = this.dispatcher.callRemoteMethod(member, "getState", null, null, this.requestOptions);
+            for (Auction auction : memberState) {
+                long auctionID = auction.getAuctionID();
+                if (!held.contains(auctionID) && router.isOwner(member, auctionID) && !Collections.disjoint(router.getOwners(auctionID), copyFrom)) {
+                    closed.add(auctionID);
+                }
+            }
+        }
+
+        long[] closedIDs = closed.stream().mapToLong(Long::longValue).toArray();
+        this.dispatcher.callRemoteMethod(member, "mergeState", new Object[]{owned, closedIDs}, new Class<?>[]{ArrayList.class, long[].class}, this.requestOptions);
+    }
+
+    /**
+     * Admits a call from the caller or throws a ServerBusyException without touching the replicas. A call shed by the
+     * concurrency limit gets its rate token back so load shedding doesn't use up the callers rate. An admitted call
+     * must release its concurrency slot when done.
+     */
+    private void admit(RateLimiter limiter, String caller, String method) throws ServerBusyException {
+        if (!limiter.tryAcquire(caller, method)) {
+            rateLimited.increment();
+            throw new ServerBusyException("Rate limit exceeded for " + method + ". Please slow down.");
+        }
+        if (!concurrency.tryAcquire()) {
+            limiter.refund(caller, method);
+            shed.increment();
+            throw new ServerBusyException("Server busy. Please try again shortly.");
+        }
+    }
+
+    /**
+     * Admits a call made on behalf of a user. The username comes from the client and isn't authenticated per call, so
+     * it is keyed with the client host so a client elsewhere can't use up another users quota by sending their name.
+     */
+    private void admitUser(String username, String method) throws ServerBusyException {
+        this.admit(rateLimiter, this.getCallerHost() + "/" + username, method);
+    }
+
+    /**
+     * Admits a read. Reads carry no user and RMI has no session to key on, so they are limited per client host with
+     * the separate, higher read limit (-Dauction.rate.read.limit).
+     */
+    private void admitRead(String method) throws ServerBusyException {
+        this.admit(readLimiter, this.getCallerHost(), method);
+    }
+
+    /** Returns the host of the RMI client making the current call, or "local" for calls made in process. **/
+    private String getCallerHost() {
+        try {
+            return RemoteServer.getClientHost();
+        } catch (ServerNotActiveException e) {
+            return "local";
+        }
+    }
+
+    /**
+     * Returns the auction IDs allocated to the request, allocating 'count' new IDs the first time the request ID is
+     * seen. A request without an ID always gets new IDs.
+     */
+    private long[] allocateIDs(String requestID, int count) {
+        synchronized (allocatedIDs) {
+            DedupCache.Result<long[]> allocated = allocatedIDs.get(requestID);
+            if (allocated != null && allocated.getValue().length == count) {
+                return allocated.getValue();
+            }
+
+            long[] auctionIDs = new long[count];
+            for (int i = 0; i < count; i++) {
+                auctionIDs[i] = AuctionIds.next();
+            }
+            allocatedIDs.put(requestID, auctionIDs);
+            return auctionIDs;
+        }
+    }
+
+    /**
+     * Sends a write to the auctions leader (its first healthy owner) and returns its single response. Throws a
+     * RemoteException if every owner is currently excluded so the client sees the failure instead of a null result.
+     */
+    private <T> T callLeader(ArrayList<Address> owners, String method, Object[] args, Class<?>[] types) throws RemoteException {
+        if (owners.size() == 0) {
+            return null;
+        }
+
+        ArrayList<Address> healthy = this.health.filterHealthy(owners);
+        if (healthy.isEmpty()) {
+            AsyncLog.warn("frontend.noHealthyLeader", "method", method, "owners", owners.size());
+            throw new RemoteException("No healthy replica to lead " + method + ". Try again shortly.");
+        }
+
+        try {
+            return this.dispatcher.callRemoteMethod(healthy.get(0), method, args, types, this.requestOptions);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /** Votes on each auction returned by a partitioned read using only the responses of the replicas that own it. **/
+    @SuppressWarnings("unchecked")
+    private ArrayList<Auction> mergePartitionedResponses(RspList<Object> responses, ShardRouter router) {
+
+        //--> Group every returned copy of an auction by auction ID.
+        HashMap<Long, HashMap<Address, Auction>> copies = new HashMap<>();
+        for (Object a : responses.keySet()) {
+            ArrayList<Auction> memberAuctions = (ArrayList<Auction>) responses.getValue((Address)a);
+            if (memberAuctions == null) {
+                continue;
+            }
+            for (Auction auction : memberAuctions) {
+                copies.computeIfAbsent(auction.getAuctionID(), k -> new HashMap<>()).put((Address)a, auction);
+            }
+        }
+
+        //--> Copies held by replicas that no longer own an auction are ignored. An owner without a copy votes "null".
+        ArrayList<Auction> merged = new ArrayList<>();
+        for (long auctionID : copies.keySet()) {
+            HashMap<Address, Auction> auctionCopies = copies.get(auctionID);
+            HashMap<Address, Integer> ownerHashes = new HashMap<>();
+
+            for (Address owner : router.getOwners(auctionID)) {
+                if (responses.isReceived(owner)) {
+                    Auction copy = auctionCopies.get(owner);
+                    ownerHashes.put(owner, copy == null ? "null".hashCode() : copy.getDataHash());
+                }
+            }
+
+            Address majorityResponse = Utility.getMajorityResponseAddress(ownerHashes);
+            if (majorityResponse != null && auctionCopies.get(majorityResponse) != null) {
+                merged.add(auctionCopies.get(majorityResponse));
+            }
+        }
+        return merged;
+    }
+
+    /** Counts a vote and the number of responses that disagreed with the majority. **/
+    private void recordVote(HashMap<Address, Integer> responseHashes, Address majorityResponse) {
+        votes.increment();
+        Integer majorityHash = responseHashes.get(majorityResponse);
+        for (Integer hash : responseHashes.values()) {
+            if (hash != null && !hash.equals(majorityHash)) {
+                voteMismatches.increment();
+            }
+        }
+    }
+
+    /** Repairs non-majority replicas on the repair executor so the client isn't kept waiting. AuctionIds.NONE repairs full state. **/
+    private void repairInBackground(long auctionID, HashMap<Address, Integer> responseHashes, Address majorityResponse, ArrayList<Address> members) {
+        if (majorityResponse == null) {
+            return;
+        }
+
+        ArrayList<Address> membersCopy = new ArrayList<>(members);
+        repairExecutor.execute(() -> {
+            long start = System.nanoTime();
+            if (auctionID == AuctionIds.NONE) {
+                this.updateNonMajorityState(responseHashes, majorityResponse, membersCopy);
+            } else {
+                this.repairNonMajority(auctionID, responseHashes, majorityResponse, membersCopy);
+            }
+            repairLatency.record(System.nanoTime() - start);
+        });
+    }
+
+    /** Sends the settlement of a closed auction to the owners whose response differed from the majority. **/
+    private void settleInBackground(Settlement settlement, HashMap<Address, Integer> responseHashes, Address majorityResponse) {
+        Integer majorityHash = responseHashes.get(majorityResponse);
+        ArrayList<Address> nonMajority = new ArrayList<>();
+        for (Address a : responseHashes.keySet()) {
+            if (!majorityHash.equals(responseHashes.get(a))) {
+                nonMajority.add(a);
+            }
+        }
+
+        if (nonMajority.size() == 0) {
+            return;
+        }
+
+        repairExecutor.execute(() -> {
+            long start = System.nanoTime();
+            try {
+                byte[] serialized = Utility.serialize(settlement);                                              //--> Serialized once for every replica and for the repair.bytes count.
+                this.dispatcher.callRemoteMethods(nonMajority, "settle", new Object[]{serialized}, new Class<?>[]{byte[].class}, this.requestOptions);
+                repairBytes.add((long) serialized.length * nonMajority.size());
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            repairLatency.record(System.nanoTime() - start);
+        });
+    }
+
+    /**
+     * Repairs the owners of a single auction that disagreed with the majority. With full replication the whole
+     * majority state is copied across, otherwise only the affected auction is.
+     */
+    private void repairNonMajority(long auctionID, HashMap<Address, Integer> responseHashes, Address majorityResponse, ArrayList<Address> owners) {
+        if (!this.getRouter().isPartitioned()) {
+            this.updateNonMajorityState(responseHashes, majorityResponse, owners);
+            return;
+        }
+
+        Integer majorityHash = responseHashes.get(majorityResponse);
+        ArrayList<Address> nonMajority = new ArrayList<>();
+        for (Address a : responseHashes.keySet()) {
+            if (!majorityHash.equals(responseHashes.get(a))) {
+                nonMajority.add(a);
+            }
+        }
+
+        if (nonMajority.size() == 0) {
+            return;
+        }
+
+        try {
+            Auction auction = this.dispatcher.callRemoteMethod(majorityResponse,
+                    "getAuction",
+                    new Object[]{auctionID},
+                    new Class<?>[]{long.class},
+                    this.requestOptions);
+
+            //--> Majority no longer holds the auction (e.g. it was closed) so drop it from the other owners.
+            if (auction == null) {
+                this.dispatcher.callRemoteMethods(nonMajority, "dropAuction", new Object[]{auctionID}, new Class<?>[]{long.class}, this.requestOptions);
+            } else {
+                byte[] serialized = Utility.serialize(auction);
+                this.dispatcher.callRemoteMethods(nonMajority, "putAuction", new Object[]{serialized}, new Class<?>[]{byte[].class}, this.requestOptions);
+                repairBytes.add((long) serialized.length * nonMajority.size());
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Updates all non-majority members with the majority state. The state is merged rather than replacing theirs so
+     * a repair never discards a higher bid that only the non-majority members hold.
+     */
     public void updateNonMajorityState(HashMap<Address, Integer> responseHashes, Address majorityResponse, ArrayList<Address> memberAddresses) {
         Integer majorityHash = responseHashes.get(majorityResponse);
 
         for (Address a : responseHashes.keySet()) {
             Integer response = responseHashes.get(a);
-            if (response.equals(majorityHash) || response.equals(null)) {
+            if (response == null || response.equals(majorityHash)) {
                 memberAddresses.remove(a);
             }
         }
 
+        //--> Members that didn't answer at all are excluded and caught up by the prober instead of blocking here.
+        memberAddresses.retainAll(responseHashes.keySet());
+
         //--> Remaining addresses will be non-majority.
         if (memberAddresses.size() > 0) {
             try {
                 //--> Get majority response state.
-                ConcurrentHashMap<String, Auction> state = (ConcurrentHashMap<String, Auction>) this.dispatcher.callRemoteMethod(majorityResponse,
+                ArrayList<Auction> state = this.dispatcher.callRemoteMethod(majorityResponse,
                         "getState",
                         null,
                         null,
                         this.requestOptions);
+                long[] closed = this.dispatcher.callRemoteMethod(majorityResponse,
+                        "getClosed",
+                        null,
+                        null,
+                        this.requestOptions);
                 //--> Update non majority response nodes.
+                byte[] serialized = Utility.serialize(state);
                 this.dispatcher.callRemoteMethods(memberAddresses,
-                        "setState",
-                        new Object[] {state},
-                        new Class[] {ConcurrentHashMap.class},
+                        "mergeState",
+                        new Object[] {serialized, closed},
+                        new Class<?>[]{byte[].class, long[].class},
                         this.requestOptions);
+                repairBytes.add((long) (serialized.length + closed.length * Long.BYTES) * memberAddresses.size());
             } catch (Exception e) {
                 e.printStackTrace();
             }
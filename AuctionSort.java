@@ -0,0 +1,74 @@
+import java.util.Comparator;
+
+/**
+ * Sort orders used by the top-K search, seller listings and price browsing. Every order breaks ties on auction ID so
+ * results merge deterministically. Orders that a replica walks from a PriceIndex break ties in the indexes order.
+ */
+public final class AuctionSort {
+
+    /** Highest top bid first. Newest first amongst equal bids. **/
+    public static final int TOP_BID = 1;
+
+    /** Best keyword match first (exact name, then name prefix, then name contains), then shortest name. **/
+    public static final int RELEVANCE = 2;
+
+    /** Auctions that have met their reserve first, then highest top bid first. **/
+    public static final int RESERVE_STATUS = 3;
+
+    /** Lowest top bid first. **/
+    public static final int LOWEST_BID = 4;
+
+    /** Lowest start price first. **/
+    public static final int START_PRICE = 5;
+
+    /** Most recently listed first. Auction IDs are allocated in time order so this is highest ID first. **/
+    public static final int NEWEST = 6;
+
+    //--> Stops a single request from asking replicas for an unbounded number of results.
+    public static final int MAX_LIMIT = 500;
+
+    private AuctionSort() {}
+
+    /** Returns the comparator for the provided sort order. Unknown orders fall back to TOP_BID. **/
+    public static <T extends AuctionView> Comparator<T> comparator(int sortOrder, String keyWord) {
+        Comparator<T> order;
+
+        if (sortOrder == RELEVANCE && keyWord != null && !keyWord.isEmpty()) {
+            order = Comparator.<T>comparingInt(a -> AuctionSort.matchRank(a.getName(), keyWord))
+                    .thenComparingInt(a -> a.getName().length());
+        } else if (sortOrder == RESERVE_STATUS) {
+            order = Comparator.<T>comparingInt(a -> a.getTopBid() >= a.getReserve() ? 0 : 1)
+                    .thenComparing(Comparator.<T>comparingLong(AuctionView::getTopBid).reversed());
+        } else if (sortOrder == LOWEST_BID) {
+            order = Comparator.comparingLong(AuctionView::getTopBid);
+        } else if (sortOrder == START_PRICE) {
+            order = Comparator.comparingLong(AuctionView::getStartPrice);
+        } else if (sortOrder == NEWEST) {
+            return Comparator.<T>comparingLong(AuctionView::getAuctionID).reversed();
+        } else {
+            //--> Matches a descending walk of the top bid PriceIndex.
+            return Comparator.<T>comparingLong(AuctionView::getTopBid).thenComparingLong(AuctionView::getAuctionID).reversed();
+        }
+        return order.thenComparingLong(AuctionView::getAuctionID);
+    }
+
+    /** Returns true if the auction name contains the keyword. A null or empty keyword matches everything. **/
+    public static boolean matches(Auction auction, String keyWord) {
+        return keyWord == null || keyWord.isEmpty() || auction.getName().contains(keyWord);
+    }
+
+    /** Clamps a requested result limit to between 1 and MAX_LIMIT. **/
+    public static int clampLimit(int limit) {
+        return Math.max(1, Math.min(limit, MAX_LIMIT));
+    }
+
+    /** Lower rank is a better match. **/
+    private static int matchRank(String name, String keyWord) {
+        if (name.equals(keyWord)) {
+            return 0;
+        } else if (name.startsWith(keyWord)) {
+            return 1;
+        }
+        return 2;
+    }
+}
@@ -0,0 +1,80 @@
+import java.util.ArrayList;
+import java.util.function.LongPredicate;
+
+/**
+ * A replicas auctions keyed by their primitive auction ID. Implementations are thread safe. LongAuctionMap keeps
+ * auctions on the heap, OffHeapAuctionStore keeps them in direct memory (see ClusterConfig.isOffHeapStore).
+ */
+public interface AuctionStore {
+
+    /** Returns the auction with the provided ID or null if it isn't stored. **/
+    Auction get(long auctionID);
+
+    /** Stores the auction under its ID. Returns the auction it replaced or null. **/
+    Auction put(Auction auction);
+
+    /** Stores the auction only if no auction with its ID is stored. Returns the stored auction or null if it was added. **/
+    Auction putIfAbsent(Auction auction);
+
+    /** Replaces 'expected' with 'updated' only if the stored auction hasn't changed since 'expected' was read. **/
+    boolean replace(Auction expected, Auction updated);
+
+    /** Removes the auction with the provided ID. Returns the removed auction or null. **/
+    Auction remove(long auctionID);
+
+    /** Removes every auction whose ID matches the filter. **/
+    void removeIf(LongPredicate filter);
+
+    /** Returns the number of stored auctions. **/
+    int size();
+
+    /** Returns a copy of the stored auctions in no particular order. **/
+    ArrayList<Auction> values();
+
+    /** Removes every auction. **/
+    void clear();
+
+    /** Stores the auction unless a newer version of it is already held. **/
+    default void putIfNewer(Auction auction) {
+        while (true) {
+            Auction held = this.get(auction.getAuctionID());
+            if (held == null) {
+                if (this.putIfAbsent(auction) == null) {
+                    return;
+                }
+            } else if (auction.getVersion() < held.getVersion() || this.replace(held, auction)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stores the auction unless the copy already held has a higher top bid or the same data. Used by repairs, which
+     * may correct a copy but must never undo a bid. Returns true if stored.
+     */
+    default boolean putUnlessOutbid(Auction auction) {
+        while (true) {
+            Auction held = this.get(auction.getAuctionID());
+            if (held == null) {
+                if (this.putIfAbsent(auction) == null) {
+                    return true;
+                }
+            } else if (held.getTopBid() > auction.getTopBid() || held.getDataHash() == auction.getDataHash()) {
+                return false;
+            } else if (this.replace(held, auction)) {
+                return true;
+            }
+        }
+    }
+
+    /** Spreads the bits of an auction ID. IDs share their high bits so they can't be masked directly. **/
+    static long mix(long auctionID) {
+        long hash = auctionID;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
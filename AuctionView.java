@@ -0,0 +1,13 @@
+/** The auction fields sort orders read. Implemented by Auction and by the projected AuctionRow returned by queries. */
+public interface AuctionView {
+
+    long getAuctionID();
+
+    String getName();
+
+    long getTopBid();
+
+    long getStartPrice();
+
+    long getReserve();
+}
@@ -10,6 +10,9 @@ import java.util.ArrayList;
 /** Creates a client that can access the auction system, view auctions, and bid on auctions.*/
 public class BuyClient extends Client {
 
+    //--> Number of auctions shown by the top auctions search.
+    private static final int TOP_AUCTION_COUNT = 20;
+
     /** Logs in buyer and provides them with a buyer interface to bid and view auctions. **/
     public static void main(String[] args) {
 
@@ -23,7 +26,7 @@ public class BuyClient extends Client {
 
             //--> Main loop. Allow user to select an operation. If userDetails == null. Authentication has failed.
             while (userDetails != null) {
-                System.out.printf("Buyer Options: %n>> Bid (1).%n>> Show auctions (2).%n>> Search for auction (3).%n>> Exit (4).%n");
+                System.out.printf("Buyer Options: %n>> Bid (1).%n>> Show auctions (2).%n>> Search for auction (3).%n>> Top auctions (4).%n>> Browse by price (5).%n>> Exit (6).%n");
                 System.out.println("------------------------------------------------------------->");
                 System.out.print("Select Option: ");
                 String operation = validator.getNoneEmptyStringInput("Operation");
@@ -32,7 +35,9 @@ public class BuyClient extends Client {
                     case "1": { BuyClient.bid(userDetails); break; }
                     case "2": { BuyClient.viewAuctions(); break; }
                     case "3": { BuyClient.showAuctions(); break; }
-                    case "4": { System.exit(0); }
+                    case "4": { BuyClient.showTopAuctions(); break; }
+                    case "5": { BuyClient.browseAuctions(); break; }
+                    case "6": { System.exit(0); }
                     default: break;
                 }
             }
@@ -44,17 +49,19 @@ public class BuyClient extends Client {
 
         //--> Retrieve the ID of the auction the client wishes to bid on.
         System.out.printf(">> Auction ID: ");
-        String aucName = validator.getNoneEmptyStringInput("Auction ID");
+        long auctionID = validator.getValidAuctionID();
 
         //--> Get the bid amount from the user.
         System.out.printf(">> Bid Amount: %s", "\u00A3");
-        double amount = validator.getValidPrice("Bid");
+        long amount = validator.getValidPrice("Bid");
 
         //--> Retrieve the remote buyer object, bid on the target auction, and print the results of the bid.
         CanBuy buyer = BuyClient.getAuctionServer();
+        String requestID = Client.newRequestID();
         try {
 
-            String bidString = buyer.bid(aucName, buyerDetails, amount);
+            //--> Safe to retry as the server applies a request ID once.
+            String bidString = Client.withRetries(() -> buyer.bid(requestID, auctionID, buyerDetails, amount), result -> result == null);
 
             if (bidString == null) {
                 System.out.println(">> Server down. Please try again later.");
@@ -146,6 +153,81 @@ public class BuyClient extends Client {
         BuyClient.printAuctionList(auctions);
     }
 
+    /** Provides a search that only returns the best matching auctions, sorted by top bid or relevance. */
+    public static void showTopAuctions() {
+
+        ArrayList<Auction> auctions = new ArrayList<>();
+
+        System.out.printf(">> Search: ");
+        String keyWord = validator.getNoneEmptyStringInput("Search");
+
+        System.out.printf(">> Sort by top bid (1) or relevance (2): ");
+        int sortOrder = validator.getNoneEmptyStringInput("Sort").equals("2") ? AuctionSort.RELEVANCE : AuctionSort.TOP_BID;
+
+        CanBuy buyer = BuyClient.getAuctionServer();
+        try {
+            auctions = buyer.showTop(keyWord, sortOrder, TOP_AUCTION_COUNT);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+            System.out.println("RemoteException caught. Reconfigure registry.");
+        }
+
+        BuyClient.printAuctionList(auctions);
+    }
+
+    /** Provides client side buyer interface to page through auctions in a price range. **/
+    public static void browseAuctions() {
+
+        System.out.printf(">> Minimum Price: %s", "\u00A3");
+        long minPrice = validator.getValidPrice("Minimum price");
+
+        System.out.printf(">> Maximum Price: %s", "\u00A3");
+        long maxPrice = validator.getValidPrice("Maximum price");
+
+        System.out.printf(">> Sort by highest bid (1), lowest bid (2), start price (3) or newest (4): ");
+        switch (validator.getNoneEmptyStringInput("Sort")) {
+            case "2": { BuyClient.browsePages(minPrice, maxPrice, AuctionSort.LOWEST_BID); break; }
+            case "3": { BuyClient.browsePages(minPrice, maxPrice, AuctionSort.START_PRICE); break; }
+            case "4": { BuyClient.browsePages(minPrice, maxPrice, AuctionSort.NEWEST); break; }
+            default: { BuyClient.browsePages(minPrice, maxPrice, AuctionSort.TOP_BID); break; }
+        }
+    }
+
+    /** Prints pages of a price range until the buyer stops or the range is exhausted. **/
+    private static void browsePages(long minPrice, long maxPrice, int sortOrder) {
+
+        CanBuy buyer = BuyClient.getAuctionServer();
+        int offset = 0;
+
+        while (true) {
+            ArrayList<Auction> auctions = null;
+            try {
+                auctions = buyer.browse(minPrice, maxPrice, sortOrder, offset, TOP_AUCTION_COUNT);
+            } catch (RemoteException e) {
+                e.printStackTrace();
+                System.out.println("RemoteException caught. Reconfigure registry.");
+            }
+
+            if (auctions == null) {
+                System.out.println(">> Server down. Please try again later.");
+                System.out.println("------------------------------------------------------------->");
+                return;
+            }
+
+            BuyClient.printAuctionList(auctions);
+
+            if (auctions.size() < TOP_AUCTION_COUNT) {
+                return;
+            }
+
+            System.out.printf(">> Show next page (y/n): ");
+            if (!validator.getNoneEmptyStringInput("Option").equalsIgnoreCase("y")) {
+                return;
+            }
+            offset += TOP_AUCTION_COUNT;
+        }
+    }
+
     /** Prints out a list of supplied auction objects in a human readable format. */
     public static void printAuctionList(ArrayList<Auction> auctions) {
 
@@ -166,8 +248,8 @@ public class BuyClient extends Client {
             Auction tAuction = auctions.get(i);
 
             System.out.println(">> Name: " + tAuction.getAuctionName());
-            System.out.println(">> Unique Auction ID: " + tAuction.getAuctionID());
-            System.out.printf(">> Top Bid: %s%.2f%n", "\u00A3" , tAuction.getTopBid());
+            System.out.println(">> Unique Auction ID: " + AuctionIds.format(tAuction.getAuctionID()));
+            System.out.printf(">> Top Bid: %s%s%n", "\u00A3" , Money.format(tAuction.getTopBid()));
             System.out.println(">> Description: " + tAuction.getAuctionDesc());
             System.out.println("------------------------------------------------------------->");
         }
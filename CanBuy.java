@@ -5,8 +5,11 @@ import java.util.ArrayList;
 /** Interface used to provide the ability to bid and view auctions. **/
 public interface CanBuy extends java.rmi.Remote {
 
-    /** Provides ability to bid on items. **/
-    String bid(String auctionName, UserDetails bidder, double amount) throws RemoteException;
+    /**
+     * Provides ability to bid on items. Amount is in pence. Clients convert typed IDs with AuctionIds.parse. The request
+     * ID is generated by the client once per bid; resending it (e.g. after a timeout) returns the original response.
+     **/
+    String bid(String requestID, long auctionID, UserDetails bidder, long amount) throws RemoteException;
 
     /** Displays all active auctions to the buyer. **/
     ArrayList<Auction> showActive() throws RemoteException;
@@ -14,4 +17,23 @@ public interface CanBuy extends java.rmi.Remote {
     /** Search functionality. Displays all auctions that contain the supplied keyword.
      * Returns ArrayList of all auctions which can then be output on the client side. **/
     ArrayList<Auction> showAuction(String keyWord) throws RemoteException;
+
+    /** Returns the best 'limit' auctions that contain the supplied keyword, ordered by an AuctionSort order. **/
+    ArrayList<Auction> showTop(String keyWord, int sortOrder, int limit) throws RemoteException;
+
+    /**
+     * Returns a page of auctions priced from 'minPrice' to 'maxPrice' pence, ordered by an AuctionSort order (TOP_BID,
+     * LOWEST_BID, START_PRICE or NEWEST). The price is the current top bid, or the start price when sorting by START_PRICE.
+     * 'offset' auctions are skipped then up to 'limit' are returned.
+     */
+    ArrayList<Auction> browse(long minPrice, long maxPrice, int sortOrder, int offset, int limit) throws RemoteException;
+
+    /**
+     * Returns a page of the auctions matching every filter of the query, in its sort order. Each row only holds the
+     * fields the query asked for (plus those its sort order needs).
+     */
+    ArrayList<AuctionRow> query(AuctionQuery query) throws RemoteException;
+
+    /** Returns the settlement (winner, final price, reserve status) of a closed auction or null if it isn't known. **/
+    Settlement getSettlement(long auctionID) throws RemoteException;
 }
\ No newline at end of file
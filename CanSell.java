@@ -1,12 +1,47 @@
 
 import java.rmi.*;
+import java.util.ArrayList;
 
 /** Interface used to provide the ability to create and close auctions. **/
 public interface CanSell extends java.rmi.Remote {
 
-    /** Provides the ability to create an auction. **/
-    String createAuction(String name, double startPrice, double reserve, String desc, UserDetails sellerDetails) throws RemoteException;
+    /**
+     * Provides the ability to create an auction. Prices are in pence. Returns the new auction ID or AuctionIds.NONE.
+     * Mutating calls take a request ID generated by the client once per operation. Retrying with the same ID never
+     * applies the operation twice, so clients may retry freely.
+     */
+    long createAuction(String requestID, String name, long startPrice, long reserve, String desc, UserDetails sellerDetails) throws RemoteException;
 
-    /** Provides the ability to close an auction. */
-     Auction closeAuction(String auctionID, String username) throws RemoteException;
+    /**
+     * Creates a batch of auctions for the seller with one replicated write per replica. Returns the new auction IDs in
+     * the same order as the lots. A lot that is invalid or wasn't confirmed by a majority of its owners gets AuctionIds.NONE.
+     */
+    long[] createAuctions(String requestID, ArrayList<AuctionLot> lots, UserDetails sellerDetails) throws RemoteException;
+
+    /**
+     * Provides the ability to close an auction. Returns its settlement (winner, final price and reserve status), or
+     * null if the auction doesn't exist or wasn't created by the user.
+     */
+     Settlement closeAuction(String requestID, long auctionID, String username) throws RemoteException;
+
+    /**
+     * Returns a page of the sellers auctions ordered by an AuctionSort order (TOP_BID or RESERVE_STATUS).
+     * 'offset' auctions are skipped then up to 'limit' are returned.
+     */
+    ArrayList<Auction> listMyAuctions(String username, int sortOrder, int offset, int limit) throws RemoteException;
+
+    /**
+     * Returns a page of the settlements of the sellers closed auctions, most recently created auctions first.
+     * 'offset' settlements are skipped then up to 'limit' are returned.
+     */
+    ArrayList<Settlement> listMySettlements(String username, int offset, int limit) throws RemoteException;
+
+    /**
+     * Reporting. Returns a page of the settlements of every auction created from 'fromMillis' to 'toMillis' (epoch
+     * milliseconds), most recently created first. Served from the replicas archives, never the live catalogue.
+     */
+    ArrayList<Settlement> settledBetween(long fromMillis, long toMillis, int offset, int limit) throws RemoteException;
+
+    /** Returns the details of the user with the provided ID. Used to display auction winners. */
+    UserDetails getUserDetails(int userID) throws RemoteException;
 }
\ No newline at end of file
@@ -0,0 +1,75 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Immutable, versioned view of a replicas auction catalogue. Built at most once per catalogue version and shared by
+ * every reader. Auctions are immutable so no copy is needed per read. Auctions are sorted by ID so replicas holding
+ * the same auctions produce identical lists (and identical serialized bytes) regardless of map iteration order.
+ * Serialized query responses are cached per snapshot, so a catalogue change invalidates them with the snapshot.
+ */
+public class CatalogSnapshot {
+
+    private static final int MAX_CACHED_RESPONSES = 256;
+
+    private final long version;
+    private final ArrayList<Auction> auctions;
+    private final ConcurrentHashMap<String, byte[]> cachedResponses = new ConcurrentHashMap<>();
+    private volatile byte[] serialized;
+
+    public CatalogSnapshot(long version, Collection<Auction> auctions) {
+        this.version = version;
+        this.auctions = new ArrayList<>(auctions);
+        this.auctions.sort(Comparator.comparingLong(Auction::getAuctionID));
+    }
+
+    /** Returns the catalogue version this snapshot was built from. **/
+    public long getVersion() {
+        return version;
+    }
+
+    /** Returns the snapshot auctions. Shared between readers so must not be modified. **/
+    public List<Auction> getAuctions() {
+        return Collections.unmodifiableList(auctions);
+    }
+
+    /** Returns the snapshot auctions as the ArrayList type sent over RPC. Shared between readers so must not be modified. **/
+    public ArrayList<Auction> getAuctionList() {
+        return auctions;
+    }
+
+    /** Returns the serialized form of the auction list. Serialized once per snapshot. **/
+    public byte[] getSerialized() {
+        byte[] bytes = serialized;
+        if (bytes == null) {
+            bytes = Utility.serialize(auctions);
+            serialized = bytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the serialized response for a query against this snapshot. The query runs and is serialized on the first
+     * request for its key. Later requests for the same key return the same bytes until the catalogue changes.
+     */
+    public byte[] getSerialized(String queryKey, Supplier<? extends Serializable> query) {
+        byte[] bytes = cachedResponses.get(queryKey);
+        if (bytes != null) {
+            return bytes;
+        }
+
+        bytes = Utility.serialize(query.get());
+
+        //--> Bounded so a stream of distinct keywords can't grow a long lived snapshot without limit. Nothing is
+        //--> cached if serialization failed (null) so the next request tries again.
+        if (bytes != null && cachedResponses.size() < MAX_CACHED_RESPONSES) {
+            cachedResponses.putIfAbsent(queryKey, bytes);
+        }
+        return bytes;
+    }
+}
@@ -8,12 +8,24 @@ import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
 import java.security.*;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
 
 /** Superclass of BuyClient and SaleClient. Provides shared functionality such as the ability to login. */
 public abstract class Client implements Serializable {
 
     protected static Validator validator = new Validator();
 
+    //--> Retries made for a failed write (-Dauction.client.retries) and the first backoff in milliseconds (doubles each time).
+    private static final int WRITE_RETRIES = Integer.getInteger("auction.client.retries", 3);
+    private static final long RETRY_BACKOFF = 100;
+
+    /** A remote call that may be made more than once. **/
+    public interface RemoteCall<T> {
+        T call() throws RemoteException;
+    }
+
     /**
      * 1: Gets clients username and email address.
      * 2: Reads in client private and public keys files and server public key file.
@@ -23,9 +35,6 @@ public abstract class Client implements Serializable {
      */
     public static UserDetails authenticateAndLogin() {
 
-        boolean serverVerified = false;
-        boolean clientVerified = false;
-
         //--> Get user username, password, and email address.
         System.out.println("------------------------------------------------------------->");
         System.out.print  (">> Enter your username: ");
@@ -34,6 +43,24 @@ public abstract class Client implements Serializable {
         System.out.print  (">> Enter your email address: ");
         String email = validator.getValidEmail();
 
+        /**
+         * Change to public / private key one (JackMorgan).
+         * Change to public / private key two (CryptoMan).
+         * Change to public / private key three (AuctionMaster).
+         * Assumes client only has a single key at any given time and that they're already registered.
+         */
+        return Client.login(username, email, "public_key_3", "private_key_3");
+    }
+
+    /**
+     * Authenticates the server and logs in with the provided details and key files without reading from stdin. Used
+     * by authenticateAndLogin and by headless clients such as LoadGenerator. Returns the user details or null.
+     */
+    public static UserDetails login(String username, String email, String publicKeyFile, String privateKeyFile) {
+
+        boolean serverVerified = false;
+        boolean clientVerified = false;
+
         UserDetails userDetails = new UserDetails(username, email);
 
         //--> Get reference to clients public and private keys and the servers public key.
@@ -41,14 +68,8 @@ public abstract class Client implements Serializable {
         PublicKey myPublicKey = null;
         PublicKey serverPublicKey = null;
 
-        /**
-         * Change to public / private key one (JackMorgan).
-         * Change to public / private key two (CryptoMan).
-         * Change to public / private key three (AuctionMaster).
-         * Assumes client only has a single key at any given time and that they're already registered.
-         */
-        byte[] myPubKeyBytes = Client.getFileBytes("public_key_3");
-        byte[] myPrivKeyBytes = Client.getFileBytes("private_key_3");
+        byte[] myPubKeyBytes = Client.getFileBytes(publicKeyFile);
+        byte[] myPrivKeyBytes = Client.getFileBytes(privateKeyFile);
         byte[] serverPubKeyBytes = Client.getFileBytes("public_key_5");
 
         X509EncodedKeySpec myPubSpec = new X509EncodedKeySpec(myPubKeyBytes);
@@ -180,4 +201,39 @@ public abstract class Client implements Serializable {
 
         return fileBytes;
     }
+
+    /** Returns a new request ID. Generate one per user action and pass the same ID to every retry of that action. **/
+    public static String newRequestID() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Makes a mutating remote call, retrying with jittered exponential backoff while it throws a RemoteException or
+     * returns a result 'failed' matches (e.g. null when the server is down). Every attempt must carry the same request
+     * ID so the server applies the write once. Rethrows the last RemoteException once the retries are used up.
+     */
+    public static <T> T withRetries(RemoteCall<T> call, Predicate<T> failed) throws RemoteException {
+        long backoff = RETRY_BACKOFF;
+
+        for (int attempt = 0; ; attempt++) {
+            try {
+                T result = call.call();
+                if (!failed.test(result) || attempt >= WRITE_RETRIES) {
+                    return result;
+                }
+            } catch (RemoteException e) {
+                if (attempt >= WRITE_RETRIES) {
+                    throw e;
+                }
+            }
+
+            try {
+                Thread.sleep(backoff + ThreadLocalRandom.current().nextLong(backoff));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RemoteException("Interrupted while retrying.", e);
+            }
+            backoff *= 2;
+        }
+    }
 }
\ No newline at end of file
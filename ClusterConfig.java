@@ -0,0 +1,215 @@
+import org.jgroups.JChannel;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.util.ExtendedUUID;
+
+import java.util.function.Function;
+
+/** Reads the cluster settings shared by the AuctionServer and the replica servers from system properties. */
+public final class ClusterConfig {
+
+    //--> Set by an in-process harness (ClusterSimulator) to build channels itself. Null in normal use.
+    private static volatile Function<String, JChannel> channelFactory;
+
+    private ClusterConfig() {}
+
+    /** Makes createChannel use the provided factory, which is passed the role. Null restores the default. **/
+    public static void setChannelFactory(Function<String, JChannel> factory) {
+        channelFactory = factory;
+    }
+
+    /**
+     * Returns the number of replicas each auction is stored on (-Dauction.replication.factor).
+     * Zero or less (the default) stores every auction on every replica. An even factor is rejected because its owners
+     * can split evenly and a tied vote has no majority (see Utility.getMajorityResponseAddress).
+     */
+    public static int getReplicationFactor() {
+        int replicationFactor = Integer.getInteger("auction.replication.factor", 0);
+        if (replicationFactor > 0 && replicationFactor % 2 == 0) {
+            throw new IllegalArgumentException("auction.replication.factor must be odd: " + replicationFactor);
+        }
+        return replicationFactor;
+    }
+
+    /**
+     * Creates the JGroups channel for a role ("frontend" or "replica"). The stack is read from -Dauction.ROLE.stack,
+     * falling back to -Dauction.stack. The value is either a profile name ("low-latency", "high-throughput"), which
+     * loads auction-PROFILE.xml, or the path of any JGroups stack file. With neither set the JGroups default is used.
+     * Every channel keeps the AuctionServer first in merged views (see FrontendFirstPolicy).
+     */
+    public static JChannel createChannel(String role) throws Exception {
+        Function<String, JChannel> factory = channelFactory;
+        if (factory != null) {
+            return ClusterConfig.keepFrontendFirst(factory.apply(role), role);
+        }
+
+        String stack = System.getProperty("auction." + role + ".stack", System.getProperty("auction.stack"));
+
+        if (stack == null || stack.isEmpty()) {
+            return ClusterConfig.keepFrontendFirst(new JChannel(), role);
+        } else if (stack.endsWith(".xml")) {
+            return ClusterConfig.keepFrontendFirst(new JChannel(stack), role);
+        }
+        return ClusterConfig.keepFrontendFirst(new JChannel("auction-" + stack + ".xml"), role);
+    }
+
+    /** Marks the AuctionServers address and installs the FrontendFirstPolicy on the channels GMS protocol. **/
+    private static JChannel keepFrontendFirst(JChannel channel, String role) {
+        if (role.equals("frontend")) {
+            int nodeID = ClusterConfig.getNodeID();
+            channel.addAddressGenerator(() -> ExtendedUUID.randomUUID().put(FrontendFirstPolicy.FRONTEND_KEY, new byte[]{(byte) (nodeID >> 8), (byte) nodeID}));
+        }
+        GMS gms = channel.getProtocolStack().findProtocol(GMS.class);
+        if (gms != null) {
+            gms.setMembershipChangePolicy(new FrontendFirstPolicy());
+        }
+        return channel;
+    }
+
+    /**
+     * Returns true if replicas keep their auctions outside the Java heap (-Dauction.store=offheap) in an
+     * OffHeapAuctionStore. The default, "heap", keeps them in a ConcurrentHashMap.
+     */
+    public static boolean isOffHeapStore() {
+        return "offheap".equalsIgnoreCase(System.getProperty("auction.store", "heap"));
+    }
+
+    /**
+     * Returns this front-ends node ID (-Dauction.node.id), 0 to 1023. Embedded in allocated auction and user IDs so
+     * front-ends running at the same time never allocate the same ID. A front-end won't start while another with the
+     * same node ID is in the cluster, so every front-end after the first needs it set.
+     */
+    public static int getNodeID() {
+        int nodeID = Integer.getInteger("auction.node.id", 0);
+        if (nodeID < 0 || nodeID > AuctionIds.MAX_NODE_ID) {
+            throw new IllegalArgumentException("auction.node.id must be 0 to " + AuctionIds.MAX_NODE_ID + ": " + nodeID);
+        }
+        return nodeID;
+    }
+
+    /**
+     * Returns how long in milliseconds a replica remembers that an auction was closed (-Dauction.tombstone.ttl), so a
+     * copy held by the other side of a healed partition can't bring it back.
+     */
+    public static long getTombstoneTtl() {
+        return Long.getLong("auction.tombstone.ttl", 24 * 60 * 60 * 1000L);
+    }
+
+    /**
+     * Returns the directory a replica keeps its archived settlements in (-Dauction.archive.dir), or null for a
+     * temporary directory removed on exit. Replicas on the same host need a directory each.
+     */
+    public static String getArchiveDir() {
+        return System.getProperty("auction.archive.dir");
+    }
+
+    /** Returns how many settlements a replica keeps in memory before writing them to a segment (-Dauction.archive.segment). **/
+    public static int getArchiveSegmentRecords() {
+        return Integer.getInteger("auction.archive.segment", 4096);
+    }
+
+    /** Returns the calls per second each user may make to each AuctionServer method (-Dauction.rate.limit). **/
+    public static double getRateLimit() {
+        return Double.parseDouble(System.getProperty("auction.rate.limit", "50"));
+    }
+
+    /** Returns the calls a user may make to a method in a burst above the rate limit (-Dauction.rate.burst). **/
+    public static double getRateBurst() {
+        return Double.parseDouble(System.getProperty("auction.rate.burst", "100"));
+    }
+
+    /**
+     * Returns the calls per second each client host may make to each read method (-Dauction.rate.read.limit). Reads
+     * carry no user so every client on a host shares it, hence the higher default.
+     */
+    public static double getReadRateLimit() {
+        return Double.parseDouble(System.getProperty("auction.rate.read.limit", "2000"));
+    }
+
+    /** Returns the calls a client host may make to a read method in a burst (-Dauction.rate.read.burst). **/
+    public static double getReadRateBurst() {
+        return Double.parseDouble(System.getProperty("auction.rate.read.burst", "4000"));
+    }
+
+    /**
+     * Returns the starting and maximum number of calls the AuctionServer has in flight to the replicas
+     * (-Dauction.concurrency.initial, -Dauction.concurrency.max). The limit adapts between 'min' and 'max'.
+     */
+    public static int getConcurrencyInitial() {
+        return Integer.getInteger("auction.concurrency.initial", 256);
+    }
+
+    public static int getConcurrencyMin() {
+        return Integer.getInteger("auction.concurrency.min", 16);
+    }
+
+    public static int getConcurrencyMax() {
+        return Integer.getInteger("auction.concurrency.max", 4096);
+    }
+
+    /** Returns the call latency in milliseconds above which the concurrency limit is lowered (-Dauction.concurrency.target). **/
+    public static long getConcurrencyTarget() {
+        return Long.getLong("auction.concurrency.target", 200);
+    }
+
+    /** Returns the number of write results kept for replayed request IDs (-Dauction.dedup.capacity). **/
+    public static int getDedupCapacity() {
+        return Integer.getInteger("auction.dedup.capacity", 100_000);
+    }
+
+    /**
+     * Returns how long in milliseconds a write result is kept for replayed request IDs (-Dauction.dedup.ttl). Clients
+     * must stop retrying a request well within this time.
+     */
+    public static long getDedupTtl() {
+        return Long.getLong("auction.dedup.ttl", 600_000);
+    }
+
+    /** Returns the timeout in milliseconds for blocking RPCs (-Dauction.rpc.timeout). **/
+    public static long getRpcTimeout() {
+        return Long.getLong("auction.rpc.timeout", 1000);
+    }
+
+    /**
+     * Returns true if writes go to the auctions leader (its primary owner) only (-Dauction.write.mode=leader).
+     * The default, "quorum", sends writes to every owner and votes on the responses.
+     */
+    public static boolean isLeaderWriteMode() {
+        return "leader".equalsIgnoreCase(System.getProperty("auction.write.mode", "quorum"));
+    }
+
+    /**
+     * Returns true if a leader waits for one follower to apply a write before answering (-Dauction.replication=semisync).
+     * The default, "async", answers as soon as the leader has applied the write.
+     */
+    public static boolean isSemiSyncReplication() {
+        return "semisync".equalsIgnoreCase(System.getProperty("auction.replication", "async"));
+    }
+
+    /** Returns how many times slower than its peers a replica must be before it is excluded (-Dauction.slow.factor). **/
+    public static double getSlowFactor() {
+        return Double.parseDouble(System.getProperty("auction.slow.factor", "4"));
+    }
+
+    /** Returns the average latency in milliseconds below which a replica is never considered slow (-Dauction.slow.floor). **/
+    public static long getSlowFloor() {
+        return Long.getLong("auction.slow.floor", 20);
+    }
+
+    /**
+     * Returns how long in milliseconds the AuctionServer keeps waiting for the remaining replicas once a majority has
+     * answered (-Dauction.straggler.grace).
+     */
+    public static long getStragglerGrace() {
+        return Long.getLong("auction.straggler.grace", 50);
+    }
+
+    /** Returns how often in milliseconds excluded replicas are probed for re-admission (-Dauction.probe.interval). **/
+    public static long getProbeInterval() {
+        return Long.getLong("auction.probe.interval", 1000);
+    }
+
+    /** Returns the maximum number of read handlers a replica runs at once (-Dauction.replica.permits). **/
+    public static int getReplicaHandlerPermits() {
+        return Integer.getInteger("auction.replica.permits", 256);
+    }
+}
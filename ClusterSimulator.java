@@ -0,0 +1,305 @@
+import org.jgroups.Address;
+import org.jgroups.JChannel;
+import org.jgroups.protocols.FD_ALL;
+import org.jgroups.protocols.FRAG2;
+import org.jgroups.protocols.MERGE3;
+import org.jgroups.protocols.SHARED_LOOPBACK;
+import org.jgroups.protocols.SHARED_LOOPBACK_PING;
+import org.jgroups.protocols.UNICAST3;
+import org.jgroups.protocols.VERIFY_SUSPECT;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs an AuctionServer and N ReplicatedServers in one JVM over the JGroups SHARED_LOOPBACK transport, with a
+ * FaultInjector above the transport of every member. Drives bids and creates through the AuctionServer for a clean
+ * phase, a fault phase and a healed phase, then reports throughput and failures per phase, the AuctionServers vote
+ * and repair metrics, and how long the replicas took to agree on every auction after the faults were removed.
+ *
+ * Scenarios: none, delay (5-50ms per message), drop (5% of messages), slow (one replica 100ms behind) and
+ * partition (one replica cut off from the rest of the cluster).
+ *
+ * Usage: java ClusterSimulator [replicas] [secondsPerPhase] [scenario]
+ * Replication and write settings are read from the usual -Dauction.* properties. -Dsim.seed repeats the random fault
+ * and workload choices of an earlier run, whose seed is printed at start.
+ */
+public class ClusterSimulator {
+
+    private static final String[] PHASES = {"clean", "fault", "healed"};
+
+    private final FaultPlan plan;
+    private final ArrayList<ReplicatedServer> replicas = new ArrayList<>();
+    private final ArrayList<JChannel> replicaChannels = new ArrayList<>();
+    private JChannel frontendChannel;
+    private AuctionServer frontend;
+
+    //--> Auctions created so far, bid on at random by the workers.
+    private final ArrayList<Long> auctionIDs = new ArrayList<>();
+    private final AtomicLong nextBid = new AtomicLong(1000);
+    private volatile int phase;
+    private final LongAdder[] succeeded = {new LongAdder(), new LongAdder(), new LongAdder()};
+    private final LongAdder[] failed = {new LongAdder(), new LongAdder(), new LongAdder()};
+
+    public ClusterSimulator(long seed) {
+        this.plan = new FaultPlan(seed);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int replicaCount = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        String scenario = args.length > 2 ? args[2] : "partition";
+
+        //--> Quiet per-request logging and leave the load unthrottled unless asked otherwise.
+        ClusterSimulator.setDefault("auction.log.level", "WARN");
+        ClusterSimulator.setDefault("auction.rate.limit", "1000000");
+        ClusterSimulator.setDefault("auction.rate.burst", "1000000");
+
+        ClusterSimulator simulator = new ClusterSimulator(Long.getLong("sim.seed", System.nanoTime()));
+        simulator.start(replicaCount);
+        simulator.run(scenario, seconds, Integer.getInteger("sim.workers", 8));
+        System.exit(0);
+    }
+
+    private static void setDefault(String property, String value) {
+        if (System.getProperty(property) == null) {
+            System.setProperty(property, value);
+        }
+    }
+
+    /** Starts the AuctionServer (the coordinator) then the replicas, one at a time so each gets the others state. **/
+    public void start(int replicaCount) throws Exception {
+        ClusterConfig.setChannelFactory(this::newChannel);
+        this.frontend = new AuctionServer(null);
+
+        for (int i = 0; i < replicaCount; i++) {
+            ReplicatedServer replica = new ReplicatedServer();
+            replica.start();
+            replicas.add(replica);
+        }
+        System.out.printf(">> Started AuctionServer and %d replicas in process. Seed: %d View: %s%n", replicaCount, plan.getSeed(), frontendChannel.getView());
+        System.out.println("------------------------------------------------------------->");
+    }
+
+    /** Builds a loopback channel with a FaultInjector above the transport and short failure detection timeouts. **/
+    private JChannel newChannel(String role) {
+        try {
+            JChannel channel = new JChannel(
+                    new SHARED_LOOPBACK(),
+                    new FaultInjector(plan),
+                    new SHARED_LOOPBACK_PING(),
+                    new MERGE3().setValue("min_interval", 1000L).setValue("max_interval", 3000L),
+                    new FD_ALL().setValue("timeout", 3000L).setValue("interval", 1000L),
+                    new VERIFY_SUSPECT().setValue("timeout", 500L),
+                    new NAKACK2(),
+                    new UNICAST3(),
+                    new STABLE(),
+                    new GMS().setValue("join_timeout", 1000L).setValue("print_local_addr", false),
+                    new FRAG2());
+
+            if (role.equals("frontend")) {
+                channel.setName("frontend");
+                frontendChannel = channel;
+            } else {
+                channel.setName(role + "-" + replicaChannels.size());
+                replicaChannels.add(channel);
+            }
+            return channel;
+        } catch (Exception e) {
+            throw new IllegalStateException("Simulated channel could not be created.", e);
+        }
+    }
+
+    /** Runs the workload through the clean, fault and healed phases and prints the results. **/
+    public void run(String scenario, int secondsPerPhase, int workers) throws Exception {
+        this.checkBulkImport();
+        this.seed(100);
+
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        for (int i = 0; i < workers; i++) {
+            UserDetails user = new UserDetails("sim-" + i, "sim-" + i + "@simulator.test");
+            SplittableRandom random = plan.split();                                                         //--> Split in worker order so each worker gets the same stream for a seed.
+            executor.execute(() -> this.work(user, random));
+        }
+
+        for (phase = 0; phase < PHASES.length; phase++) {
+            if (phase == 1) {
+                this.inject(scenario);
+            } else if (phase == 2) {
+                plan.heal();
+            }
+            System.out.printf(">> Phase: %s%n", PHASES[phase]);
+            Thread.sleep(TimeUnit.SECONDS.toMillis(secondsPerPhase));
+        }
+
+        executor.shutdownNow();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        long converged = this.awaitConvergence(TimeUnit.SECONDS.toMillis(Long.getLong("sim.settle", 30)));
+
+        System.out.println("------------------------------------------------------------->");
+        System.out.printf(">> Scenario: %s. Replicas: %d. Replication factor: %d. Write mode: %s.%n", scenario, replicas.size(),
+                ClusterConfig.getReplicationFactor(), ClusterConfig.isLeaderWriteMode() ? "leader" : "quorum");
+        for (int i = 0; i < PHASES.length; i++) {
+            System.out.printf(">> %-7s ops/s: %8.0f. Failed: %d.%n", PHASES[i], succeeded[i].sum() / (double) secondsPerPhase, failed[i].sum());
+        }
+        if (converged >= 0) {
+            System.out.printf(">> Replicas agreed on all %d auctions %dms after the workload stopped.%n", auctionIDs.size(), converged);
+        } else {
+            System.out.printf(">> Replicas still disagree on %d of %d auctions.%n", this.countDivergent(), auctionIDs.size());
+        }
+        System.out.print(ClusterSimulator.frontendMetrics());
+        System.out.println("------------------------------------------------------------->");
+    }
+
+    /** Applies the scenarios faults. **/
+    private void inject(String scenario) {
+        Address first = replicaChannels.get(0).getAddress();
+        switch (scenario) {
+            case "none": break;
+            case "delay": plan.setDelay(5, 50); break;
+            case "drop": plan.setDropRate(0.05); break;
+            case "slow": plan.setSlow(first, 100); break;
+            case "partition": plan.partition(Collections.singletonList(first)); break;
+            default: throw new IllegalArgumentException("Unknown scenario: " + scenario);
+        }
+    }
+
+    /** Checks that a bulk import of no lots, or of only invalid lots, creates nothing rather than failing. **/
+    private void checkBulkImport() throws Exception {
+        UserDetails seller = new UserDetails("sim-seller", "seller@simulator.test");
+        long[] empty = frontend.createAuctions(Client.newRequestID(), new ArrayList<>(), seller);
+
+        ArrayList<AuctionLot> invalid = new ArrayList<>();
+        invalid.add(new AuctionLot("", 100, 200, "No name."));
+        invalid.add(new AuctionLot("Reserve below start", 200, 100, "Invalid."));
+        long[] rejected = frontend.createAuctions(Client.newRequestID(), invalid, seller);
+
+        if (empty.length != 0 || rejected.length != 2 || rejected[0] != AuctionIds.NONE || rejected[1] != AuctionIds.NONE) {
+            throw new IllegalStateException("Bulk import of empty or invalid lots returned " + Arrays.toString(empty) + " " + Arrays.toString(rejected));
+        }
+        System.out.println(">> Bulk import of no lots and of invalid lots created nothing.");
+    }
+
+    /** Creates auctions for the workers to bid on. **/
+    private void seed(int count) throws Exception {
+        UserDetails seller = new UserDetails("sim-seller", "seller@simulator.test");
+        for (int i = 0; i < count; i++) {
+            long auctionID = frontend.createAuction(Client.newRequestID(), "Simulated lot " + i, 100, 200, "Simulated.", seller);
+            if (auctionID != AuctionIds.NONE) {
+                this.addAuction(auctionID);
+            }
+        }
+    }
+
+    /** Worker loop. Mostly bids on random auctions with rising amounts, sometimes creates an auction. **/
+    private void work(UserDetails user, SplittableRandom random) {
+        while (!Thread.currentThread().isInterrupted()) {
+            int current = phase;
+            try {
+                boolean ok;
+                if (random.nextInt(10) == 0) {
+                    long auctionID = frontend.createAuction(Client.newRequestID(), "Simulated lot", 100, 200, "Simulated.", user);
+                    ok = auctionID != AuctionIds.NONE;
+                    if (ok) {
+                        this.addAuction(auctionID);
+                    }
+                } else {
+                    ok = frontend.bid(Client.newRequestID(), this.randomAuction(random), user, nextBid.incrementAndGet()) != null;
+                }
+                (ok ? succeeded : failed)[Math.min(current, PHASES.length - 1)].increment();
+            } catch (Exception e) {
+                failed[Math.min(current, PHASES.length - 1)].increment();
+            }
+        }
+    }
+
+    private void addAuction(long auctionID) {
+        synchronized (auctionIDs) {
+            auctionIDs.add(auctionID);
+        }
+    }
+
+    private long randomAuction(SplittableRandom random) {
+        synchronized (auctionIDs) {
+            return auctionIDs.get(random.nextInt(auctionIDs.size()));
+        }
+    }
+
+    /** Waits until every auctions owners hold identical copies. Returns the time taken or -1 if they never did. **/
+    private long awaitConvergence(long timeoutMillis) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while (System.currentTimeMillis() - start < timeoutMillis) {
+            if (this.countDivergent() == 0) {
+                return System.currentTimeMillis() - start;
+            }
+            Thread.sleep(100);
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of auctions whose owners (per the current view) don't all hold the same copy. Closed
+     * auctions aren't tracked so only missing or differing copies of created auctions count.
+     */
+    private int countDivergent() {
+        HashMap<Address, ReplicatedServer> byAddress = new HashMap<>();
+        for (int i = 0; i < replicas.size(); i++) {
+            byAddress.put(replicaChannels.get(i).getAddress(), replicas.get(i));
+        }
+
+        List<Address> members = new ArrayList<>(frontendChannel.getView().getMembers());
+        members.remove(0);                                                                            //--> Remove coordinator (RMI Server)
+        ShardRouter router = new ShardRouter(members, ClusterConfig.getReplicationFactor());
+
+        ArrayList<Long> snapshot;
+        synchronized (auctionIDs) {
+            snapshot = new ArrayList<>(auctionIDs);
+        }
+
+        int divergent = 0;
+        for (long auctionID : snapshot) {
+            HashSet<Integer> copies = new HashSet<>();
+            for (Address owner : router.getOwners(auctionID)) {
+                ReplicatedServer replica = byAddress.get(owner);
+                Auction copy = replica == null ? null : replica.getAuction(auctionID);
+                copies.add(copy == null ? 0 : copy.getDataHash());
+            }
+            if (copies.size() > 1) {
+                divergent++;
+            }
+        }
+        return divergent;
+    }
+
+    /** Returns the AuctionServers vote, repair and write metrics from its JMX registry. **/
+    private static String frontendMetrics() {
+        StringBuilder lines = new StringBuilder();
+        try {
+            String dump = (String) ManagementFactory.getPlatformMBeanServer()
+                    .invoke(new ObjectName("auction:type=Metrics,name=frontend"), "dump", null, null);
+            for (String line : dump.split(System.lineSeparator())) {
+                if (line.startsWith("votes") || line.startsWith("repair") || line.startsWith("rmi.bid") || line.startsWith("rmi.createAuction ")) {
+                    lines.append(">> ").append(line).append(System.lineSeparator());
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return lines.toString();
+    }
+}
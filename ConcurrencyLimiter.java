@@ -0,0 +1,79 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Adaptive limit on the number of calls the AuctionServer has in flight to the replicas (AIMD). While calls complete
+ * within the target latency the limit grows by about one per limit's worth of calls; when a call is slower the limit
+ * is cut by a factor, at most once per target latency so one burst of slow calls is a single cut. Calls over the
+ * limit are rejected at once instead of queueing behind an overloaded cluster. Lock free: a CAS per acquire/release.
+ */
+public class ConcurrencyLimiter {
+
+    private static final double DECREASE_FACTOR = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetNanos;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong limitBits;
+    private final AtomicLong lastDecrease = new AtomicLong(System.nanoTime());
+
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, long targetMillis) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.targetNanos = targetMillis * 1_000_000;
+        this.limitBits = new AtomicLong(Double.doubleToLongBits(Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit))));
+    }
+
+    /** Reserves a slot for a call. Returns false without waiting if the limit has been reached. **/
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= this.getLimit()) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /** Releases a slot taken by tryAcquire and adjusts the limit using the calls latency. **/
+    public void release(long latencyNanos) {
+        int previouslyInFlight = inFlight.getAndDecrement();
+
+        if (latencyNanos > targetNanos) {
+            long now = System.nanoTime();
+            long last = lastDecrease.get();
+            if (now - last > targetNanos && lastDecrease.compareAndSet(last, now)) {
+                this.updateLimit(limit -> Math.max(minLimit, limit * DECREASE_FACTOR));
+            }
+        } else if (previouslyInFlight * 2 >= this.getLimit()) {
+            //--> Only grow while the limit is being used, so a quiet period doesn't leave it far above what was tested.
+            this.updateLimit(limit -> Math.min(maxLimit, limit + 1 / limit));
+        }
+    }
+
+    /** Returns the current limit. **/
+    public int getLimit() {
+        return (int) Double.longBitsToDouble(limitBits.get());
+    }
+
+    /** Returns the number of calls in flight. **/
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /** Applies the update to the limit, retrying if another release changed it first. **/
+    private void updateLimit(DoubleUnaryOperator update) {
+        while (true) {
+            long bits = limitBits.get();
+            long updated = Double.doubleToLongBits(update.applyAsDouble(Double.longBitsToDouble(bits)));
+            if (bits == updated || limitBits.compareAndSet(bits, updated)) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, time-expiring cache of write results keyed by client request ID. A replayed request (e.g. a client retry
+ * after a timeout) gets the result of the original instead of being applied again. Entries are evicted oldest first
+ * once the cache is full or after the time to live. Results may be null so lookups return a Result holder.
+ */
+public class DedupCache<V> {
+
+    private final int capacity;
+    private final long ttlNanos;
+
+    //--> Insertion ordered so the eldest entry is also the first to expire.
+    private final LinkedHashMap<String, Result<V>> results = new LinkedHashMap<>();
+
+    public DedupCache(int capacity, long ttlMillis) {
+        this.capacity = Math.max(1, capacity);
+        this.ttlNanos = ttlMillis * 1_000_000L;
+    }
+
+    /** Returns the cache sized by -Dauction.dedup.capacity and -Dauction.dedup.ttl. **/
+    public static <V> DedupCache<V> fromConfig() {
+        return new DedupCache<>(ClusterConfig.getDedupCapacity(), ClusterConfig.getDedupTtl());
+    }
+
+    /** Returns the result recorded for the request or null if it hasn't been seen (or has expired). **/
+    public synchronized Result<V> get(String requestID) {
+        if (requestID == null) {
+            return null;
+        }
+        this.expire(System.nanoTime());
+        return results.get(requestID);
+    }
+
+    /** Records the result of a request. Requests without an ID are never recorded. **/
+    public synchronized void put(String requestID, V value) {
+        if (requestID == null) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        this.expire(now);
+        results.put(requestID, new Result<>(value, now));
+
+        if (results.size() > capacity) {
+            Iterator<String> eldest = results.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /** Returns the number of results held. **/
+    public synchronized int size() {
+        return results.size();
+    }
+
+    /** Drops entries older than the time to live from the head of the insertion order. **/
+    private void expire(long now) {
+        Iterator<Map.Entry<String, Result<V>>> entries = results.entrySet().iterator();
+        while (entries.hasNext() && now - entries.next().getValue().recorded > ttlNanos) {
+            entries.remove();
+        }
+    }
+
+    /** A recorded result. The value is the original response, which may be null. **/
+    public static final class Result<V> {
+
+        private final V value;
+        private final long recorded;
+
+        Result(V value, long recorded) {
+            this.value = value;
+            this.recorded = recorded;
+        }
+
+        public V getValue() { return value; }
+    }
+}
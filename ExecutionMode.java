@@ -0,0 +1,37 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the executors used for request handling. In "virtual" mode (-Dauction.execution=virtual) every task gets
+ * its own virtual thread (Java 21+) and concurrency is bounded by semaphores rather than pool size. In "platform"
+ * mode, the default, tasks run on a cached pool of platform threads.
+ */
+public final class ExecutionMode {
+
+    public static final String PLATFORM = "platform";
+    public static final String VIRTUAL  = "virtual";
+
+    private ExecutionMode() {}
+
+    /** Returns true if virtual threads were requested. **/
+    public static boolean isVirtual() {
+        return VIRTUAL.equalsIgnoreCase(System.getProperty("auction.execution", PLATFORM));
+    }
+
+    /** Returns an executor for the configured mode. Falls back to platform threads if the JVM has no virtual threads. **/
+    public static ExecutorService newExecutor() {
+        if (isVirtual()) {
+            try {
+                //--> Looked up reflectively so the code still compiles and runs on JVMs older than 21.
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Virtual threads are not supported by this JVM. Falling back to platform threads.");
+            }
+        }
+        return Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,79 @@
+import org.jgroups.Address;
+import org.jgroups.Event;
+import org.jgroups.Message;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.MessageBatch;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JGroups protocol that applies a FaultPlan to received messages. Placed directly above the transport so the reliable
+ * delivery, membership and failure detection protocols above it see the faults as a real network would present them.
+ * Only used by the ClusterSimulator.
+ */
+public class FaultInjector extends Protocol {
+
+    //--> Shared by every injector in the JVM. Only times the delays: delivery is handed to the members own transport
+    //--> thread pool so a slow handler can't hold up every other members delayed messages.
+    private static final ScheduledExecutorService TIMER = Executors.newScheduledThreadPool(2, task -> {
+        Thread thread = new Thread(task, "fault-injector");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final FaultPlan plan;
+    private volatile Address localAddress;
+
+    public FaultInjector(FaultPlan plan) {
+        this.plan = plan;
+    }
+
+    @Override
+    public Object down(Event evt) {
+        if (evt.getType() == Event.SET_LOCAL_ADDRESS) {
+            localAddress = evt.getArg();
+        }
+        return down_prot.down(evt);
+    }
+
+    @Override
+    public Object up(Message msg) {
+        Address sender = msg.getSrc();
+        if (plan.shouldDrop(sender, localAddress)) {
+            return null;
+        }
+
+        long delay = plan.getDelay(sender, localAddress);
+        if (delay > 0) {
+            TIMER.schedule(() -> getTransport().submitToThreadPool(() -> this.deliver(msg), true), delay, TimeUnit.MILLISECONDS);
+            return null;
+        }
+        return up_prot.up(msg);
+    }
+
+    @Override
+    public void up(MessageBatch batch) {
+        ArrayList<Message> held = new ArrayList<>();
+        for (Message msg : batch) {
+            held.add(msg);
+        }
+
+        //--> Faults are per message so the batch is broken up. The loopback transport rarely batches anyway.
+        batch.remove(msg -> true);
+        for (Message msg : held) {
+            this.up(msg);
+        }
+    }
+
+    /** Passes a delayed message up the stack. **/
+    private void deliver(Message msg) {
+        try {
+            up_prot.up(msg);
+        } catch (Throwable t) {
+            t.printStackTrace();
+        }
+    }
+}
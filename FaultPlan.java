@@ -0,0 +1,121 @@
+import org.jgroups.Address;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The network faults applied by every FaultInjector in a simulated cluster. Faults are applied by the receiver to
+ * each message it is sent: a message between members on different sides of a partition is lost, others may be lost
+ * at random or delivered late. Lost messages are retransmitted by the reliable protocols above the injector, so drops
+ * show up as extra latency rather than lost writes. All settings can be changed while the cluster runs.
+ *
+ * Random choices come from one seeded generator so a run can be repeated with the same seed (see split for the
+ * workload). Thread scheduling still varies between runs so the order the choices are drawn in may differ.
+ */
+public class FaultPlan {
+
+    private final long seed;
+    private final SplittableRandom random;
+
+    private volatile double dropRate;
+    private volatile long minDelayMillis;
+    private volatile long maxDelayMillis;
+
+    //--> Extra delay for messages to or from particular members (e.g. one slow replica).
+    private final ConcurrentHashMap<Address, Long> slowMembers = new ConcurrentHashMap<>();
+
+    //--> Side of the partition each member is on. Members not listed are on side 0.
+    private final ConcurrentHashMap<Address, Integer> sides = new ConcurrentHashMap<>();
+
+    public FaultPlan(long seed) {
+        this.seed = seed;
+        this.random = new SplittableRandom(seed);
+    }
+
+    /** Returns the seed the plan was created with. **/
+    public long getSeed() {
+        return seed;
+    }
+
+    /** Returns a new generator derived from the plans seed, e.g. for one workload thread. **/
+    public synchronized SplittableRandom split() {
+        return random.split();
+    }
+
+    /** Loses each message with the provided probability (0 to 1). **/
+    public void setDropRate(double dropRate) {
+        this.dropRate = dropRate;
+    }
+
+    /** Delays each message by a random time from 'minMillis' to 'maxMillis'. **/
+    public void setDelay(long minMillis, long maxMillis) {
+        this.minDelayMillis = minMillis;
+        this.maxDelayMillis = Math.max(minMillis, maxMillis);
+    }
+
+    /** Delays every message to or from the member by a further 'delayMillis'. Zero removes the delay. **/
+    public void setSlow(Address member, long delayMillis) {
+        if (delayMillis <= 0) {
+            slowMembers.remove(member);
+        } else {
+            slowMembers.put(member, delayMillis);
+        }
+    }
+
+    /** Cuts the provided members off from every other member. Messages between the two sides are lost. **/
+    public void partition(Collection<Address> isolated) {
+        sides.clear();
+        for (Address member : isolated) {
+            sides.put(member, 1);
+        }
+    }
+
+    /** Removes the partition, delays, slow members and random loss. **/
+    public void heal() {
+        sides.clear();
+        slowMembers.clear();
+        dropRate = 0;
+        minDelayMillis = 0;
+        maxDelayMillis = 0;
+    }
+
+    /** Returns the members currently cut off by a partition. **/
+    public Set<Address> getIsolated() {
+        return new HashSet<>(sides.keySet());
+    }
+
+    /** Returns true if a message from 'sender' to 'receiver' should be lost. **/
+    public boolean shouldDrop(Address sender, Address receiver) {
+        if (sender != null && receiver != null && !sides.getOrDefault(sender, 0).equals(sides.getOrDefault(receiver, 0))) {
+            return true;
+        }
+        double rate = dropRate;
+        if (rate <= 0) {
+            return false;
+        }
+        synchronized (this) {
+            return random.nextDouble() < rate;
+        }
+    }
+
+    /** Returns how long in milliseconds a message from 'sender' to 'receiver' should be held before delivery. **/
+    public long getDelay(Address sender, Address receiver) {
+        long min = minDelayMillis;
+        long max = maxDelayMillis;
+        long delay = min;
+        if (max > min) {
+            synchronized (this) {
+                delay = random.nextLong(min, max + 1);
+            }
+        }
+
+        if (!slowMembers.isEmpty()) {
+            delay += slowMembers.getOrDefault(sender, 0L);
+            delay += slowMembers.getOrDefault(receiver, 0L);
+        }
+        return delay;
+    }
+}
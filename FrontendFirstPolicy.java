@@ -0,0 +1,58 @@
+import org.jgroups.Address;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.stack.MembershipChangePolicy;
+import org.jgroups.util.ExtendedUUID;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Keeps the AuctionServer first in the view. Every member treats the first member of a view as the AuctionServer
+ * (the coordinator) and the rest as replicas, but when a partition heals JGroups orders the merged view by address,
+ * so a replica that was cut off could come first. The AuctionServer is marked in its address (see isFrontend) and
+ * moved back to the front of merged views. Ordinary joins and leaves keep the default ordering.
+ */
+public class FrontendFirstPolicy implements MembershipChangePolicy {
+
+    //--> Key set in the AuctionServers ExtendedUUID address.
+    public static final String FRONTEND_KEY = "auction.frontend";
+
+    private final MembershipChangePolicy defaults = new GMS.DefaultMembershipPolicy();
+
+    public List<Address> getNewMembership(Collection<Address> currentMembers, Collection<Address> joiners,
+                                          Collection<Address> leavers, Collection<Address> suspects) {
+        return defaults.getNewMembership(currentMembers, joiners, leavers, suspects);
+    }
+
+    public List<Address> getNewMembership(Collection<Collection<Address>> subviews) {
+        List<Address> merged = defaults.getNewMembership(subviews);
+
+        ArrayList<Address> ordered = new ArrayList<>(merged.size());
+        for (Address member : merged) {
+            if (FrontendFirstPolicy.isFrontend(member)) {
+                ordered.add(member);
+            }
+        }
+        for (Address member : merged) {
+            if (!FrontendFirstPolicy.isFrontend(member)) {
+                ordered.add(member);
+            }
+        }
+        return ordered;
+    }
+
+    /** Returns true if the address belongs to an AuctionServer. **/
+    public static boolean isFrontend(Address address) {
+        return address instanceof ExtendedUUID && ((ExtendedUUID) address).keyExists(FRONTEND_KEY);
+    }
+
+    /** Returns the node ID an AuctionServer was started with (see ClusterConfig.getNodeID) or -1 for a replica. **/
+    public static int getNodeID(Address address) {
+        if (!FrontendFirstPolicy.isFrontend(address)) {
+            return -1;
+        }
+        byte[] value = ((ExtendedUUID) address).get(FRONTEND_KEY);
+        return value.length == 2 ? ((value[0] & 0xff) << 8) | (value[1] & 0xff) : -1;
+    }
+}
@@ -0,0 +1,90 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram. Values are recorded in nanoseconds into log-linear buckets (16 buckets per power of
+ * two, so percentiles are accurate to about 6%) in the style of HdrHistogram. Recording is a single atomic increment.
+ */
+public class LatencyRecorder {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+
+    /** Records a latency in nanoseconds. Negative values are recorded as zero. **/
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets.incrementAndGet(LatencyRecorder.bucketIndex(value));
+        count.increment();
+        total.add(value);
+    }
+
+    /** Returns the number of recorded values. **/
+    public long getCount() {
+        return count.sum();
+    }
+
+    /** Returns the mean of the recorded values in nanoseconds. **/
+    public long getMean() {
+        long recorded = count.sum();
+        return recorded == 0 ? 0 : total.sum() / recorded;
+    }
+
+    /** Returns the value in nanoseconds that the provided percentage (0-100) of recorded values are at or below. **/
+    public long getPercentile(double percentile) {
+        long recorded = 0;
+        long[] snapshot = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = buckets.get(i);
+            recorded += snapshot[i];
+        }
+
+        if (recorded == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(recorded * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                return LatencyRecorder.bucketUpperBound(i);
+            }
+        }
+        return LatencyRecorder.bucketUpperBound(BUCKET_COUNT - 1);
+    }
+
+    /** Clears all recorded values. **/
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        total.reset();
+    }
+
+    /** Values below SUB_BUCKETS get a bucket each. Larger values use the top SUB_BUCKET_BITS bits after the leading one. **/
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /** Returns the largest value that falls into the provided bucket. **/
+    private static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+    }
+}
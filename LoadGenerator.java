@@ -0,0 +1,319 @@
+import java.rmi.Naming;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless load generator simulating many BuyClient and SaleClient sessions. Logs in once through the normal client
+ * challenge-response flow (Client.login, no stdin) then drives a weighted mix of operations at a fixed target rate.
+ *
+ * Scheduling is open loop: operation i is due at start + i / rate whether or not earlier operations have finished, as
+ * real users don't wait for each other. Latency is measured from when an operation was due rather than when it was
+ * sent, so a stalled server is charged for every operation queued behind the stall (corrected for coordinated
+ * omission). The time from send to response is reported alongside as service time.
+ *
+ * Sessions are named USERNAME-N after the logged in user so each has its own auctions and its own rate limit for bids,
+ * creates, closes and listings. Reads (search, browse, active) carry no user, so every session shares the per-host
+ * read limit. Each session closes only auctions it created. Run it against a cluster started with load-cluster.sh,
+ * which raises the server limits so the run measures the cluster rather than admission control.
+ *
+ * Usage: java LoadGenerator [sessions] [opsPerSecond] [seconds] [mix]
+ * where mix is a comma separated list of op=weight for bid, search, browse, list, active, create and close.
+ * Login is read from -Dauction.load.username, -Dauction.load.email and -Dauction.load.key (key file number).
+ */
+public class LoadGenerator {
+
+    private static final String[] OPERATIONS = {"bid", "search", "browse", "list", "active", "create", "close"};
+    private static final String DEFAULT_MIX = "bid=50,search=20,browse=10,list=10,create=7,close=3";
+    private static final String[] SEARCH_WORDS = {"Lot", "vintage", "bike", "watch", "rare", "lamp"};
+    private static final int SEED_BATCH_SIZE = 1000;
+
+    private final Session[] sessions;
+    private final CanBuy buyer;
+    private final CanSell seller;
+
+    //--> Auctions any session may bid on. Grows as sessions create auctions.
+    private final ArrayList<Long> biddable = new ArrayList<>();
+    private final AtomicLong nextBid = new AtomicLong(1000);
+
+    private final LinkedHashMap<String, OpStats> stats = new LinkedHashMap<>();
+    private final LatencyRecorder allCorrected = new LatencyRecorder();
+    private final LatencyRecorder allService = new LatencyRecorder();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+
+    public LoadGenerator(String username, int sessionCount, Object server) {
+        this.buyer = (CanBuy) server;
+        this.seller = (CanSell) server;
+        this.sessions = new Session[sessionCount];
+        for (int i = 0; i < sessionCount; i++) {
+            String name = username + "-" + i;
+            sessions[i] = new Session(new UserDetails(name, name + "@load.test"));
+        }
+        for (String op : OPERATIONS) {
+            stats.put(op, new OpStats());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        double rate = args.length > 1 ? Double.parseDouble(args[1]) : 500;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+        String[] mix = LoadGenerator.parseMix(args.length > 3 ? args[3] : DEFAULT_MIX);
+
+        //--> Same challenge-response login as the interactive clients, with the details supplied up front.
+        String username = System.getProperty("auction.load.username", "AuctionMaster");
+        String email = System.getProperty("auction.load.email", "master@auction.com");
+        String key = System.getProperty("auction.load.key", "3");
+        if (Client.login(username, email, "public_key_" + key, "private_key_" + key) == null) {
+            System.out.println(">> Login failed. Check -Dauction.load.username, -Dauction.load.email and -Dauction.load.key.");
+            System.exit(1);
+        }
+
+        LoadGenerator generator = new LoadGenerator(username, sessions, Naming.lookup("rmi://localhost/AuctionService"));
+        generator.seed(Integer.getInteger("auction.load.auctions", 1000));
+        generator.run(mix, rate, seconds);
+        System.exit(0);
+    }
+
+    /** Expands "op=weight,..." into a table of 100 ops so a uniform random index picks ops in proportion. **/
+    private static String[] parseMix(String mix) {
+        ArrayList<String> ops = new ArrayList<>();
+        ArrayList<Integer> weights = new ArrayList<>();
+        int total = 0;
+
+        for (String part : mix.split(",")) {
+            String[] opWeight = part.trim().split("=");
+            int weight = Integer.parseInt(opWeight[1].trim());
+            if (!Arrays.asList(OPERATIONS).contains(opWeight[0].trim())) {
+                throw new IllegalArgumentException("Unknown operation in mix: " + opWeight[0]);
+            }
+            ops.add(opWeight[0].trim());
+            weights.add(weight);
+            total += weight;
+        }
+
+        String[] table = new String[100];
+        int filled = 0;
+        for (int i = 0; i < ops.size(); i++) {
+            int slots = i == ops.size() - 1 ? table.length - filled : Math.round(weights.get(i) * 100f / total);
+            Arrays.fill(table, filled, Math.min(table.length, filled + slots), ops.get(i));
+            filled = Math.min(table.length, filled + slots);
+        }
+        return table;
+    }
+
+    /** Creates the auctions bid on at the start of the run, spread across the sessions as sellers. **/
+    private void seed(int auctions) throws Exception {
+        System.out.printf(">> Seeding %d auctions.%n", auctions);
+
+        for (int created = 0; created < auctions; created += SEED_BATCH_SIZE) {
+            Session session = sessions[(created / SEED_BATCH_SIZE) % sessions.length];
+            ArrayList<AuctionLot> lots = new ArrayList<>();
+            for (int i = created; i < Math.min(auctions, created + SEED_BATCH_SIZE); i++) {
+                lots.add(new AuctionLot("Lot " + i + " " + SEARCH_WORDS[i % SEARCH_WORDS.length], 100, 200, "Seeded by LoadGenerator."));
+            }
+
+            String requestID = Client.newRequestID();
+            long[] auctionIDs = Client.withRetries(() -> seller.createAuctions(requestID, lots, session.details), result -> false);
+            for (long auctionID : auctionIDs) {
+                if (auctionID != AuctionIds.NONE) {
+                    session.own(auctionID);
+                    this.addBiddable(auctionID);
+                }
+            }
+        }
+    }
+
+    /** Issues operations at the target rate for the provided time then waits for the stragglers and prints the results. **/
+    private void run(String[] mix, double rate, int seconds) throws InterruptedException {
+        ExecutorService executor = ExecutionMode.newExecutor();
+        long interval = (long) (1e9 / rate);
+        long duration = TimeUnit.SECONDS.toNanos(seconds);
+        long start = System.nanoTime();
+        long lateStarts = 0;
+
+        System.out.printf(">> Running %s ops/s for %ds across %d sessions.%n", rate, seconds, sessions.length);
+        System.out.println("------------------------------------------------------------->");
+
+        for (long i = 0; i * interval < duration; i++) {
+            long due = start + i * interval;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            } else if (-wait > interval) {
+                lateStarts++;                                                                     //--> The generator itself fell behind.
+            }
+
+            String op = mix[ThreadLocalRandom.current().nextInt(mix.length)];
+            Session session = sessions[ThreadLocalRandom.current().nextInt(sessions.length)];
+            executor.execute(() -> this.perform(op, session, due));
+        }
+
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.MINUTES);
+        this.report((System.nanoTime() - start) / 1e9, lateStarts);
+    }
+
+    /** Performs one operation and records its latency from when it was due and from when it was sent. **/
+    private void perform(String op, Session session, long due) {
+        //--> Nothing left to close. Create one instead so the session keeps the mix going, and count it as a create.
+        long toClose = op.equals("close") ? session.takeOwned() : AuctionIds.NONE;
+        if (op.equals("close") && toClose == AuctionIds.NONE) {
+            op = "create";
+        }
+
+        OpStats opStats = stats.get(op);
+        peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        long sent = System.nanoTime();
+
+        try {
+            if (this.call(op, session, toClose)) {
+                opStats.succeeded.increment();
+            } else {
+                opStats.failed.increment();
+            }
+        } catch (ServerBusyException e) {
+            opStats.rejected.increment();
+        } catch (Exception e) {
+            opStats.failed.increment();
+        } finally {
+            long done = System.nanoTime();
+            inFlight.decrementAndGet();
+            opStats.corrected.record(done - due);
+            opStats.service.record(done - sent);
+            allCorrected.record(done - due);
+            allService.record(done - sent);
+        }
+    }
+
+    /**
+     * Makes the remote call for the operation. 'toClose' is the auction a close operation closes. Returns false if the
+     * server answered that it couldn't serve it.
+     */
+    private boolean call(String op, Session session, long toClose) throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        switch (op) {
+            case "bid": {
+                long auctionID = this.randomBiddable();
+                return auctionID != AuctionIds.NONE
+                        && buyer.bid(Client.newRequestID(), auctionID, session.details, nextBid.incrementAndGet()) != null;
+            }
+            case "search": {
+                String keyWord = SEARCH_WORDS[random.nextInt(SEARCH_WORDS.length)];
+                return buyer.showTop(keyWord, AuctionSort.RELEVANCE, 20) != null;
+            }
+            case "browse": {
+                long minPrice = random.nextLong(nextBid.get());
+                return buyer.browse(minPrice, minPrice + 100_000, AuctionSort.LOWEST_BID, 0, 20) != null;
+            }
+            case "list": {
+                return seller.listMyAuctions(session.details.getName(), AuctionSort.TOP_BID, 0, 20) != null;
+            }
+            case "active": {
+                return buyer.showActive() != null;
+            }
+            case "close": {
+                seller.closeAuction(Client.newRequestID(), toClose, session.details.getName());
+                return true;                                                                          //--> Null only means it already sold.
+            }
+            case "create": {
+                long auctionID = seller.createAuction(Client.newRequestID(), "Lot " + SEARCH_WORDS[random.nextInt(SEARCH_WORDS.length)],
+                        100, 200, "Created by LoadGenerator.", session.details);
+                if (auctionID == AuctionIds.NONE) {
+                    return false;
+                }
+                session.own(auctionID);
+                this.addBiddable(auctionID);
+                return true;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown operation: " + op);
+        }
+    }
+
+    private void addBiddable(long auctionID) {
+        synchronized (biddable) {
+            biddable.add(auctionID);
+        }
+    }
+
+    private long randomBiddable() {
+        synchronized (biddable) {
+            return biddable.isEmpty() ? AuctionIds.NONE : biddable.get(ThreadLocalRandom.current().nextInt(biddable.size()));
+        }
+    }
+
+    /** Prints throughput and corrected latency percentiles for each operation and overall. **/
+    private void report(double seconds, long lateStarts) {
+        long completed = allCorrected.getCount();
+
+        System.out.printf(">> Completed %d ops in %.1fs (%.0f ops/s). Peak in flight: %d. Late starts: %d.%n",
+                completed, seconds, completed / seconds, peakInFlight.get(), lateStarts);
+        System.out.println(">> Latency in ms measured from when each op was due. 'svc' is send to response.");
+        System.out.printf(">> %-7s %8s %8s %8s %8s %8s %8s %8s %8s %8s%n",
+                "op", "count", "failed", "rejected", "p50", "p90", "p99", "p99.9", "max", "svc p99");
+
+        for (Map.Entry<String, OpStats> entry : stats.entrySet()) {
+            OpStats opStats = entry.getValue();
+            if (opStats.corrected.getCount() > 0) {
+                LoadGenerator.printRow(entry.getKey(), opStats.corrected, opStats.service, opStats.failed.sum(), opStats.rejected.sum());
+            }
+        }
+
+        long failed = 0;
+        long rejected = 0;
+        for (OpStats opStats : stats.values()) {
+            failed += opStats.failed.sum();
+            rejected += opStats.rejected.sum();
+        }
+        LoadGenerator.printRow("all", allCorrected, allService, failed, rejected);
+        System.out.println("------------------------------------------------------------->");
+    }
+
+    private static void printRow(String op, LatencyRecorder corrected, LatencyRecorder service, long failed, long rejected) {
+        System.out.printf(">> %-7s %8d %8d %8d %8.2f %8.2f %8.2f %8.2f %8.2f %8.2f%n",
+                op, corrected.getCount(), failed, rejected,
+                corrected.getPercentile(50) / 1e6, corrected.getPercentile(90) / 1e6, corrected.getPercentile(99) / 1e6,
+                corrected.getPercentile(99.9) / 1e6, corrected.getPercentile(100) / 1e6, service.getPercentile(99) / 1e6);
+    }
+
+    /** A simulated user. Remembers the auctions it created so it only closes its own. **/
+    private static final class Session {
+
+        private final UserDetails details;
+        private final ArrayDeque<Long> owned = new ArrayDeque<>();
+
+        Session(UserDetails details) {
+            this.details = details;
+        }
+
+        synchronized void own(long auctionID) {
+            owned.add(auctionID);
+        }
+
+        synchronized long takeOwned() {
+            Long auctionID = owned.poll();
+            return auctionID == null ? AuctionIds.NONE : auctionID;
+        }
+    }
+
+    /** Outcome counts and latencies for one operation type. **/
+    private static final class OpStats {
+        private final LatencyRecorder corrected = new LatencyRecorder();
+        private final LatencyRecorder service = new LatencyRecorder();
+        private final LongAdder succeeded = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+    }
+}
@@ -0,0 +1,76 @@
+import java.rmi.Naming;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Simple load test for comparing execution modes and stack profiles. Starts the requested number of concurrent
+ * clients, each making alternate showActive and bid calls ("mixed") or only bids ("bid"), then prints the peak number
+ * of requests in flight, throughput and p99 latency. Run it against an AuctionServer and replicas started with
+ * -Dauction.execution=platform and then =virtual, or use benchmark-stacks.sh to compare stack profiles. Every client
+ * shares one user, so start the AuctionServer with a high -Dauction.rate.limit unless rate limiting is being tested.
+ *
+ * Usage: java LoadTest [clients] [requestsPerClient] [mixed|bid]
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int requestsPerClient = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        boolean bidOnly = args.length > 2 && args[2].equals("bid");
+
+        CanBuy buyer = (CanBuy) Naming.lookup("rmi://localhost/AuctionService");
+        UserDetails loadUser = new UserDetails("LoadTest", "load@test.com");
+
+        //--> Bid on a real auction so every bid is applied. Increasing amounts mean bids are accepted.
+        long auctionID = ((CanSell) buyer).createAuction(Client.newRequestID(), "LoadTest", 1, 2, "Load test auction.", loadUser);
+        AtomicInteger bidAmount = new AtomicInteger(1);
+
+        long[] latencies = new long[clients * requestsPerClient];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger peakInFlight = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+
+        ExecutorService executor = ExecutionMode.newExecutor();
+        long start = System.nanoTime();
+
+        for (int c = 0; c < clients; c++) {
+            executor.execute(() -> {
+                for (int r = 0; r < requestsPerClient; r++) {
+                    peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    long requestStart = System.nanoTime();
+                    try {
+                        if (!bidOnly && r % 2 == 0) {
+                            buyer.showActive();
+                        } else {
+                            buyer.bid(Client.newRequestID(), auctionID, loadUser, bidAmount.incrementAndGet());
+                        }
+                    } catch (ServerBusyException e) {
+                        rejected.incrementAndGet();
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                    }
+                    latencies[next.getAndIncrement()] = System.nanoTime() - requestStart;
+                    inFlight.decrementAndGet();
+                }
+            });
+        }
+
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        Arrays.sort(latencies);
+        System.out.println(">> Execution mode: " + (ExecutionMode.isVirtual() ? ExecutionMode.VIRTUAL : ExecutionMode.PLATFORM) + ". Workload: " + (bidOnly ? "bid" : "mixed") + ".");
+        System.out.println(">> Clients: " + clients + ". Peak requests in flight: " + peakInFlight.get() + ". Errors: " + errors.get() + ". Rejected: " + rejected.get() + ".");
+        System.out.printf(">> Throughput: %.0f ops/s. p50: %.2f ms. p99: %.2f ms.%n",
+                latencies.length / seconds,
+                latencies[latencies.length / 2] / 1e6,
+                latencies[(int) (latencies.length * 0.99)] / 1e6);
+        System.out.println("------------------------------------------------------------->");
+        System.exit(0);
+    }
+}
@@ -0,0 +1,226 @@
+import java.util.ArrayList;
+import java.util.function.LongPredicate;
+
+/**
+ * Heap AuctionStore keyed by primitive auction ID. Split into segments that each hold an open-addressing table of
+ * long keys and Auction values, so lookups don't box keys and writers only lock one segment. Auction ID 0
+ * (AuctionIds.NONE) is never stored so it marks an empty slot.
+ */
+public class LongAuctionMap implements AuctionStore {
+
+    private static final int SEGMENT_BITS = 6;
+
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+    public LongAuctionMap() {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /** Returns the segment for a mixed ID. Uses the top bits so slots within a segment use the low bits. **/
+    private Segment segment(long hash) {
+        return segments[(int) (hash >>> (64 - SEGMENT_BITS))];
+    }
+
+    @Override
+    public Auction get(long auctionID) {
+        long hash = AuctionStore.mix(auctionID);
+        return this.segment(hash).get(auctionID, hash);
+    }
+
+    @Override
+    public Auction put(Auction auction) {
+        long hash = AuctionStore.mix(auction.getAuctionID());
+        return this.segment(hash).put(auction, hash, true);
+    }
+
+    @Override
+    public Auction putIfAbsent(Auction auction) {
+        long hash = AuctionStore.mix(auction.getAuctionID());
+        return this.segment(hash).put(auction, hash, false);
+    }
+
+    @Override
+    public boolean replace(Auction expected, Auction updated) {
+        long hash = AuctionStore.mix(expected.getAuctionID());
+        return this.segment(hash).replace(expected, updated, hash);
+    }
+
+    @Override
+    public Auction remove(long auctionID) {
+        long hash = AuctionStore.mix(auctionID);
+        return this.segment(hash).remove(auctionID, hash);
+    }
+
+    @Override
+    public void removeIf(LongPredicate filter) {
+        for (Segment segment : segments) {
+            segment.removeIf(filter);
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    @Override
+    public ArrayList<Auction> values() {
+        ArrayList<Auction> values = new ArrayList<>();
+        for (Segment segment : segments) {
+            segment.addValuesTo(values);
+        }
+        return values;
+    }
+
+    @Override
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /** Linear probing table guarded by its own monitor. **/
+    private static final class Segment {
+
+        private static final int MIN_SLOTS = 16;
+
+        private long[] keys = new long[MIN_SLOTS];
+        private Auction[] values = new Auction[MIN_SLOTS];
+        private int size;
+
+        synchronized Auction get(long auctionID, long hash) {
+            int slot = this.find(auctionID, hash);
+            return slot < 0 ? null : values[slot];
+        }
+
+        synchronized Auction put(Auction auction, long hash, boolean overwrite) {
+            long auctionID = auction.getAuctionID();
+            int slot = this.find(auctionID, hash);
+            if (slot >= 0) {
+                Auction previous = values[slot];
+                if (overwrite) {
+                    values[slot] = auction;
+                }
+                return previous;
+            }
+
+            if ((size + 1) * 2 > keys.length) {
+                this.resize(keys.length * 2);
+            }
+            this.place(auctionID, auction, hash);
+            size++;
+            return null;
+        }
+
+        synchronized boolean replace(Auction expected, Auction updated, long hash) {
+            int slot = this.find(expected.getAuctionID(), hash);
+            if (slot < 0 || values[slot] != expected) {
+                return false;
+            }
+            values[slot] = updated;
+            return true;
+        }
+
+        synchronized Auction remove(long auctionID, long hash) {
+            int slot = this.find(auctionID, hash);
+            if (slot < 0) {
+                return null;
+            }
+
+            Auction removed = values[slot];
+            this.delete(slot);
+            return removed;
+        }
+
+        synchronized void removeIf(LongPredicate filter) {
+            int slot = 0;
+            while (slot < keys.length) {
+                //--> Deleting shifts a later entry into this slot so check it again before moving on.
+                if (keys[slot] != AuctionIds.NONE && filter.test(keys[slot])) {
+                    this.delete(slot);
+                } else {
+                    slot++;
+                }
+            }
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized void addValuesTo(ArrayList<Auction> target) {
+            for (Auction value : values) {
+                if (value != null) {
+                    target.add(value);
+                }
+            }
+        }
+
+        synchronized void clear() {
+            keys = new long[MIN_SLOTS];
+            values = new Auction[MIN_SLOTS];
+            size = 0;
+        }
+
+        /** Returns the slot holding the ID or -1. **/
+        private int find(long auctionID, long hash) {
+            int mask = keys.length - 1;
+            for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+                if (keys[slot] == auctionID) {
+                    return slot;
+                }
+                if (keys[slot] == AuctionIds.NONE) {
+                    return -1;
+                }
+            }
+        }
+
+        /** Puts an entry in the first free slot of its probe sequence. **/
+        private void place(long auctionID, Auction auction, long hash) {
+            int mask = keys.length - 1;
+            int slot = (int) hash & mask;
+            while (keys[slot] != AuctionIds.NONE) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = auctionID;
+            values[slot] = auction;
+        }
+
+        /** Empties a slot using backward shift deletion so no tombstones are needed. **/
+        private void delete(int slot) {
+            int mask = keys.length - 1;
+            int gap = slot;
+            for (int next = (gap + 1) & mask; keys[next] != AuctionIds.NONE; next = (next + 1) & mask) {
+                int home = (int) AuctionStore.mix(keys[next]) & mask;
+                boolean canMove = gap <= next ? (home <= gap || home > next) : (home <= gap && home > next);
+                if (canMove) {
+                    keys[gap] = keys[next];
+                    values[gap] = values[next];
+                    gap = next;
+                }
+            }
+            keys[gap] = AuctionIds.NONE;
+            values[gap] = null;
+            size--;
+        }
+
+        private void resize(int slots) {
+            long[] oldKeys = keys;
+            Auction[] oldValues = values;
+            keys = new long[slots];
+            values = new Auction[slots];
+
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != AuctionIds.NONE) {
+                    this.place(oldKeys[i], oldValues[i], AuctionStore.mix(oldKeys[i]));
+                }
+            }
+        }
+    }
+}
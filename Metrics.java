@@ -0,0 +1,150 @@
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry of named latency timers and counters for one server, exposed over JMX as auction:type=Metrics,name=ROLE.
+ * Each timer is published as NAME.count, NAME.mean, NAME.p50, NAME.p99 and NAME.max attributes (nanoseconds) and each
+ * counter as NAME. The "dump" operation returns a text snapshot of every metric.
+ *
+ * Look metrics up once and keep the reference. Recording is then a nanoTime call plus an atomic increment.
+ */
+public class Metrics implements DynamicMBean {
+
+    private static final String[] TIMER_STATS = {"count", "mean", "p50", "p99", "max"};
+
+    private final ConcurrentHashMap<String, LatencyRecorder> timers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    /** Creates the registry and registers it with the platform MBean server under the provided role name. **/
+    public Metrics(String role) {
+        try {
+            ObjectName name = new ObjectName("auction:type=Metrics,name=" + role);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.err.println("Metrics could not be registered with JMX.");
+        }
+    }
+
+    /** Returns the timer with the provided name, creating it if needed. **/
+    public LatencyRecorder timer(String name) {
+        return timers.computeIfAbsent(name, k -> new LatencyRecorder());
+    }
+
+    /** Removes the timer with the provided name, e.g. once the replica it times has left the cluster. **/
+    public void removeTimer(String name) {
+        timers.remove(name);
+    }
+
+    /** Returns the counter with the provided name, creating it if needed. **/
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    /** Returns a text snapshot of every metric. Latencies are in microseconds. **/
+    public String dump() {
+        StringBuilder snapshot = new StringBuilder();
+
+        for (Map.Entry<String, LatencyRecorder> timer : new TreeMap<>(timers).entrySet()) {
+            LatencyRecorder recorder = timer.getValue();
+            snapshot.append(String.format("%s count=%d mean=%dus p50=%dus p99=%dus max=%dus%n",
+                    timer.getKey(), recorder.getCount(), recorder.getMean() / 1000,
+                    recorder.getPercentile(50) / 1000, recorder.getPercentile(99) / 1000, recorder.getPercentile(100) / 1000));
+        }
+
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<>(counters).entrySet()) {
+            snapshot.append(counter.getKey()).append('=').append(counter.getValue().sum()).append(System.lineSeparator());
+        }
+        return snapshot.toString();
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        LongAdder counter = counters.get(attribute);
+        if (counter != null) {
+            return counter.sum();
+        }
+
+        int split = attribute.lastIndexOf('.');
+        LatencyRecorder timer = split < 0 ? null : timers.get(attribute.substring(0, split));
+        if (timer == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        switch (attribute.substring(split + 1)) {
+            case "count": return timer.getCount();
+            case "mean":  return timer.getMean();
+            case "p50":   return timer.getPercentile(50);
+            case "p99":   return timer.getPercentile(99);
+            case "max":   return timer.getPercentile(100);
+            default: throw new AttributeNotFoundException(attribute);
+        }
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList values = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                values.add(new Attribute(attribute, this.getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                //--> Unknown attributes are left out of the result as the DynamicMBean contract allows.
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read only.");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        if (actionName.equals("dump")) {
+            return this.dump();
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName), "Unknown operation " + actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        ArrayList<MBeanAttributeInfo> attributes = new ArrayList<>();
+
+        for (String timer : new TreeMap<>(timers).keySet()) {
+            for (String stat : TIMER_STATS) {
+                attributes.add(new MBeanAttributeInfo(timer + "." + stat, "long", timer + " " + stat, true, false, false));
+            }
+        }
+        for (String counter : new TreeMap<>(counters).keySet()) {
+            attributes.add(new MBeanAttributeInfo(counter, "long", counter, true, false, false));
+        }
+
+        MBeanOperationInfo dump = new MBeanOperationInfo("dump", "Text snapshot of every metric.",
+                new MBeanParameterInfo[0], "java.lang.String", MBeanOperationInfo.INFO);
+
+        return new MBeanInfo(Metrics.class.getName(), "Auction system metrics.",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[]{dump}, null);
+    }
+}
@@ -0,0 +1,22 @@
+
+/** Helper methods for monetary amounts. Amounts are held as a primitive long count of pence (minor units). */
+public final class Money {
+
+    private static final long PENCE_PER_POUND = 100;
+
+    private Money() {}
+
+    /** Converts a pounds value entered by a user into pence. Rounds to the nearest penny. **/
+    public static long fromPounds(double pounds) {
+        return Math.round(pounds * PENCE_PER_POUND);
+    }
+
+    /** Returns a human readable pounds String (e.g. "12.05") for the supplied amount of pence. **/
+    public static String format(long pence) {
+        String sign = pence < 0 ? "-" : "";
+        long absolute = Math.abs(pence);
+        long pounds = absolute / PENCE_PER_POUND;
+        long remainder = absolute % PENCE_PER_POUND;
+        return sign + pounds + (remainder < 10 ? ".0" : ".") + remainder;
+    }
+}
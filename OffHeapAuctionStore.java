@@ -0,0 +1,458 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongPredicate;
+
+/**
+ * AuctionStore held outside the Java heap (-Dauction.store=offheap). Each auction is a fixed-layout record in a
+ * direct ByteBuffer, its Strings live in an append-only direct arena and an open-addressing index maps auction IDs to
+ * records. The heap only holds the buffers themselves so millions of auctions add nothing for the GC to trace.
+ * Auctions are materialised on read. As a result Auction objects returned by this store are never identical, so
+ * replace(expected, updated) compares the auctions version and top bid rather than object identity.
+ */
+public class OffHeapAuctionStore implements AuctionStore {
+
+    //--> Record layout.
+    private static final int START_PRICE = 0;
+    private static final int RESERVE = 8;
+    private static final int TOP_BID = 16;
+    private static final int VERSION = 24;
+    private static final int TOP_BIDDER_ID = 32;
+    private static final int SELLER_ID = 36;
+    private static final int NAME_REF = 40;
+    private static final int DESC_REF = 48;
+    private static final int AUCTION_ID = 56;
+    private static final int RECORD_BYTES = 64;
+
+    private static final int RECORDS_PER_CHUNK = 1 << 16;
+    private static final int ARENA_CHUNK_BYTES = 1 << 22;
+    private static final int MIN_INDEX_SLOTS = 1 << 10;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    //--> Records. A freed record is pushed onto 'freeRecords' and reused by the next insert.
+    private final ArrayList<ByteBuffer> recordChunks = new ArrayList<>();
+    private int recordCount;
+    private int[] freeRecords = new int[16];
+    private int freeCount;
+
+    //--> Strings are stored as a 4 byte length then UTF-8 bytes. A reference is the strings offset in the arena.
+    private ArrayList<ByteBuffer> arenaChunks = new ArrayList<>();
+    private int arenaOffset;
+    private long arenaUsedBytes;
+    private long arenaDeadBytes;
+
+    //--> Linear probing index. Each slot is (mixed ID << 32 | record + 1). Zero marks an empty slot.
+    private ByteBuffer index = ByteBuffer.allocateDirect(MIN_INDEX_SLOTS * 8);
+    private int indexMask = MIN_INDEX_SLOTS - 1;
+    private int size;
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Auction get(long auctionID) {
+        lock.readLock().lock();
+        try {
+            int slot = this.findSlot(auctionID);
+            return slot < 0 ? null : this.readRecord(this.recordAt(slot));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Auction put(Auction auction) {
+        lock.writeLock().lock();
+        try {
+            int slot = this.findSlot(auction.getAuctionID());
+            if (slot >= 0) {
+                int record = this.recordAt(slot);
+                Auction previous = this.readRecord(record);
+                this.updateRecord(record, auction);
+                return previous;
+            }
+
+            this.insert(auction);
+            return null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Auction putIfAbsent(Auction auction) {
+        lock.writeLock().lock();
+        try {
+            int slot = this.findSlot(auction.getAuctionID());
+            if (slot >= 0) {
+                return this.readRecord(this.recordAt(slot));
+            }
+
+            this.insert(auction);
+            return null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean replace(Auction expected, Auction updated) {
+        lock.writeLock().lock();
+        try {
+            int slot = this.findSlot(expected.getAuctionID());
+            if (slot < 0 || !this.holds(this.recordAt(slot), expected)) {
+                return false;
+            }
+
+            this.updateRecord(this.recordAt(slot), updated);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Auction remove(long auctionID) {
+        lock.writeLock().lock();
+        try {
+            int slot = this.findSlot(auctionID);
+            if (slot < 0) {
+                return null;
+            }
+
+            int record = this.recordAt(slot);
+            Auction removed = this.readRecord(record);
+            this.delete(slot, record);
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeIf(LongPredicate filter) {
+        lock.writeLock().lock();
+        try {
+            int slot = 0;
+            while (slot <= indexMask) {
+                //--> Deleting shifts a later entry into this slot so check it again before moving on.
+                if (index.getLong(slot * 8) != 0) {
+                    int record = this.recordAt(slot);
+                    if (filter.test(this.record(record).getLong(this.recordOffset(record) + AUCTION_ID))) {
+                        this.delete(slot, record);
+                        continue;
+                    }
+                }
+                slot++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            recordChunks.clear();
+            recordCount = 0;
+            freeCount = 0;
+            arenaChunks = new ArrayList<>();
+            arenaOffset = 0;
+            arenaUsedBytes = 0;
+            arenaDeadBytes = 0;
+            index = ByteBuffer.allocateDirect(MIN_INDEX_SLOTS * 8);
+            indexMask = MIN_INDEX_SLOTS - 1;
+            size = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public ArrayList<Auction> values() {
+        lock.readLock().lock();
+        try {
+            ArrayList<Auction> all = new ArrayList<>(size);
+            for (int slot = 0; slot <= indexMask; slot++) {
+                if (index.getLong(slot * 8) != 0) {
+                    all.add(this.readRecord(this.recordAt(slot)));
+                }
+            }
+            return all;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Returns the index slot holding the provided auction ID or -1 if it isn't stored. **/
+    private int findSlot(long auctionID) {
+        int hash = (int) AuctionStore.mix(auctionID);
+
+        for (int slot = hash & indexMask; ; slot = (slot + 1) & indexMask) {
+            long entry = index.getLong(slot * 8);
+            if (entry == 0) {
+                return -1;
+            }
+            if ((int) (entry >>> 32) == hash) {
+                int record = (int) entry - 1;
+                if (this.record(record).getLong(this.recordOffset(record) + AUCTION_ID) == auctionID) {
+                    return slot;
+                }
+            }
+        }
+    }
+
+    /** Returns the record number held in an occupied index slot. **/
+    private int recordAt(int slot) {
+        return (int) index.getLong(slot * 8) - 1;
+    }
+
+    /** Adds a new auction. The caller holds the write lock and has checked the ID isn't already stored. **/
+    private void insert(Auction auction) {
+        if ((size + 1) * 2 > indexMask + 1) {
+            this.resizeIndex((indexMask + 1) * 2);
+        }
+
+        int record;
+        if (freeCount > 0) {
+            record = freeRecords[--freeCount];
+        } else {
+            record = recordCount++;
+            if (record / RECORDS_PER_CHUNK == recordChunks.size()) {
+                recordChunks.add(ByteBuffer.allocateDirect(RECORDS_PER_CHUNK * RECORD_BYTES));
+            }
+        }
+
+        ByteBuffer chunk = this.record(record);
+        int offset = this.recordOffset(record);
+        chunk.putLong(offset + AUCTION_ID, auction.getAuctionID());
+        chunk.putLong(offset + NAME_REF, this.appendString(auction.getName()));
+        chunk.putLong(offset + DESC_REF, this.appendString(auction.getAuctionDesc()));
+        chunk.putLong(offset + START_PRICE, auction.getStartPrice());
+        chunk.putLong(offset + RESERVE, auction.getReserve());
+        chunk.putInt(offset + SELLER_ID, auction.getSellerID());
+        this.writeBidState(chunk, offset, auction);
+
+        this.placeInIndex((int) AuctionStore.mix(auction.getAuctionID()), record);
+        size++;
+    }
+
+    /** Overwrites a stored auction. Strings are only appended again if they have changed. **/
+    private void updateRecord(int record, Auction auction) {
+        ByteBuffer chunk = this.record(record);
+        int offset = this.recordOffset(record);
+
+        long nameRef = chunk.getLong(offset + NAME_REF);
+        if (!this.stringEquals(nameRef, auction.getName().getBytes(StandardCharsets.UTF_8))) {
+            this.releaseString(nameRef);
+            chunk.putLong(offset + NAME_REF, this.appendString(auction.getName()));
+        }
+
+        long descRef = chunk.getLong(offset + DESC_REF);
+        if (!this.stringEquals(descRef, auction.getAuctionDesc().getBytes(StandardCharsets.UTF_8))) {
+            this.releaseString(descRef);
+            chunk.putLong(offset + DESC_REF, this.appendString(auction.getAuctionDesc()));
+        }
+
+        chunk.putLong(offset + START_PRICE, auction.getStartPrice());
+        chunk.putLong(offset + RESERVE, auction.getReserve());
+        chunk.putInt(offset + SELLER_ID, auction.getSellerID());
+        this.writeBidState(chunk, offset, auction);
+        this.compactArenaIfSparse();
+    }
+
+    /** Writes the fields a bid changes. **/
+    private void writeBidState(ByteBuffer chunk, int offset, Auction auction) {
+        chunk.putLong(offset + TOP_BID, auction.getTopBid());
+        chunk.putInt(offset + TOP_BIDDER_ID, auction.getTopBidderID());
+        chunk.putLong(offset + VERSION, auction.getVersion());
+    }
+
+    /** Returns true if the stored record is the provided auction (same version and top bid). **/
+    private boolean holds(int record, Auction auction) {
+        ByteBuffer chunk = this.record(record);
+        int offset = this.recordOffset(record);
+        return chunk.getLong(offset + VERSION) == auction.getVersion()
+                && chunk.getLong(offset + TOP_BID) == auction.getTopBid()
+                && chunk.getInt(offset + TOP_BIDDER_ID) == auction.getTopBidderID();
+    }
+
+    /** Builds an Auction from a stored record. **/
+    private Auction readRecord(int record) {
+        ByteBuffer chunk = this.record(record);
+        int offset = this.recordOffset(record);
+        return new Auction(
+                this.readString(chunk.getLong(offset + NAME_REF)),
+                chunk.getLong(offset + START_PRICE),
+                chunk.getLong(offset + RESERVE),
+                this.readString(chunk.getLong(offset + DESC_REF)),
+                chunk.getInt(offset + SELLER_ID),
+                chunk.getLong(offset + AUCTION_ID),
+                chunk.getLong(offset + TOP_BID),
+                chunk.getInt(offset + TOP_BIDDER_ID),
+                chunk.getLong(offset + VERSION));
+    }
+
+    /** Removes the record in the provided slot, closing the gap in the probe sequence. **/
+    private void delete(int slot, int record) {
+        ByteBuffer chunk = this.record(record);
+        int offset = this.recordOffset(record);
+        this.releaseString(chunk.getLong(offset + NAME_REF));
+        this.releaseString(chunk.getLong(offset + DESC_REF));
+
+        if (freeCount == freeRecords.length) {
+            int[] grown = new int[freeRecords.length * 2];
+            System.arraycopy(freeRecords, 0, grown, 0, freeCount);
+            freeRecords = grown;
+        }
+        freeRecords[freeCount++] = record;
+
+        //--> Backward shift deletion. Moves later entries of the same probe run up so no tombstones are needed.
+        int gap = slot;
+        for (int next = (gap + 1) & indexMask; ; next = (next + 1) & indexMask) {
+            long entry = index.getLong(next * 8);
+            if (entry == 0) {
+                break;
+            }
+
+            int home = (int) (entry >>> 32) & indexMask;
+            boolean canMove = gap <= next ? (home <= gap || home > next) : (home <= gap && home > next);
+            if (canMove) {
+                index.putLong(gap * 8, entry);
+                gap = next;
+            }
+        }
+        index.putLong(gap * 8, 0);
+        size--;
+
+        this.compactArenaIfSparse();
+    }
+
+    /** Rebuilds the index with the provided number of slots. **/
+    private void resizeIndex(int slots) {
+        ByteBuffer old = index;
+        int oldSlots = indexMask + 1;
+
+        index = ByteBuffer.allocateDirect(slots * 8);
+        indexMask = slots - 1;
+
+        for (int slot = 0; slot < oldSlots; slot++) {
+            long entry = old.getLong(slot * 8);
+            if (entry != 0) {
+                this.placeInIndex((int) (entry >>> 32), (int) entry - 1);
+            }
+        }
+    }
+
+    /** Puts a record in the first free slot of its probe sequence. **/
+    private void placeInIndex(int hash, int record) {
+        int slot = hash & indexMask;
+        while (index.getLong(slot * 8) != 0) {
+            slot = (slot + 1) & indexMask;
+        }
+        index.putLong(slot * 8, ((long) hash << 32) | (record + 1L));
+    }
+
+    private ByteBuffer record(int record) {
+        return recordChunks.get(record / RECORDS_PER_CHUNK);
+    }
+
+    private int recordOffset(int record) {
+        return (record % RECORDS_PER_CHUNK) * RECORD_BYTES;
+    }
+
+    /** Copies a String into the arena and returns its reference. Strings never span two arena chunks. **/
+    private long appendString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = 4 + bytes.length;
+
+        //--> A String larger than a chunk gets a chunk of its own.
+        if (arenaChunks.isEmpty() || arenaOffset + length > arenaChunks.get(arenaChunks.size() - 1).capacity()) {
+            arenaChunks.add(ByteBuffer.allocateDirect(Math.max(ARENA_CHUNK_BYTES, length)));
+            arenaOffset = 0;
+        }
+
+        ByteBuffer chunk = arenaChunks.get(arenaChunks.size() - 1);
+        chunk.putInt(arenaOffset, bytes.length);
+        for (int i = 0; i < bytes.length; i++) {
+            chunk.put(arenaOffset + 4 + i, bytes[i]);
+        }
+
+        long ref = (long) (arenaChunks.size() - 1) * ARENA_CHUNK_BYTES + arenaOffset;
+        arenaOffset += length;
+        arenaUsedBytes += length;
+        return ref;
+    }
+
+    /** Reads a String from the arena. **/
+    private String readString(long ref) {
+        return this.readString(arenaChunks, ref);
+    }
+
+    /** Reads a String from the provided arena chunks. **/
+    private String readString(ArrayList<ByteBuffer> arena, long ref) {
+        ByteBuffer chunk = arena.get((int) (ref / ARENA_CHUNK_BYTES));
+        int offset = (int) (ref % ARENA_CHUNK_BYTES);
+        byte[] bytes = new byte[chunk.getInt(offset)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = chunk.get(offset + 4 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Compares a stored String with the provided UTF-8 bytes without building a String. **/
+    private boolean stringEquals(long ref, byte[] bytes) {
+        ByteBuffer chunk = arenaChunks.get((int) (ref / ARENA_CHUNK_BYTES));
+        int offset = (int) (ref % ARENA_CHUNK_BYTES);
+        if (chunk.getInt(offset) != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (chunk.get(offset + 4 + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Records that a String is no longer referenced. Its space is reclaimed by the next compaction. **/
+    private void releaseString(long ref) {
+        ByteBuffer chunk = arenaChunks.get((int) (ref / ARENA_CHUNK_BYTES));
+        arenaDeadBytes += 4 + chunk.getInt((int) (ref % ARENA_CHUNK_BYTES));
+    }
+
+    /** Copies live Strings into a fresh arena once over half of the arena is unreferenced. **/
+    private void compactArenaIfSparse() {
+        if (arenaDeadBytes < ARENA_CHUNK_BYTES || arenaDeadBytes * 2 < arenaUsedBytes) {
+            return;
+        }
+
+        ArrayList<ByteBuffer> oldChunks = arenaChunks;
+        arenaChunks = new ArrayList<>();
+        arenaOffset = 0;
+        arenaUsedBytes = 0;
+        arenaDeadBytes = 0;
+
+        for (int slot = 0; slot <= indexMask; slot++) {
+            if (index.getLong(slot * 8) == 0) {
+                continue;
+            }
+
+            int record = this.recordAt(slot);
+            ByteBuffer chunk = this.record(record);
+            int offset = this.recordOffset(record);
+            chunk.putLong(offset + NAME_REF, this.appendString(this.readString(oldChunks, chunk.getLong(offset + NAME_REF))));
+            chunk.putLong(offset + DESC_REF, this.appendString(this.readString(oldChunks, chunk.getLong(offset + DESC_REF))));
+        }
+    }
+}
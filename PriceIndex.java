@@ -0,0 +1,92 @@
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.ToLongFunction;
+
+/**
+ * Concurrent ordered index of auction IDs by a price (e.g. top bid or start price). Entries are held in a skip list
+ * ordered by price then auction ID so a price range is found in O(log n) and walked in order. A replica refreshes an
+ * auctions entry after every change to it. Entries may go stale if an auction leaves the store without a refresh, so
+ * readers check each auction against the store.
+ */
+public class PriceIndex {
+
+    private final ToLongFunction<Auction> price;
+    private final ConcurrentSkipListSet<Entry> entries = new ConcurrentSkipListSet<>();
+
+    //--> Price each auction is currently indexed under so the old entry can be found when it changes.
+    private final ConcurrentHashMap<Long, Long> indexedPrices = new ConcurrentHashMap<>();
+
+    public PriceIndex(ToLongFunction<Auction> price) {
+        this.price = price;
+    }
+
+    /**
+     * Re-indexes an auction from the stores current copy, removing it if the store no longer holds it. The store is
+     * read under a per-auction lock so concurrent refreshes leave the index matching the latest copy.
+     */
+    public void refresh(long auctionID, AuctionStore store) {
+        indexedPrices.compute(auctionID, (id, oldPrice) -> {
+            Auction current = store.get(auctionID);
+            Long newPrice = current == null ? null : price.applyAsLong(current);
+
+            if (oldPrice != null && !oldPrice.equals(newPrice)) {
+                entries.remove(new Entry(oldPrice, auctionID));
+            }
+            if (newPrice != null) {
+                entries.add(new Entry(newPrice, auctionID));
+            }
+            return newPrice;
+        });
+    }
+
+    /** Returns true if the auction is held with the price it was indexed under, i.e. the entry isn't stale. **/
+    public boolean isCurrent(Auction auction, long indexedPrice) {
+        return auction != null && price.applyAsLong(auction) == indexedPrice;
+    }
+
+    /** Returns the entries with a price from 'minPrice' to 'maxPrice' inclusive, lowest or highest price first. **/
+    public Iterator<Entry> range(long minPrice, long maxPrice, boolean ascending) {
+        NavigableSet<Entry> range = entries.subSet(new Entry(minPrice, Long.MIN_VALUE), true, new Entry(maxPrice, Long.MAX_VALUE), true);
+        return ascending ? range.iterator() : range.descendingIterator();
+    }
+
+    /** Removes every entry. **/
+    public void clear() {
+        indexedPrices.clear();
+        entries.clear();
+    }
+
+    /** An indexed auction. Ordered by price then auction ID. **/
+    public static final class Entry implements Comparable<Entry> {
+
+        private final long price;
+        private final long auctionID;
+
+        Entry(long price, long auctionID) {
+            this.price = price;
+            this.auctionID = auctionID;
+        }
+
+        public long getPrice() { return price; }
+
+        public long getAuctionID() { return auctionID; }
+
+        @Override
+        public int compareTo(Entry other) {
+            int byPrice = Long.compare(price, other.price);
+            return byPrice != 0 ? byPrice : Long.compare(auctionID, other.auctionID);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Entry && this.compareTo((Entry) other) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(price) * 31 + Long.hashCode(auctionID);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Token bucket rate limiter keyed by caller and method. Each bucket holds up to 'burst' tokens and refills at 'rate'
+ * tokens per second; a call takes one token or is rejected. Buckets are split across lock stripes by key hash so
+ * callers only contend with others on the same stripe. Full buckets are dropped when a stripe grows too large, as a
+ * new bucket starts full anyway.
+ */
+public class RateLimiter {
+
+    private static final int STRIPES = 64;
+
+    //--> Buckets a stripe holds before idle (full) buckets are swept out.
+    private static final int SWEEP_THRESHOLD = 4096;
+
+    private final double ratePerNano;
+    private final double burst;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    public RateLimiter(double ratePerSecond, double burst) {
+        this.ratePerNano = ratePerSecond / 1e9;
+        this.burst = Math.max(1, burst);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /** Takes a token from the callers bucket for the method. Returns false if the bucket is empty. **/
+    public boolean tryAcquire(String caller, String method) {
+        String key = caller + '|' + method;
+        Stripe stripe = stripes[(key.hashCode() & 0x7fffffff) % STRIPES];
+        long now = System.nanoTime();
+
+        synchronized (stripe) {
+            Bucket bucket = stripe.buckets.get(key);
+            if (bucket == null) {
+                if (stripe.buckets.size() >= SWEEP_THRESHOLD) {
+                    this.sweep(stripe, now);
+                }
+                bucket = new Bucket(burst, now);
+                stripe.buckets.put(key, bucket);
+            }
+
+            this.refill(bucket, now);
+            if (bucket.tokens < 1) {
+                return false;
+            }
+            bucket.tokens--;
+            return true;
+        }
+    }
+
+    /** Gives back a token taken by tryAcquire, e.g. when the call was then rejected for another reason. **/
+    public void refund(String caller, String method) {
+        String key = caller + '|' + method;
+        Stripe stripe = stripes[(key.hashCode() & 0x7fffffff) % STRIPES];
+
+        synchronized (stripe) {
+            Bucket bucket = stripe.buckets.get(key);
+            if (bucket != null) {
+                bucket.tokens = Math.min(burst, bucket.tokens + 1);
+            }
+        }
+    }
+
+    /** Adds the tokens earned since the bucket was last refilled, up to 'burst'. **/
+    private void refill(Bucket bucket, long now) {
+        bucket.tokens = Math.min(burst, bucket.tokens + (now - bucket.refilled) * ratePerNano);
+        bucket.refilled = now;
+    }
+
+    /** Drops buckets that have refilled completely. Called with the stripe lock held. **/
+    private void sweep(Stripe stripe, long now) {
+        Iterator<Bucket> buckets = stripe.buckets.values().iterator();
+        while (buckets.hasNext()) {
+            Bucket bucket = buckets.next();
+            this.refill(bucket, now);
+            if (bucket.tokens >= burst) {
+                buckets.remove();
+            }
+        }
+    }
+
+    private static final class Stripe {
+        private final HashMap<String, Bucket> buckets = new HashMap<>();
+    }
+
+    private static final class Bucket {
+        private double tokens;
+        private long refilled;
+
+        Bucket(double tokens, long refilled) {
+            this.tokens = tokens;
+            this.refilled = refilled;
+        }
+    }
+}
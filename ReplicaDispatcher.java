@@ -0,0 +1,120 @@
+import org.jgroups.JChannel;
+import org.jgroups.Message;
+import org.jgroups.blocks.Marshaller;
+import org.jgroups.blocks.MethodCall;
+import org.jgroups.blocks.Response;
+import org.jgroups.blocks.RpcDispatcher;
+import org.jgroups.util.Util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+/**
+ * RpcDispatcher that hands read-only RPCs to an ExecutionMode executor so they no longer occupy a JGroups pool thread.
+ * A semaphore bounds how many handlers run at once. Its permit is taken before the hand-off so the cached platform
+ * pool never holds more threads than permits. Writes still run on the delivering JGroups thread so writes from one
+ * sender are applied in the order they were sent. Different senders (e.g. other front-ends) are delivered
+ * concurrently, and the front-end only keeps writes to the same auction in order (see callReplicasInOrder). A method may return a CompletableFuture, in
+ * which case the reply is sent when it completes rather than when the method returns. Replies are sized up front so a
+ * pre-serialized byte[] response is copied once into an exactly sized buffer instead of a growing one.
+ */
+public class ReplicaDispatcher extends RpcDispatcher {
+
+    private final Set<String> readMethods;
+    private final ExecutorService executor = ExecutionMode.newExecutor();
+    private final Semaphore permits;
+
+    public ReplicaDispatcher(JChannel channel, Object serverObject, Set<String> readMethods, int maxConcurrentHandlers) {
+        super(channel, serverObject);
+        this.readMethods = readMethods;
+        this.permits = new Semaphore(maxConcurrentHandlers);
+        this.asyncDispatching(true);
+        this.setMarshaller(new PreSizedMarshaller());
+    }
+
+    /** Invokes the requested method inline for writes or on the executor for reads. Sends the result when done. **/
+    @Override
+    public void handle(Message request, Response response) throws Exception {
+        MethodCall call = methodCallFromBuffer(request.getRawBuffer(), request.getOffset(), request.getLength(), marshaller);
+
+        if (!readMethods.contains(call.getMethodName())) {
+            this.invoke(call, response);
+            return;
+        }
+
+        //--> Taken before handing off so a burst of reads waits here instead of piling up blocked pool threads.
+        permits.acquireUninterruptibly();
+        try {
+            executor.execute(() -> {
+                try {
+                    this.invoke(call, response);
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /** Invokes the call on the server object. Exceptions are sent back to the caller. **/
+    private void invoke(MethodCall call, Response response) {
+        if (response == null) {
+            //--> Caller isn't waiting for a response (e.g. ResponseMode.GET_NONE).
+            try {
+                call.invoke(server_obj);
+            } catch (Throwable t) {
+                t.printStackTrace();
+            }
+            return;
+        }
+
+        try {
+            Object result = call.invoke(server_obj);
+            if (result instanceof CompletableFuture) {
+                //--> Reply once the result is ready without holding this thread (e.g. a semi-synchronous leader write).
+                ((CompletableFuture<?>) result).whenComplete((value, error) -> {
+                    if (error == null) {
+                        response.send(value, false);
+                    } else {
+                        response.send(error, true);
+                    }
+                });
+            } else {
+                response.send(result, false);
+            }
+        } catch (Throwable t) {
+            response.send(t, true);
+        }
+    }
+
+    /**
+     * Default JGroups wire format, so callers without a marshaller can still read the replies. Only the buffer size
+     * estimate differs. The default estimate is small so large byte[] replies were copied repeatedly as it grew.
+     */
+    private static class PreSizedMarshaller implements Marshaller {
+
+        private static final int HEADER_BYTES = 16;
+
+        @Override
+        public int estimatedSize(Object arg) {
+            return arg instanceof byte[] ? ((byte[]) arg).length + HEADER_BYTES : HEADER_BYTES * 4;
+        }
+
+        @Override
+        public void objectToStream(Object obj, DataOutput out) throws IOException {
+            Util.objectToStream(obj, out);
+        }
+
+        @Override
+        public Object objectFromStream(DataInput in) throws IOException, ClassNotFoundException {
+            return Util.objectFromStream(in);
+        }
+    }
+}
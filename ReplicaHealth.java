@@ -0,0 +1,158 @@
+import org.jgroups.Address;
+import org.jgroups.MembershipListener;
+import org.jgroups.View;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks the health of each replica as seen by the AuctionServer. A replica is excluded from fan-out as soon as it is
+ * suspected by the failure detector, or once it has failed to answer several RPCs in a row or been much slower than
+ * its peers for several responses in a row. One late response or a GC pause doesn't exclude a healthy replica.
+ * Excluded replicas stay out until the AuctionServer has probed them and brought their state up to date.
+ */
+public class ReplicaHealth implements MembershipListener {
+
+    //--> Weight given to the newest latency sample in the moving average.
+    private static final double EWMA_WEIGHT = 0.2;
+
+    //--> Consecutive slow responses, or consecutive failures, before a replica is excluded.
+    private static final int SLOW_STREAK = 8;
+    private static final int FAILURE_STREAK = 3;
+
+    private final ConcurrentHashMap<Address, ReplicaStats> stats = new ConcurrentHashMap<>();
+    private final double slowFactor;
+    private final long slowFloorNanos;
+
+    /**
+     * A replica is slow if its average latency is more than slowFactor times the median of its peers and above
+     * slowFloorMillis (so a cluster of fast replicas doesn't exclude one that is merely the slowest).
+     */
+    public ReplicaHealth(double slowFactor, long slowFloorMillis) {
+        this.slowFactor = slowFactor;
+        this.slowFloorNanos = slowFloorMillis * 1_000_000;
+    }
+
+    /** Returns the healthy members of the provided list. If none are healthy all are returned rather than none. **/
+    public ArrayList<Address> filterHealthy(Collection<Address> members) {
+        ArrayList<Address> healthy = new ArrayList<>(members.size());
+        for (Address member : members) {
+            if (!this.isExcluded(member)) {
+                healthy.add(member);
+            }
+        }
+        return healthy.isEmpty() ? new ArrayList<>(members) : healthy;
+    }
+
+    /** Returns true if the replica is currently excluded from fan-out. **/
+    public boolean isExcluded(Address member) {
+        ReplicaStats replica = stats.get(member);
+        return replica != null && replica.excluded;
+    }
+
+    /** Returns all currently excluded replicas. **/
+    public List<Address> getExcluded() {
+        ArrayList<Address> excluded = new ArrayList<>();
+        stats.forEach((member, replica) -> {
+            if (replica.excluded) {
+                excluded.add(member);
+            }
+        });
+        return excluded;
+    }
+
+    /** Records the latency of a response and excludes the replica if it has stayed much slower than its peers. **/
+    public void recordResponse(Address member, long nanos) {
+        ReplicaStats replica = stats.computeIfAbsent(member, k -> new ReplicaStats());
+
+        double average;
+        synchronized (replica) {
+            replica.averageNanos = replica.averageNanos == 0 ? nanos : EWMA_WEIGHT * nanos + (1 - EWMA_WEIGHT) * replica.averageNanos;
+            replica.failures = 0;
+            average = replica.averageNanos;
+        }
+
+        boolean slow = average > slowFloorNanos && average > slowFactor * this.medianPeerAverage(member);
+        int streak;
+        synchronized (replica) {
+            replica.slowResponses = slow ? replica.slowResponses + 1 : 0;
+            streak = replica.slowResponses;
+        }
+        if (streak >= SLOW_STREAK) {
+            this.exclude(member, "slow");
+        }
+    }
+
+    /** Records that the replica didn't answer (timed out or threw) and excludes it after several in a row. **/
+    public void recordFailure(Address member) {
+        ReplicaStats replica = stats.computeIfAbsent(member, k -> new ReplicaStats());
+        int streak;
+        synchronized (replica) {
+            streak = ++replica.failures;
+        }
+        if (streak >= FAILURE_STREAK) {
+            this.exclude(member, "no response");
+        }
+    }
+
+    /** Called by JGroups when the failure detector suspects a member. **/
+    @Override
+    public void suspect(Address member) {
+        this.exclude(member, "suspected");
+    }
+
+    /** Forgets replicas that have left the view. Replicas that join start healthy as they fetch state on start. **/
+    @Override
+    public void viewAccepted(View view) {
+        stats.keySet().retainAll(view.getMembers());
+    }
+
+    /** Lets a replica back into fan-out. Called once it has been caught up. **/
+    public void readmit(Address member) {
+        ReplicaStats replica = stats.get(member);
+        if (replica != null) {
+            synchronized (replica) {
+                replica.excluded = false;
+                replica.averageNanos = 0;
+                replica.slowResponses = 0;
+                replica.failures = 0;
+            }
+            AsyncLog.info("frontend.replicaReadmitted", "replica", member);
+        }
+    }
+
+    private void exclude(Address member, String reason) {
+        ReplicaStats replica = stats.computeIfAbsent(member, k -> new ReplicaStats());
+        if (!replica.excluded) {
+            replica.excluded = true;
+            AsyncLog.warn("frontend.replicaExcluded", "replica", member, "reason", reason);
+        }
+    }
+
+    /** Median moving-average latency of the other healthy replicas. Zero if there are none. **/
+    private double medianPeerAverage(Address member) {
+        ArrayList<Double> averages = new ArrayList<>();
+        stats.forEach((peer, replica) -> {
+            if (!peer.equals(member) && !replica.excluded && replica.averageNanos > 0) {
+                averages.add(replica.averageNanos);
+            }
+        });
+
+        if (averages.isEmpty()) {
+            return Double.MAX_VALUE;
+        }
+        Collections.sort(averages);
+        return averages.get(averages.size() / 2);
+    }
+
+    /** Per-replica health state. **/
+    private static class ReplicaStats {
+        private volatile double averageNanos;
+        private volatile boolean excluded;
+        private int slowResponses;
+        private int failures;
+    }
+}
@@ -1,104 +1,637 @@
 
 import org.jgroups.Address;
 import org.jgroups.JChannel;
+import org.jgroups.MembershipListener;
+import org.jgroups.MergeView;
 import org.jgroups.View;
+import org.jgroups.blocks.MethodCall;
 import org.jgroups.blocks.RequestOptions;
 import org.jgroups.blocks.ResponseMode;
 import org.jgroups.blocks.RpcDispatcher;
 import org.jgroups.util.RspList;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 /** Maintains a consistent view of the auction data. */
-public class ReplicatedServer {
+public class ReplicatedServer implements MembershipListener {
 
-    private ConcurrentHashMap<String, Auction> auctions = new ConcurrentHashMap<>();
+    //--> RPCs that don't modify state. These may run concurrently off the JGroups delivery thread.
+    private static final Set<String> READ_METHODS = new HashSet<>(Arrays.asList(
+            "showActive", "showActiveBytes", "showAuction", "showAuctionBytes", "searchTop", "searchTopBytes",
+            "sellerAuctions", "browse", "query", "getAuction", "getAuctions", "getState", "getClosed", "getUsers", "ping",
+            "mergeDigest", "mergeFingerprints", "getSettlement", "sellerSettlements",
+            "settledBetween"));
+
+    //--> Buckets per owner group in a merge digest. Only buckets whose hashes differ are compared auction by auction.
+    private static final int MERGE_BUCKETS = 256;
+
+    //--> Attempts to hand auctions over to a new owner before keeping them instead.
+    private static final int HANDOVER_ATTEMPTS = 3;
+
+    //--> Attempts to fetch a majority state on start, and the pause between them, before relying on repair instead.
+    private static final int STATE_ATTEMPTS = 3;
+    private static final long STATE_RETRY_MILLIS = 200;
+
+    //--> Fingerprint of a closed auction in a merge digest. Live auctions use their non-negative data hash.
+    private static final long CLOSED = -1;
+
+    //--> Keyed by primitive auction ID. Off-heap for very large catalogues so held auctions don't add to GC work.
+    private AuctionStore auctions = ClusterConfig.isOffHeapStore() ? new OffHeapAuctionStore() : new LongAuctionMap();
+    private UserDirectory users = new UserDirectory();
+    private SellerIndex sellers = new SellerIndex();
+    private PriceIndex topBids = new PriceIndex(Auction::getTopBid);
+    private PriceIndex startPrices = new PriceIndex(Auction::getStartPrice);
+
+    //--> Settlements of the auctions closed here. Closed auctions leave 'auctions' entirely.
+    private SettlementArchive settled = new SettlementArchive();
+
+    //--> Close time of recently closed auctions by ID. Closes are sticky: a copy from elsewhere can't bring one back.
+    private ConcurrentHashMap<Long, Long> closed = new ConcurrentHashMap<>();
+
+    //--> Results of applied writes by client request ID so replayed requests aren't applied twice.
+    private DedupCache<Object> applied = DedupCache.fromConfig();
+
+    //--> Incremented on every change to 'auctions'. Readers share one snapshot per version instead of copying the map.
+    private AtomicLong catalogVersion = new AtomicLong();
+    private volatile CatalogSnapshot snapshot = new CatalogSnapshot(0, new ArrayList<>());
     private JChannel channel;
     private RpcDispatcher dispatcher;
+    private volatile ShardRouter router;
+
+    //--> Owners per auction. Read up front so an even factor stops the replica before it joins the cluster.
+    private final int replicationFactor = ClusterConfig.getReplicationFactor();
+
+    //--> Hot-path instrumentation. Exposed over JMX as auction:type=Metrics,name=replica.
+    private Metrics metrics = new Metrics("replica");
+    private LatencyRecorder bidLatency = metrics.timer("replica.bid");
+    private LatencyRecorder createAuctionLatency = metrics.timer("replica.createAuction");
+    private LatencyRecorder createAuctionsLatency = metrics.timer("replica.createAuctions");
+    private LatencyRecorder closeAuctionLatency = metrics.timer("replica.closeAuction");
+    private LatencyRecorder showActiveLatency = metrics.timer("replica.showActive");
+    private LatencyRecorder showAuctionLatency = metrics.timer("replica.showAuction");
+    private LatencyRecorder searchTopLatency = metrics.timer("replica.searchTop");
+    private LatencyRecorder sellerAuctionsLatency = metrics.timer("replica.sellerAuctions");
+    private LatencyRecorder browseLatency = metrics.timer("replica.browse");
+    private LatencyRecorder queryLatency = metrics.timer("replica.query");
+    private LongAdder replayedWrites = metrics.counter("replica.replayedWrites");
+    private LongAdder mergeConflicts = metrics.counter("replica.merge.conflicts");
+    private LongAdder mergeShipped = metrics.counter("replica.merge.shipped");
+    private LatencyRecorder mergeLatency = metrics.timer("replica.merge");
 
     /**
      * Closes the auction associated with the provided auctionID providing that the auction was created
-     * by the user specified by the provided username.
+     * by the user specified by the provided seller ID. Returns its settlement, or null if it wasn't closed.
+     * A replayed request ID returns the original settlement.
      */
-    public Auction closeAuction(String auctionID, String username) {
+    public Settlement closeAuction(String requestID, long auctionID, int sellerID) {
 
-        System.out.println(">> Replica closing auction.");
-        System.out.println("------------------------------------------------------------->");
+        long start = System.nanoTime();
+        try {
+            AsyncLog.info("replica.closeAuction", "requestID", requestID, "auctionID", auctionID, "sellerID", sellerID);
+            return this.applyOnce(requestID, () -> this.applyClose(auctionID, sellerID));
+        } finally {
+            closeAuctionLatency.record(System.nanoTime() - start);
+        }
+    }
 
-        //--> Remove auction and return the removed Auction object so that the winner information can be printed client-side.
+    /** Removes the auction if it was created by the seller and archives its settlement. Returns the settlement or null. **/
+    private Settlement applyClose(long auctionID, int sellerID) {
+        //--> Settle here so that only the outcome, not the whole auction, goes back to the client.
         Auction auction = auctions.get(auctionID);
         if (auction == null) {
             return null;
-        } else if (username.equals(auction.getSellerDetails().getName())) {
-            return auctions.remove(auctionID);
+        } else if (sellerID == auction.getSellerID()) {
+            Settlement settlement = Settlement.of(auctions.remove(auctionID));
+            this.settle(settlement);
+            return settlement;
         } else {
             //--> If null returned, print out error message on client side.
             return null;
         }
     }
 
-    /** Allows user to bid on an item. **/
-    public String bid(String auctionID, UserDetails bidder, double amount) throws RemoteException {
+    /** Allows user to bid on an item. A replayed request ID returns the original response. **/
+    public String bid(String requestID, long auctionID, int bidderID, long amount) throws RemoteException {
 
-        System.out.println(">> Replica updating bid value and top bidder.");
-        System.out.println("------------------------------------------------------------->");
-        Auction targetAuction = auctions.get(auctionID);
+        long start = System.nanoTime();
+        try {
+            AsyncLog.info("replica.bid", "requestID", requestID, "auctionID", auctionID, "bidderID", bidderID, "amount", amount);
+            return this.applyOnce(requestID, () -> this.applyBid(auctionID, bidderID, amount));
+        } finally {
+            bidLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    /** Applies the bid if it beats the current top bid. Returns the response code for the client. **/
+    private String applyBid(long auctionID, int bidderID, long amount) {
+        //--> Auctions are immutable. Swap in a copy with the new bid, retrying if another bid got there first.
+        while (true) {
+            Auction targetAuction = auctions.get(auctionID);
+
+            //--> If auction doesn't exist -> Return error message for client to print.
+            if (targetAuction == null) {
+                return "1";
+            }
 
-        //--> If auction doesn't exist -> Return error message for client to print.
-        if (targetAuction == null) {
-            return "1";
+            //--> Let the client know that the bid was rejected as it is lower than the current active bid.
+            if (amount <= targetAuction.getTopBid()) {
+                return "3";
+            }
+
+            //--> Bid is greater than current top bid -> set user as new top bidder and update top bid.
+            if (auctions.replace(targetAuction, targetAuction.withBid(amount, bidderID))) {
+                this.reindex(auctionID);
+                this.catalogChanged();
+                return "2";
+            }
         }
+    }
 
-        //--> If auction exists and bid is greater than current top bid -> set user as new top bidder and update top bid.
-        if (amount > targetAuction.getTopBid()) {
-            targetAuction.setTopBid(amount);
-            targetAuction.setTopBidder(bidder);
-            return "2";
+    /**
+     * Returns the result recorded for the request ID if it has been applied before, otherwise applies the write and
+     * records its result. JGroups delivers one senders messages in order, one at a time, so a request can't race a
+     * replay of itself from the same sender. Messages from different senders are delivered concurrently so the writes
+     * themselves must still be safe to apply twice (see applyCreate).
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T applyOnce(String requestID, Supplier<T> write) {
+        DedupCache.Result<Object> replayed = applied.get(requestID);
+        if (replayed != null) {
+            replayedWrites.increment();
+            AsyncLog.info("replica.replayedWrite", "requestID", requestID);
+            return (T) replayed.getValue();
         }
 
-        //--> Else let the client know that the bid was rejected as it is lower than the current active bid.
-        return "3";
+        T result = write.get();
+        applied.put(requestID, result);
+        return result;
     }
 
-    /** Creates a new auction and adds it to the AuctionServer. **/
-    public String createAuction(String name, double startPrice, double reserve, String desc, UserDetails userDetails, String auctionID) throws RemoteException {
+    /**
+     * Leader write mode. Applies the bid then replicates the updated auction to the other owners. The leader* methods
+     * return a future so a semi-synchronous leader can wait for a follower without holding up the delivery thread,
+     * and with it every later write. The reply is sent when the future completes (see ReplicaDispatcher).
+     */
+    public CompletableFuture<String> leaderBid(String requestID, long auctionID, int bidderID, long amount) throws RemoteException {
+        String result = this.bid(requestID, auctionID, bidderID, amount);
 
+        if (result.equals("2")) {
+            //--> May already include a later bid. Followers keep whichever version is highest.
+            Auction auction = auctions.get(auctionID);
+            if (auction != null) {
+                return this.replicate(auctionID, "applyAuction", auction, Auction.class).thenApply(acknowledged -> result);
+            }
+        }
+        return CompletableFuture.completedFuture(result);
+    }
+
+    /** Leader write mode. Creates the auction then replicates it to the other owners. **/
+    public CompletableFuture<Long> leaderCreateAuction(String requestID, String name, long startPrice, long reserve, String desc, int sellerID, long auctionID) throws RemoteException {
+        long result = this.createAuction(requestID, name, startPrice, reserve, desc, sellerID, auctionID);
+
+        //--> Gone if a replayed create reached an auction that has since been closed. Its settlement reaches followers instead.
+        Auction auction = auctions.get(auctionID);
+        if (auction != null) {
+            return this.replicate(auctionID, "applyAuction", auction, Auction.class).thenApply(acknowledged -> result);
+        }
+        return CompletableFuture.completedFuture(result);
+    }
+
+    /** Leader write mode. Closes the auction then sends its settlement to the other owners. **/
+    public CompletableFuture<Settlement> leaderCloseAuction(String requestID, long auctionID, int sellerID) {
+        Settlement settlement = this.closeAuction(requestID, auctionID, sellerID);
+        if (settlement != null) {
+            return this.replicate(auctionID, "settle", settlement, Settlement.class).thenApply(acknowledged -> settlement);
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /** Sends a write applied by this leader to the auctions other owners. See sendToFollowers. **/
+    private CompletableFuture<Void> replicate(long auctionID, String method, Object argument, Class<?> type) {
+        ArrayList<Address> followers = router.getOwners(auctionID);
+        followers.remove(channel.getAddress());
+        return this.sendToFollowers(followers, new MethodCall(method, new Object[]{argument}, new Class<?>[]{type}));
+    }
+
+    /**
+     * Sends a write to followers. Asynchronous replication doesn't wait for followers so the future is already
+     * complete. With semi-synchronous replication it completes once the first follower has applied the write or the
+     * RPC timeout has passed. Sending happens before returning so followers receive writes in the order applied.
+     * The future never completes exceptionally: failures are printed and the leaders result stands.
+     */
+    private CompletableFuture<Void> sendToFollowers(Collection<Address> followers, MethodCall call) {
+        if (followers.size() == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        try {
+            if (!ClusterConfig.isSemiSyncReplication()) {
+                dispatcher.callRemoteMethods(followers, call, new RequestOptions(ResponseMode.GET_NONE, 0));
+                return CompletableFuture.completedFuture(null);
+            }
+
+            RequestOptions replicationOptions = new RequestOptions(ResponseMode.GET_FIRST, ClusterConfig.getRpcTimeout());
+            CompletableFuture<RspList<Object>> acknowledged = dispatcher.callRemoteMethodsWithFuture(followers, call, replicationOptions);
+            return Utility.cancelAfter(acknowledged, ClusterConfig.getRpcTimeout()).handle((responses, error) -> {
+                if (error != null) {
+                    AsyncLog.warn("replica.replicationTimedOut", "method", call.getMethodName(), "followers", followers.size());
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            e.printStackTrace();
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /** Called remotely by a leader. Stores the auction unless this follower already holds a newer version of it. **/
+    public void applyAuction(Auction auction) {
+        if (this.isClosed(auction.getAuctionID())) {
+            return;
+        }
+        auctions.putIfNewer(auction);
+        sellers.add(auction.getSellerID(), auction.getAuctionID());
+        this.reindex(auction.getAuctionID());
+        this.catalogChanged();
+    }
+
+    /** Creates a new auction and adds it to the AuctionServer. A replayed request ID doesn't overwrite the auction. **/
+    public long createAuction(String requestID, String name, long startPrice, long reserve, String desc, int sellerID, long auctionID) throws RemoteException {
+
+        long start = System.nanoTime();
+        try {
+            return this.applyOnce(requestID, () -> this.applyCreate(name, startPrice, reserve, desc, sellerID, auctionID));
+        } finally {
+            createAuctionLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Stores a new auction. Returns its ID. An auction already stored under the ID (a concurrent replay, or a copy
+     * handed over first) is kept as it may have been bid on, and one that has been closed isn't brought back.
+     */
+    private long applyCreate(String name, long startPrice, long reserve, String desc, int sellerID, long auctionID) {
         //--> Create and add new auction to AuctionServer.
-        Auction auction = new Auction(name, startPrice, reserve, desc, userDetails, auctionID);
-        auctions.put(auction.getAuctionID(), auction);
+        Auction auction = new Auction(name, startPrice, reserve, desc, sellerID, auctionID);
+        if (this.isClosed(auctionID) || auctions.putIfAbsent(auction) != null) {
+            return auctionID;
+        }
+        sellers.add(sellerID, auctionID);
+        this.reindex(auctionID);
+        this.catalogChanged();
 
         //--> Server-side confirmation that auction was created.
-        System.out.println(">> Replica created auction. Total active auction count: " + auctions.size() + ".");
-        System.out.println("------------------------------------------------------------->");
+        AsyncLog.info("replica.createAuction", "auctionID", auctionID, "activeAuctions", auctions.size());
 
-        //--> Return name (ID) of newly created auction.
+        //--> Return ID of newly created auction.
         return auction.getAuctionID();
     }
 
+    /**
+     * Bulk import. Stores a batch of auctions created by the AuctionServer. Returns the number applied. A replayed
+     * request ID returns the original count without overwriting auctions that have since been bid on.
+     */
+    public int createAuctions(String requestID, ArrayList<Auction> batch) {
+
+        long start = System.nanoTime();
+        try {
+            return this.applyOnce(requestID, () -> this.applyCreates(batch));
+        } finally {
+            createAuctionsLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Stores each auction in the batch as applyCreate does. Returns the number now held, counting auctions that were
+     * already stored but not those that have been closed or dropped.
+     */
+    private int applyCreates(ArrayList<Auction> batch) {
+        int held = 0;
+        for (Auction auction : batch) {
+            if (this.isClosed(auction.getAuctionID())) {
+                continue;
+            }
+            held++;
+            if (auctions.putIfAbsent(auction) == null) {
+                sellers.add(auction.getSellerID(), auction.getAuctionID());
+                this.reindex(auction.getAuctionID());
+            }
+        }
+        this.catalogChanged();                                                                     //--> One new snapshot per batch rather than per auction.
+
+        AsyncLog.info("replica.createAuctions", "batch", batch.size(), "applied", held, "activeAuctions", auctions.size());
+        return held;
+    }
+
+    /** Leader write mode. Stores a batch of auctions this replica leads then replicates it to the other owners. **/
+    public CompletableFuture<Integer> leaderCreateAuctions(String requestID, ArrayList<Auction> batch) {
+        int applied = this.createAuctions(requestID, batch);
+
+        //--> One message per follower carrying every auction it follows rather than one per auction.
+        HashMap<Address, ArrayList<Auction>> followerBatches = new HashMap<>();
+        for (Auction auction : batch) {
+            for (Address follower : router.getOwners(auction.getAuctionID())) {
+                if (!follower.equals(channel.getAddress())) {
+                    followerBatches.computeIfAbsent(follower, k -> new ArrayList<>()).add(auction);
+                }
+            }
+        }
+
+        ArrayList<CompletableFuture<Void>> acknowledgements = new ArrayList<>();
+        for (Address follower : followerBatches.keySet()) {
+            MethodCall call = new MethodCall("applyAuctions", new Object[]{followerBatches.get(follower)}, new Class<?>[]{ArrayList.class});
+            acknowledgements.add(this.sendToFollowers(Collections.singletonList(follower), call));
+        }
+        return CompletableFuture.allOf(acknowledgements.toArray(new CompletableFuture<?>[0])).thenApply(acknowledged -> applied);
+    }
+
+    /** Called remotely by a leader with a batch. Stores each auction unless this follower holds a newer version of it. **/
+    public void applyAuctions(ArrayList<Auction> batch) {
+        for (Auction auction : batch) {
+            if (this.isClosed(auction.getAuctionID())) {
+                continue;
+            }
+            auctions.putIfNewer(auction);
+            sellers.add(auction.getSellerID(), auction.getAuctionID());
+            this.reindex(auction.getAuctionID());
+        }
+        this.catalogChanged();
+    }
+
     /** Returns a list of all active auctions. These auctions then be displayed client side. **/
     public ArrayList<Auction> showActive() throws RemoteException {
 
-        System.out.println(">> Replica returning all active auctions.");
-        System.out.println("------------------------------------------------------------->");
+        long start = System.nanoTime();
+        try {
+            AsyncLog.info("replica.showActive");
+
+            //--> Return the shared snapshot of all active auctions. No copy is made.
+            return this.currentSnapshot().getAuctionList();
+        } finally {
+            showActiveLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Returns the serialized list of all active auctions. The bytes are cached per snapshot so repeated reads of an
+     * unchanged catalogue don't serialize it again. Identical replicas return identical bytes.
+     */
+    public byte[] showActiveBytes() {
+
+        long start = System.nanoTime();
+        try {
+            AsyncLog.info("replica.showActiveBytes");
+            return this.currentSnapshot().getSerialized();
+        } finally {
+            showActiveLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Returns this replicas best 'limit' auctions sold by the seller, sorted by the provided order. Only looks at the
+     * sellers lots through the seller index. As with searchTop only auctions this replica is primary for are returned.
+     */
+    public ArrayList<Auction> sellerAuctions(int sellerID, int sortOrder, int limit) {
+
+        long start = System.nanoTime();
+        try {
+            AsyncLog.info("replica.sellerAuctions", "sellerID", sellerID, "sortOrder", sortOrder, "limit", limit);
+
+            Comparator<Auction> order = AuctionSort.comparator(sortOrder, null);
+            Address self = channel.getAddress();
+            ShardRouter router = this.router;
+
+            //--> Bounded heap with the worst kept auction at its head.
+            PriorityQueue<Auction> best = new PriorityQueue<>(Math.max(1, limit) + 1, order.reversed());
+            for (long auctionID : sellers.getAuctionIDs(sellerID)) {
+                Auction auction = auctions.get(auctionID);
+
+                //--> Auction has gone (e.g. handed over in a rebalance) so the index entry is stale.
+                if (auction == null || auction.getSellerID() != sellerID) {
+                    sellers.remove(sellerID, auctionID);
+                    continue;
+                }
+
+                if (router.isPrimary(self, auctionID)) {
+                    best.offer(auction);
+                    if (best.size() > limit) {
+                        best.poll();
+                    }
+                }
+            }
+
+            ArrayList<Auction> sellerAuctions = new ArrayList<>(best);
+            sellerAuctions.sort(order);
+            return sellerAuctions;
+        } finally {
+            sellerAuctionsLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Returns this replicas first 'limit' auctions with a price from 'minPrice' to 'maxPrice' in the provided order.
+     * The price is the top bid, or the start price when sorting by START_PRICE. Price orders walk a PriceIndex so the
+     * cost is O(log n + limit). NEWEST walks the ID ordered snapshot from the newest end. As with searchTop only
+     * auctions this replica is primary for are returned.
+     */
+    public ArrayList<Auction> browse(long minPrice, long maxPrice, int sortOrder, int limit) {
+
+        long start = System.nanoTime();
+        try {
+            AsyncLog.info("replica.browse", "minPrice", minPrice, "maxPrice", maxPrice, "sortOrder", sortOrder, "limit", limit);
+
+            Address self = channel.getAddress();
+            ShardRouter router = this.router;
+            ArrayList<Auction> page = new ArrayList<>();
+
+            if (sortOrder == AuctionSort.NEWEST) {
+                List<Auction> byID = this.currentSnapshot().getAuctions();
+                for (int i = byID.size() - 1; i >= 0 && page.size() < limit; i--) {
+                    Auction auction = byID.get(i);
+                    if (auction.getTopBid() >= minPrice && auction.getTopBid() <= maxPrice && router.isPrimary(self, auction.getAuctionID())) {
+                        page.add(auction);
+                    }
+                }
+                return page;
+            }
+
+            PriceIndex index = sortOrder == AuctionSort.START_PRICE ? startPrices : topBids;
+            boolean ascending = sortOrder == AuctionSort.START_PRICE || sortOrder == AuctionSort.LOWEST_BID;
+
+            Iterator<PriceIndex.Entry> entries = index.range(minPrice, maxPrice, ascending);
+            while (entries.hasNext() && page.size() < limit) {
+                PriceIndex.Entry entry = entries.next();
+                Auction auction = auctions.get(entry.getAuctionID());
+
+                //--> Auction has gone (e.g. handed over in a rebalance) or is being re-indexed after a bid.
+                if (!index.isCurrent(auction, entry.getPrice())) {
+                    if (auction == null) {
+                        index.refresh(entry.getAuctionID(), auctions);
+                    }
+                    continue;
+                }
+
+                if (router.isPrimary(self, entry.getAuctionID())) {
+                    page.add(auction);
+                }
+            }
+            return page;
+        } finally {
+            browseLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Returns this replicas first 'query.getLimit()' auctions matching every filter of the query, in its sort order,
+     * as rows holding only the requested fields. The filters are pushed down to the narrowest index: the seller index
+     * when a seller is given, the top bid PriceIndex when a price bound is given, otherwise the snapshot. The index walk
+     * stops early when its order is the sort order. As with searchTop only auctions this replica is primary for are
+     * returned.
+     */
+    public ArrayList<AuctionRow> query(AuctionQuery query) {
+
+        long start = System.nanoTime();
+        try {
+            AsyncLog.info("replica.query", "keyWord", query.getKeyWord(), "sellerID", query.getSellerID(),
+                    "minPrice", query.getMinPrice(), "maxPrice", query.getMaxPrice(), "sortOrder", query.getSortOrder(),
+                    "limit", query.getLimit());
+
+            int k = Math.max(1, query.getLimit());
+            Comparator<Auction> order = AuctionSort.comparator(query.getSortOrder(), query.getKeyWord());
+            Address self = channel.getAddress();
+            ShardRouter router = this.router;
+
+            //--> Bounded heap with the worst kept auction at its head.
+            PriorityQueue<Auction> best = new PriorityQueue<>(k + 1, order.reversed());
+
+            if (query.getSellerID() != UserDirectory.NO_USER) {
+                for (long auctionID : sellers.getAuctionIDs(query.getSellerID())) {
+                    Auction auction = auctions.get(auctionID);
+
+                    //--> Auction has gone (e.g. handed over in a rebalance) so the index entry is stale.
+                    if (auction == null || auction.getSellerID() != query.getSellerID()) {
+                        sellers.remove(query.getSellerID(), auctionID);
+                    } else if (query.matches(auction) && router.isPrimary(self, auctionID)) {
+                        this.offer(best, auction, k);
+                    }
+                }
+            } else if (query.getMinPrice() > 0 || query.getMaxPrice() < Long.MAX_VALUE) {
+                boolean ascending = query.getSortOrder() == AuctionSort.LOWEST_BID;
+                boolean inOrder = ascending || query.getSortOrder() == AuctionSort.TOP_BID;
+
+                Iterator<PriceIndex.Entry> entries = topBids.range(query.getMinPrice(), query.getMaxPrice(), ascending);
+                while (entries.hasNext() && !(inOrder && best.size() == k)) {
+                    PriceIndex.Entry entry = entries.next();
+                    Auction auction = auctions.get(entry.getAuctionID());
+
+                    //--> Auction has gone (e.g. handed over in a rebalance) or is being re-indexed after a bid.
+                    if (!topBids.isCurrent(auction, entry.getPrice())) {
+                        if (auction == null) {
+                            topBids.refresh(entry.getAuctionID(), auctions);
+                        }
+                    } else if (query.matches(auction) && router.isPrimary(self, entry.getAuctionID())) {
+                        this.offer(best, auction, k);
+                    }
+                }
+            } else {
+                for (Auction auction : this.currentSnapshot().getAuctions()) {
+                    if (query.matches(auction) && router.isPrimary(self, auction.getAuctionID())) {
+                        this.offer(best, auction, k);
+                    }
+                }
+            }
 
-        //--> Retrieve all active auctions from AuctionServer.
-        ConcurrentHashMap<String, Auction> auctions = this.auctions;
-        ArrayList<Auction> allAuctions = new ArrayList<>(auctions.values());
+            ArrayList<Auction> matched = new ArrayList<>(best);
+            matched.sort(order);
 
-        //--> Return all active auctions.
-        return allAuctions;
+            //--> Project to the requested fields so only those are serialized back to the AuctionServer.
+            ArrayList<AuctionRow> rows = new ArrayList<>(matched.size());
+            for (Auction auction : matched) {
+                rows.add(new AuctionRow(auction, query.getFields()));
+            }
+            return rows;
+        } finally {
+            queryLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    /** Adds the auction to a bounded heap, dropping the worst auction once it holds more than 'k'. **/
+    private void offer(PriorityQueue<Auction> best, Auction auction, int k) {
+        best.offer(auction);
+        if (best.size() > k) {
+            best.poll();
+        }
+    }
+
+    /** Brings the price indexes in line with the stores copy of an auction. Called after every change to it. **/
+    private void reindex(long auctionID) {
+        topBids.refresh(auctionID, auctions);
+        startPrices.refresh(auctionID, auctions);
+    }
+
+    /** Returns the snapshot for the current catalogue version, building it if the catalogue has changed. **/
+    private CatalogSnapshot currentSnapshot() {
+        CatalogSnapshot current = snapshot;
+        long version = catalogVersion.get();
+
+        if (current.getVersion() == version) {
+            return current;
+        }
+
+        //--> Labelled with the version read before copying. A change made during the copy makes the next read rebuild.
+        CatalogSnapshot rebuilt = new CatalogSnapshot(version, auctions.values());
+        snapshot = rebuilt;
+        return rebuilt;
+    }
+
+    /** Marks the catalogue as changed so the next read builds a new snapshot. **/
+    private void catalogChanged() {
+        catalogVersion.incrementAndGet();
     }
 
     /** Returns a list of all active auctions that contain the supplied keyWord. **/
     public ArrayList<Auction> showAuction(String keyWord) throws RemoteException {
 
-        System.out.println(">> Replica returning all active auctions that match search criteria.");
-        System.out.println("------------------------------------------------------------->");
+        long start = System.nanoTime();
+        try {
+            AsyncLog.info("replica.showAuction", "keyWord", keyWord);
+            return this.filterAuctions(this.currentSnapshot(), keyWord);
+        } finally {
+            showAuctionLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    /** Same as 'showAuction' but returns the serialized list, cached per keyWord until the catalogue changes. **/
+    public byte[] showAuctionBytes(String keyWord) {
+
+        long start = System.nanoTime();
+        try {
+            AsyncLog.info("replica.showAuctionBytes", "keyWord", keyWord);
+            CatalogSnapshot current = this.currentSnapshot();
+            return current.getSerialized("showAuction|" + keyWord, () -> this.filterAuctions(current, keyWord));
+        } finally {
+            showAuctionLatency.record(System.nanoTime() - start);
+        }
+    }
 
-        //--> Retrieve all active auctions from AuctionServer.
-        ConcurrentHashMap<String, Auction> auctions = this.auctions;
-        ArrayList<Auction> allAuctions = new ArrayList<Auction>(auctions.values());
+    /** Returns the auctions in the snapshot whose name contains the supplied keyWord. **/
+    private ArrayList<Auction> filterAuctions(CatalogSnapshot current, String keyWord) {
+        List<Auction> allAuctions = current.getAuctions();
         ArrayList<Auction> filteredAuctions = new ArrayList<Auction>();
 
         //--> Filter auctions by keyword.
@@ -112,12 +645,67 @@ public class ReplicatedServer {
         return filteredAuctions;
     }
 
+    /**
+     * Returns this replicas best 'limit' auctions that contain the supplied keyWord, sorted by the provided order.
+     * Only auctions this replica is the primary owner of are considered so each auction is returned by one replica.
+     */
+    public ArrayList<Auction> searchTop(String keyWord, int sortOrder, int limit) {
+
+        long start = System.nanoTime();
+        try {
+            AsyncLog.info("replica.searchTop", "keyWord", keyWord, "sortOrder", sortOrder, "limit", limit);
+            return this.topAuctions(this.currentSnapshot(), keyWord, sortOrder, AuctionSort.clampLimit(limit));
+        } finally {
+            searchTopLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    /** Same as 'searchTop' but returns the serialized list, cached per query until the catalogue changes. **/
+    public byte[] searchTopBytes(String keyWord, int sortOrder, int limit) {
+
+        long start = System.nanoTime();
+        try {
+            AsyncLog.info("replica.searchTopBytes", "keyWord", keyWord, "sortOrder", sortOrder, "limit", limit);
+            CatalogSnapshot current = this.currentSnapshot();
+            int k = AuctionSort.clampLimit(limit);
+            return current.getSerialized("searchTop|" + sortOrder + "|" + k + "|" + keyWord,
+                    () -> this.topAuctions(current, keyWord, sortOrder, k));
+        } finally {
+            searchTopLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    /** Returns the best 'k' matching auctions in the snapshot that this replica is primary for, sorted by the order. **/
+    private ArrayList<Auction> topAuctions(CatalogSnapshot current, String keyWord, int sortOrder, int k) {
+        Comparator<Auction> order = AuctionSort.comparator(sortOrder, keyWord);
+        Address self = channel.getAddress();
+        ShardRouter router = this.router;
+
+        //--> Bounded heap with the worst kept auction at its head.
+        PriorityQueue<Auction> best = new PriorityQueue<>(k + 1, order.reversed());
+        for (Auction auction : current.getAuctions()) {
+            if (AuctionSort.matches(auction, keyWord) && router.isPrimary(self, auction.getAuctionID())) {
+                best.offer(auction);
+                if (best.size() > k) {
+                    best.poll();
+                }
+            }
+        }
+
+        ArrayList<Auction> topAuctions = new ArrayList<>(best);
+        topAuctions.sort(order);
+        return topAuctions;
+    }
+
     public void start() throws Exception {
 
-        this.channel = new JChannel();
+        this.channel = ClusterConfig.createChannel("replica");
         this.channel.connect("AUCTION_CLUSTER");
-        RequestOptions requestOptions = new RequestOptions(ResponseMode.GET_ALL, 1000);
-        this.dispatcher = new RpcDispatcher(this.channel, this);	                                  //--> Set target for remote calls. Acts as server (receiver).
+        RequestOptions requestOptions = new RequestOptions(ResponseMode.GET_ALL, ClusterConfig.getRpcTimeout());
+        this.dispatcher = new ReplicaDispatcher(this.channel, this, READ_METHODS,                         //--> Set target for remote calls. Acts as server (receiver).
+                ClusterConfig.getReplicaHandlerPermits());
+        this.dispatcher.setMembershipListener(this);                                                        //--> Rebalance shards when members join or leave.
+        this.viewAccepted(channel.getView());
 
         View view = channel.getView();                                                                      //--> Get current view.
         ArrayList<Address> members = new ArrayList<Address>(view.getMembers());                                   //--> Get all members in the cluster.
@@ -125,19 +713,35 @@ public class ReplicatedServer {
 
         //--> If other members exist in the cluster -> go get the state from them.
         if (members.size() != 0) {
-            //--> Get state of all cluster nodes (don't send request to RMI server).
-            RspList responses = dispatcher.callRemoteMethods(members, "getState", null, null, requestOptions);
+            //--> When partitioned, members hand this replica its shard as part of rebalancing instead.
+            if (!router.isPartitioned()) {
+                //--> Get state of all cluster nodes (don't send request to RMI server). Members can tie while writes
+                //--> are in flight, so ask again before giving up and leaving the state to repair.
+                for (int attempt = 1; attempt <= STATE_ATTEMPTS; attempt++) {
+                    RspList<ArrayList<Auction>> responses = dispatcher.callRemoteMethods(members, "getState", null, null, requestOptions);
 
-            //--> Get the address of a member who's response was in the majority.
-            Address majoritySender = Utility.getMajorityResponseAddress(Utility.getHashMapHashes(responses));
+                    //--> Get the address of a member who's response was in the majority.
+                    Address majoritySender = Utility.getMajorityResponseAddress(Utility.getStateHashes(responses));
+                    if (majoritySender != null) {
+                        //--> Update the state with the majority response state.
+                        this.setState(responses.getValue(majoritySender));
+                        break;
+                    }
 
-            //--> Get the actual response associated with the majority sender address.
-            ConcurrentHashMap<String, Auction> cHash = (ConcurrentHashMap<String, Auction>) responses.getValue(majoritySender);
+                    AsyncLog.warn("replica.stateNoMajority", "attempt", attempt, "members", members.size());
+                    if (attempt < STATE_ATTEMPTS) {
+                        Thread.sleep(STATE_RETRY_MILLIS);
+                    }
+                }
+            }
 
-            //--> Update the state with the majority response state.
-            synchronized (auctions) {
-                auctions.clear();
-                auctions.putAll(cHash);
+            //--> User directory only grows so merge every members copy.
+            RspList<Object> userResponses = dispatcher.callRemoteMethods(members, "getUsers", null, null, requestOptions);
+            for (Object a : userResponses.keySet()) {
+                UserDirectory memberUsers = (UserDirectory) userResponses.getValue((Address)a);
+                if (memberUsers != null) {
+                    users.putAll(memberUsers);
+                }
             }
         }
 
@@ -150,16 +754,467 @@ public class ReplicatedServer {
         new ReplicatedServer().start();
     }
 
-    /** Called remotely by new members of the group to get an up to date state. **/
-    public ConcurrentHashMap<String, Auction> getState() {
-        return auctions;
+    /** Called remotely by new members of the group to get an up to date state. Shares the current snapshot list. **/
+    public ArrayList<Auction> getState() {
+        return this.currentSnapshot().getAuctionList();
+    }
+
+    /** Returns the auction with the provided ID or null if this replica doesn't hold it. **/
+    public Auction getAuction(long auctionID) {
+        return auctions.get(auctionID);
+    }
+
+    /**
+     * Called remotely to repair a single auction or hand it over to a new owner. Not kept if the auction has been
+     * closed or the copy held here has a higher bid, so a repair can never undo a bid.
+     */
+    public void putAuction(Auction auction) {
+        this.mergeAuction(auction);
+        this.catalogChanged();
+    }
+
+    /** Called remotely with an auction the AuctionServer serialized once for several replicas. See putAuction. **/
+    public void putAuction(byte[] serialized) {
+        this.putAuction((Auction) Utility.deserialize(serialized));
+    }
+
+    /** Called remotely to hand over a set of auctions to a new owner. Each is merged as in putAuction. **/
+    public void putAuctions(ArrayList<Auction> handedOver) {
+        for (Auction auction : handedOver) {
+            this.mergeAuction(auction);
+        }
+        this.catalogChanged();
+    }
+
+    /** Stores the auction unless it has been closed or the copy held here has a higher bid. **/
+    private void mergeAuction(Auction auction) {
+        if (!this.isClosed(auction.getAuctionID()) && auctions.putUnlessOutbid(auction)) {
+            sellers.add(auction.getSellerID(), auction.getAuctionID());
+            this.reindex(auction.getAuctionID());
+        }
+    }
+
+    /**
+     * Called remotely with another replicas auctions and closed auction IDs. Closes are applied, then each auction
+     * is kept as in putAuction. Nothing held here is discarded for being absent from the state.
+     */
+    public void mergeState(ArrayList<Auction> state, long[] closedIDs) {
+        for (long auctionID : closedIDs) {
+            this.dropAuction(auctionID);
+        }
+        for (Auction auction : state) {
+            this.mergeAuction(auction);
+        }
+        this.catalogChanged();
+    }
+
+    /** Called remotely with a state the AuctionServer serialized once for several replicas. See mergeState. **/
+    @SuppressWarnings("unchecked")
+    public void mergeState(byte[] serializedState, long[] closedIDs) {
+        this.mergeState((ArrayList<Auction>) Utility.deserialize(serializedState), closedIDs);
+    }
+
+    /** Returns the IDs of recently closed auctions. **/
+    public long[] getClosed() {
+        return closed.keySet().stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /** Returns the held copies of the provided auctions. Auctions that aren't held are left out. **/
+    public ArrayList<Auction> getAuctions(long[] auctionIDs) {
+        ArrayList<Auction> held = new ArrayList<>(auctionIDs.length);
+        for (long auctionID : auctionIDs) {
+            Auction auction = auctions.get(auctionID);
+            if (auction != null) {
+                held.add(auction);
+            }
+        }
+        return held;
+    }
+
+    /** Returns true if the auction has been closed. **/
+    private boolean isClosed(long auctionID) {
+        return closed.containsKey(auctionID);
+    }
+
+    /** Remembers that the auction was closed. Occasionally forgets closes older than the tombstone time to live. **/
+    private void recordClosed(long auctionID) {
+        long now = System.currentTimeMillis();
+        if (closed.put(auctionID, now) == null && closed.size() % 1024 == 0) {
+            long expired = now - ClusterConfig.getTombstoneTtl();
+            closed.values().removeIf(closedAt -> closedAt < expired);
+        }
+    }
+
+    /** Called remotely with the settlement of a closed auction. Removes the auction and archives the settlement. **/
+    public void settle(Settlement settlement) {
+        this.dropAuction(settlement.getAuctionID());
+        settled.add(settlement);
+    }
+
+    /** Called remotely with a settlement the AuctionServer serialized once for several replicas. See settle. **/
+    public void settle(byte[] serialized) {
+        this.settle((Settlement) Utility.deserialize(serialized));
+    }
+
+    /** Returns the settlement of a closed auction or null if it wasn't settled on this replica. **/
+    public Settlement getSettlement(long auctionID) {
+        return settled.get(auctionID);
+    }
+
+    /** Returns up to 'limit' of the sellers settlements held here, most recently created auctions first. **/
+    public ArrayList<Settlement> sellerSettlements(int sellerID, int limit) {
+        return settled.getBySeller(sellerID, Math.max(1, limit));
+    }
+
+    /** Returns up to 'limit' settlements held here with auction IDs from 'fromID' to 'toID', newest first. **/
+    public ArrayList<Settlement> settledBetween(long fromID, long toID, int limit) {
+        return settled.getRange(fromID, toID, Math.max(1, limit));
+    }
+
+    /** Called remotely to remove bulk imported auctions that too few of their owners applied. See dropAuction. **/
+    public void dropAuctions(long[] auctionIDs) {
+        for (long auctionID : auctionIDs) {
+            this.dropAuction(auctionID);
+        }
+    }
+
+    /** Called remotely to remove an auction that has been closed or that the majority of its owners no longer hold. **/
+    public void dropAuction(long auctionID) {
+        this.recordClosed(auctionID);
+        Auction removed = auctions.remove(auctionID);
+        if (removed != null) {
+            sellers.remove(removed.getSellerID(), auctionID);
+        }
+        this.reindex(auctionID);
+        this.catalogChanged();
+    }
+
+    /**
+     * Rebuilds the shard router for a new view and hands over auctions whose owners have changed. A MergeView (a
+     * partition has healed) is reconciled instead: see reconcile.
+     */
+    public void viewAccepted(View view) {
+        //--> Cut off from the AuctionServer (it isn't the coordinator). Keep the current owners and data until the
+        //--> partition heals. The coordinator of a partition without the AuctionServer is a replica, not it.
+        if (!FrontendFirstPolicy.isFrontend(view.getMembers().get(0))) {
+            AsyncLog.warn("replica.isolated", "view", view);
+            return;
+        }
+
+        ArrayList<Address> replicas = new ArrayList<Address>(view.getMembers());
+        replicas.remove(0);                                                                           //--> Remove coordinator (RMI Server)
+
+        ShardRouter oldRouter = this.router;
+        ShardRouter newRouter = new ShardRouter(replicas, replicationFactor);
+        this.router = newRouter;
+        this.catalogChanged();                                                                         //--> Ownership changed so cached search responses are stale.
+
+        //--> Both sides may have changed the same auctions. One replica compares and repairs them for the whole cluster.
+        if (view instanceof MergeView) {
+            if (replicas.get(0).equals(channel.getAddress())) {
+                new Thread(() -> this.reconcile(newRouter)).start();
+            }
+            return;
+        }
+
+        //--> Blocking RPCs can't be made from the view callback so hand over on a separate thread.
+        if (oldRouter != null && (oldRouter.isPartitioned() || newRouter.isPartitioned())) {
+            new Thread(() -> this.rebalance(oldRouter, newRouter)).start();
+        }
+    }
+
+    /**
+     * Sends auctions to owners that gained them in the new view then drops auctions this replica no longer owns.
+     * Only the first previous owner still in the view sends each auction so new owners receive a single copy.
+     * An auction is only dropped once its handover has been acknowledged; if a new owner never answers (e.g. its
+     * dispatcher isn't up yet) this replica keeps its copy rather than lose what may be the only one.
+     */
+    private void rebalance(ShardRouter oldRouter, ShardRouter newRouter) {
+        Address self = channel.getAddress();
+        ArrayList<Address> survivors = newRouter.getReplicas();
+        HashMap<Address, ArrayList<Auction>> transfers = new HashMap<>();
+
+        for (Auction auction : auctions.values()) {
+            ArrayList<Address> oldOwners = oldRouter.getOwners(auction.getAuctionID());
+
+            Address sender = null;
+            for (Address owner : oldOwners) {
+                if (survivors.contains(owner)) {
+                    sender = owner;
+                    break;
+                }
+            }
+
+            if (!self.equals(sender)) {
+                continue;
+            }
+
+            for (Address newOwner : newRouter.getOwners(auction.getAuctionID())) {
+                if (!oldOwners.contains(newOwner)) {
+                    transfers.computeIfAbsent(newOwner, k -> new ArrayList<>()).add(auction);
+                }
+            }
+        }
+
+        RequestOptions requestOptions = new RequestOptions(ResponseMode.GET_ALL, ClusterConfig.getRpcTimeout());
+        HashSet<Long> unacknowledged = new HashSet<>();
+        for (Address newOwner : transfers.keySet()) {
+            ArrayList<Auction> handedOver = transfers.get(newOwner);
+            if (!this.handOver(newOwner, handedOver, requestOptions)) {
+                AsyncLog.warn("replica.handoverFailed", "owner", newOwner, "auctions", handedOver.size());
+                for (Auction auction : handedOver) {
+                    unacknowledged.add(auction.getAuctionID());
+                }
+            }
+        }
+
+        //--> Checked against the router current now. A later view may have changed the owners since this one.
+        auctions.removeIf(auctionID -> !unacknowledged.contains(auctionID) && !this.router.isOwner(self, auctionID));
+        this.catalogChanged();
+
+        AsyncLog.info("replica.rebalanced", "activeAuctions", auctions.size());
+    }
+
+    /** Sends the auctions to a new owner, retrying a few times. Returns true once the owner has acknowledged them. **/
+    private boolean handOver(Address newOwner, ArrayList<Auction> handedOver, RequestOptions requestOptions) {
+        for (int attempt = 0; attempt < HANDOVER_ATTEMPTS; attempt++) {
+            try {
+                dispatcher.callRemoteMethod(newOwner, "putAuctions", new Object[]{handedOver}, new Class<?>[]{ArrayList.class}, requestOptions);
+                return true;
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+
+            try {
+                Thread.sleep(100L << attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reconciles the replicas after a partition heals, shipping only the auctions they disagree on:
+     * 1: Every replica sends a digest with one hash per bucket of auctions that share the same owners.
+     * 2: For buckets whose owners disagree, that some owner lacks or that a non-owner holds, every replica sends
+     *    per-auction fingerprints.
+     * 3: For auctions whose copies differ, one copy of each distinct version is fetched and the winner picked: a close
+     *    beats any copy, otherwise the copy that supersedes the others (highest bid, then latest version).
+     * 4: Each owner is sent only the winners it doesn't already hold, then every replica drops auctions it doesn't own.
+     */
+    private void reconcile(ShardRouter router) {
+
+        long start = System.nanoTime();
+        try {
+            ArrayList<Address> replicas = router.getReplicas();
+            RequestOptions requestOptions = new RequestOptions(ResponseMode.GET_ALL, ClusterConfig.getRpcTimeout());
+
+            //--> 1: Bucket hashes, and an auction from each bucket to look its owners up by.
+            RspList<HashMap<Long, long[]>> digests = dispatcher.callRemoteMethods(replicas, "mergeDigest", null, null, requestOptions);
+            HashMap<Long, HashMap<Address, Long>> bucketHashes = new HashMap<>();
+            HashMap<Long, Long> bucketSamples = new HashMap<>();
+            for (Object a : digests.keySet()) {
+                HashMap<Long, long[]> digest = digests.getValue((Address)a);
+                if (digest != null) {
+                    digest.forEach((bucket, entry) -> {
+                        bucketHashes.computeIfAbsent(bucket, k -> new HashMap<>()).put((Address)a, entry[0]);
+                        bucketSamples.putIfAbsent(bucket, entry[1]);
+                    });
+                }
+            }
+
+            //--> The replicas that reported a bucket must be exactly its owners, and agree.
+            ArrayList<Long> conflictingBuckets = new ArrayList<>();
+            bucketHashes.forEach((bucket, hashes) -> {
+                HashSet<Address> owners = new HashSet<>(router.getOwners(bucketSamples.get(bucket)));
+                if (!hashes.keySet().equals(owners) || new HashSet<>(hashes.values()).size() > 1) {
+                    conflictingBuckets.add(bucket);
+                }
+            });
+
+            //--> 2: Fingerprints of the auctions in conflicting buckets.
+            HashMap<Long, HashMap<Address, Long>> fingerprints = new HashMap<>();
+            if (!conflictingBuckets.isEmpty()) {
+                long[] buckets = conflictingBuckets.stream().mapToLong(Long::longValue).toArray();
+                RspList<HashMap<Long, Long>> responses = dispatcher.callRemoteMethods(replicas, "mergeFingerprints", new Object[]{buckets}, new Class<?>[]{long[].class}, requestOptions);
+                for (Object a : responses.keySet()) {
+                    HashMap<Long, Long> memberFingerprints = responses.getValue((Address)a);
+                    if (memberFingerprints != null) {
+                        memberFingerprints.forEach((auctionID, fingerprint) -> fingerprints.computeIfAbsent(auctionID, k -> new HashMap<>()).put((Address)a, fingerprint));
+                    }
+                }
+            }
+
+            //--> 3: Decide which auctions differ and fetch one copy of each distinct live version.
+            HashMap<Long, Long> conflicts = new HashMap<>();                                            //--> Auction ID to winning fingerprint.
+            HashMap<Address, ArrayList<Long>> fetches = new HashMap<>();
+            fingerprints.forEach((auctionID, held) -> {
+                ArrayList<Address> owners = router.getOwners(auctionID);
+                HashSet<Long> versions = new HashSet<>(held.values());
+                if (versions.size() == 1 && held.keySet().containsAll(owners) && owners.containsAll(held.keySet())) {
+                    return;
+                }
+
+                if (versions.contains(CLOSED)) {
+                    conflicts.put(auctionID, CLOSED);
+                    return;
+                }
+                conflicts.put(auctionID, null);
+
+                HashSet<Long> requested = new HashSet<>();
+                held.forEach((member, fingerprint) -> {
+                    if (requested.add(fingerprint)) {
+                        fetches.computeIfAbsent(member, k -> new ArrayList<>()).add(auctionID);
+                    }
+                });
+            });
+
+            HashMap<Long, Auction> winners = new HashMap<>();
+            for (Address member : fetches.keySet()) {
+                long[] auctionIDs = fetches.get(member).stream().mapToLong(Long::longValue).toArray();
+                ArrayList<Auction> copies = dispatcher.callRemoteMethod(member, "getAuctions", new Object[]{auctionIDs}, new Class<?>[]{long[].class}, requestOptions);
+                for (Auction copy : copies) {
+                    Auction winner = winners.get(copy.getAuctionID());
+                    if (winner == null || copy.supersedes(winner)) {
+                        winners.put(copy.getAuctionID(), copy);
+                    }
+                }
+            }
+            winners.forEach((auctionID, winner) -> conflicts.put(auctionID, ReplicatedServer.fingerprint(winner)));
+
+            //--> 4: Send each owner only what it is missing.
+            HashMap<Address, ArrayList<Auction>> shipments = new HashMap<>();
+            HashMap<Address, ArrayList<Long>> closes = new HashMap<>();
+            conflicts.forEach((auctionID, winning) -> {
+                HashMap<Address, Long> held = fingerprints.get(auctionID);
+                for (Address owner : router.getOwners(auctionID)) {
+                    if (winning == null || winning.equals(held.get(owner))) {
+                        continue;
+                    }
+                    if (winning == CLOSED) {
+                        closes.computeIfAbsent(owner, k -> new ArrayList<>()).add(auctionID);
+                    } else {
+                        shipments.computeIfAbsent(owner, k -> new ArrayList<>()).add(winners.get(auctionID));
+                    }
+                }
+            });
+
+            HashSet<Address> targets = new HashSet<>(shipments.keySet());
+            targets.addAll(closes.keySet());
+            for (Address owner : targets) {
+                ArrayList<Auction> shipment = shipments.getOrDefault(owner, new ArrayList<>());
+                long[] closedIDs = closes.getOrDefault(owner, new ArrayList<>()).stream().mapToLong(Long::longValue).toArray();
+                dispatcher.callRemoteMethod(owner, "mergeState", new Object[]{shipment, closedIDs}, new Class<?>[]{ArrayList.class, long[].class}, requestOptions);
+                mergeShipped.add(shipment.size() + closedIDs.length);
+            }
+
+            dispatcher.callRemoteMethods(replicas, "pruneUnowned", null, null, requestOptions);
+            mergeConflicts.add(conflicts.size());
+            AsyncLog.warn("replica.merged", "buckets", bucketHashes.size(), "conflictingBuckets", conflictingBuckets.size(),
+                    "conflicts", conflicts.size(), "replicas", replicas.size());
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            mergeLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Called remotely during a merge. Returns a hash per bucket of held auctions and closes, where a bucket groups
+     * auctions with the same owners. Owners that agree on every auction in a bucket return the same hash for it.
+     * Each entry is {hash, ID of an auction in the bucket} so the reconciling replica can look up the buckets owners.
+     */
+    public HashMap<Long, long[]> mergeDigest() {
+        HashMap<Long, long[]> digest = new HashMap<>();
+        ShardRouter router = this.router;
+
+        for (Auction auction : auctions.values()) {
+            long auctionID = auction.getAuctionID();
+            digest.computeIfAbsent(ReplicatedServer.mergeBucket(router, auctionID), k -> new long[]{0, auctionID})[0]
+                    += AuctionStore.mix(auctionID ^ ReplicatedServer.fingerprint(auction));
+        }
+        for (long auctionID : closed.keySet()) {
+            digest.computeIfAbsent(ReplicatedServer.mergeBucket(router, auctionID), k -> new long[]{0, auctionID})[0]
+                    += AuctionStore.mix(auctionID ^ CLOSED);
+        }
+        return digest;
+    }
+
+    /** Called remotely during a merge. Returns the fingerprint of every held or closed auction in the buckets. **/
+    public HashMap<Long, Long> mergeFingerprints(long[] buckets) {
+        HashSet<Long> wanted = new HashSet<>();
+        for (long bucket : buckets) {
+            wanted.add(bucket);
+        }
+
+        HashMap<Long, Long> fingerprints = new HashMap<>();
+        ShardRouter router = this.router;
+        for (Auction auction : auctions.values()) {
+            if (wanted.contains(ReplicatedServer.mergeBucket(router, auction.getAuctionID()))) {
+                fingerprints.put(auction.getAuctionID(), ReplicatedServer.fingerprint(auction));
+            }
+        }
+        for (long auctionID : closed.keySet()) {
+            if (wanted.contains(ReplicatedServer.mergeBucket(router, auctionID))) {
+                fingerprints.put(auctionID, CLOSED);
+            }
+        }
+        return fingerprints;
+    }
+
+    /** Called remotely once a merge has been reconciled. Drops auctions this replica doesn't own in the merged view. **/
+    public void pruneUnowned() {
+        Address self = channel.getAddress();
+        ShardRouter router = this.router;
+        auctions.removeIf(auctionID -> !router.isOwner(self, auctionID));
+        this.catalogChanged();
+    }
+
+    /** Returns the merge bucket of an auction: its owners combined with a hash of its ID. **/
+    private static long mergeBucket(ShardRouter router, long auctionID) {
+        return 31L * router.getOwners(auctionID).hashCode() + (AuctionStore.mix(auctionID) & (MERGE_BUCKETS - 1));
+    }
+
+    /** Returns a non-negative fingerprint of a copy of an auction. Copies with the same data have the same fingerprint. **/
+    private static long fingerprint(Auction auction) {
+        return auction.getDataHash() & 0xffffffffL;
+    }
+
+    /** Called remotely by the RMI server when a user is seen for the first time. **/
+    public void registerUser(int userID, UserDetails userDetails) {
+        users.register(userID, userDetails);
+    }
+
+    /** Called remotely by the RMI server when this replica has missed user registrations. **/
+    public void putUsers(UserDirectory missed) {
+        users.putAll(missed);
+    }
+
+    /** Called remotely by the RMI server to check that this replica is responsive. **/
+    public boolean ping() {
+        return true;
+    }
+
+    /** Called remotely to get a copy of the user directory. **/
+    public UserDirectory getUsers() {
+        return users;
     }
 
     /** Called remotely by RMI server when a response is not as expected. **/
-    public void setState(ConcurrentHashMap<String, Auction> auctions) {
+    public void setState(ArrayList<Auction> state) {
         synchronized (auctions) {
-            this.auctions.clear();
-            this.auctions.putAll(auctions);
+            auctions.clear();
+            sellers.clear();
+            topBids.clear();
+            startPrices.clear();
+            for (Auction auction : state) {
+                auctions.put(auction);
+                sellers.add(auction.getSellerID(), auction.getAuctionID());
+                this.reindex(auction.getAuctionID());
+            }
+            this.catalogChanged();
         }
     }
 }
\ No newline at end of file
@@ -1,10 +1,20 @@
 
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.net.MalformedURLException;
 import java.rmi.*;
+import java.util.ArrayList;
 
 /** Creates a client that can access the auction system, create new auctions, and close auctions. */
 public class SaleClient extends Client {
 
+    private static final int PAGE_SIZE = 20;
+
+    //--> Lots sent per createAuctions call. Bounds the size of a single RPC to the replicas.
+    private static final int IMPORT_BATCH_SIZE = 5000;
+
     /** Logs in seller and provides them with a seller interface to create and close auctions. **/
     public static void main(String[] args) {
 
@@ -18,7 +28,7 @@ public class SaleClient extends Client {
 
             //--> Main loop. Allow user to select an operation.
             while (sellerDetails != null) {
-                System.out.printf("Buyer Options: %n>> Create Auction (1).%n>> End Auction (2).%n>> Exit (3).%n");
+                System.out.printf("Buyer Options: %n>> Create Auction (1).%n>> End Auction (2).%n>> My Auctions (3).%n>> Import Auctions (4).%n>> Exit (5).%n");
                 System.out.println("------------------------------------------------------------->");
                 System.out.print("Select Option: ");
                 String operation = validator.getNoneEmptyStringInput("Operation");
@@ -26,7 +36,9 @@ public class SaleClient extends Client {
                 switch(operation) {
                     case "1": { SaleClient.createAuction(sellerDetails); break; }
                     case "2": { SaleClient.removeAuction(sellerDetails.getName()); break; }
-                    case "3": { System.exit(0); }
+                    case "3": { SaleClient.listAuctions(sellerDetails.getName()); break; }
+                    case "4": { SaleClient.importAuctions(sellerDetails); break; }
+                    case "5": { System.exit(0); }
                     default: break;
                 }
             }
@@ -40,21 +52,21 @@ public class SaleClient extends Client {
         System.out.print(">> Auction Name: ");
         String name = validator.getNoneEmptyStringInput("Auction name");
 
-        //--> Allow user to input a start price for their auction. Must be > 0 and a double.
+        //--> Allow user to input a start price for their auction. Must be > 0. Held in pence.
         System.out.printf(">> Auction Start Price: %s", "\u00A3");
-        double startPrice = validator.getValidPrice("Start price");
+        long startPrice = validator.getValidPrice("Start price");
 
         //--> Get reserve price. While reserve price is less than or equal start price.
         System.out.println("------------------------------------------------------------->");
         System.out.printf(">> Auction Reserve Price: %s","\u00A3");
-        double reserve = 0;
+        long reserve = 0;
 
         //--> If reserve less than or equal start price -> print out error message.
         while (reserve <= startPrice) {
             reserve = validator.getValidPrice("Reserve");
             if (reserve <= startPrice) {
                 System.out.println("------------------------------------------------------------->");
-                System.out.printf(">> Reserve price must be greater than start price. Please enter %n>> a valid reserve price greater than %s%.2f: %s", "\u00A3", startPrice, "\u00A3");
+                System.out.printf(">> Reserve price must be greater than start price. Please enter %n>> a valid reserve price greater than %s%s: %s", "\u00A3", Money.format(startPrice), "\u00A3");
             }
         }
 
@@ -62,19 +74,23 @@ public class SaleClient extends Client {
         System.out.println("------------------------------------------------------------->");
         System.out.printf(">> Auction Description: ");
         String desc = validator.getNoneEmptyStringInput("Description");
-        String auctionID;
+        long reservePrice = reserve;
+        long auctionID;
 
         CanSell seller = SaleClient.getAuctionServer();
+        String requestID = Client.newRequestID();
         try {
-            auctionID = seller.createAuction(name, startPrice, reserve, desc, sellerDetails);
+            //--> Safe to retry as the server applies a request ID once, so a retry never creates a second lot.
+            auctionID = Client.withRetries(() -> seller.createAuction(requestID, name, startPrice, reservePrice, desc, sellerDetails),
+                    result -> result == AuctionIds.NONE);
 
-            if (auctionID == null) {
+            if (auctionID == AuctionIds.NONE) {
                 System.out.println(">> Server down. Please try again later.");
                 System.out.println("------------------------------------------------------------->");
                 return;
             }
 
-            System.out.printf(">> Auction created. Unique auction ID: %s%n", auctionID);
+            System.out.printf(">> Auction created. Unique auction ID: %s%n", AuctionIds.format(auctionID));
             System.out.println("------------------------------------------------------------->");
         } catch (RemoteException e) {
             e.printStackTrace();
@@ -107,20 +123,21 @@ public class SaleClient extends Client {
 
         //--> Allow user to input the name of an auction to remove.
         System.out.print(">> Auction ID: ");
-        String auctionName = validator.getNoneEmptyStringInput("Auction ID");
-        Auction auction = null;
+        long auctionID = validator.getValidAuctionID();
+        Settlement settlement = null;
 
         //--> Retrieve reference to remote seller object and the target auction.
         CanSell seller = SaleClient.getAuctionServer();
         try {
-            auction = seller.closeAuction(auctionName, username);
+            String requestID = Client.newRequestID();
+            settlement = Client.withRetries(() -> seller.closeAuction(requestID, auctionID, username), result -> false);
         } catch (RemoteException e) {
             e.printStackTrace();
             System.out.println("RemoteException caught. Reconfigure registry.");
         }
 
         //--> If auction doesn't exist or wrong name entered -> print error message and return.
-        if (auction == null) {
+        if (settlement == null) {
             System.out.printf(">> You do not have permission to close this auction. You can only close auctions that you have created.%n" +
                               "If you're seeing this error but are sure you're entering the correct ID then the server is down. Please%n" +
                               "try again later.%n");
@@ -128,13 +145,27 @@ public class SaleClient extends Client {
             return;
         }
 
-        //--> If top bid is greater than reserve -> print winner details.
-        if (auction.getTopBid() >= auction.getReserve()) {
+        //--> Reserve status and winner were settled by the replicas -> print winner details.
+        if (settlement.isReserveMet()) {
+
+            UserDetails winner = null;
+            try {
+                winner = seller.getUserDetails(settlement.getWinnerID());
+            } catch (RemoteException e) {
+                e.printStackTrace();
+                System.out.println("RemoteException caught. Reconfigure registry.");
+            }
+
+            if (winner == null) {
+                System.out.println(">> Auction reserve was met but winner details could not be retrieved. Please try again later.");
+                System.out.println("------------------------------------------------------------->");
+                return;
+            }
 
-            UserDetails winner = auction.getTopBidder();
             System.out.println(">> Auction reserve was met. Buyer details: ");
             System.out.println(">> Winner Name: " + winner.getName());
             System.out.println(">> Winner Email: " + winner.getEmail());
+            System.out.printf(">> Final Price: %s%s%n", "\u00A3", Money.format(settlement.getFinalPrice()));
             System.out.println("------------------------------------------------------------->");
             return;
         //--> Else print reserve not met message.
@@ -144,4 +175,202 @@ public class SaleClient extends Client {
             return;
         }
     }
-}
\ No newline at end of file
+
+    /** Provides client-side interface to page through the sellers own auctions. **/
+    public static void listAuctions(String username) {
+
+        System.out.printf(">> Sort by top bid (1) or reserve status (2): ");
+        int sortOrder = validator.getNoneEmptyStringInput("Sort").equals("2") ? AuctionSort.RESERVE_STATUS : AuctionSort.TOP_BID;
+
+        CanSell seller = SaleClient.getAuctionServer();
+        int offset = 0;
+
+        while (true) {
+            ArrayList<Auction> auctions = null;
+            try {
+                auctions = seller.listMyAuctions(username, sortOrder, offset, PAGE_SIZE);
+            } catch (RemoteException e) {
+                e.printStackTrace();
+                System.out.println("RemoteException caught. Reconfigure registry.");
+            }
+
+            if (auctions == null) {
+                System.out.println(">> Server down. Please try again later.");
+                System.out.println("------------------------------------------------------------->");
+                return;
+            }
+
+            if (auctions.size() == 0) {
+                System.out.println(offset == 0 ? ">> You have no active auctions." : ">> No more auctions.");
+                System.out.println("------------------------------------------------------------->");
+                return;
+            }
+
+            for (Auction auction : auctions) {
+                System.out.println(">> Name: " + auction.getAuctionName());
+                System.out.println(">> Unique Auction ID: " + AuctionIds.format(auction.getAuctionID()));
+                System.out.printf(">> Top Bid: %s%s%n", "\u00A3", Money.format(auction.getTopBid()));
+                System.out.printf(">> Reserve: %s%s (%s)%n", "\u00A3", Money.format(auction.getReserve()),
+                        auction.getTopBid() >= auction.getReserve() ? "met" : "not met");
+                System.out.println("------------------------------------------------------------->");
+            }
+
+            if (auctions.size() < PAGE_SIZE) {
+                return;
+            }
+
+            System.out.printf(">> Show next page (y/n): ");
+            if (!validator.getNoneEmptyStringInput("Option").equalsIgnoreCase("y")) {
+                return;
+            }
+            offset += PAGE_SIZE;
+        }
+    }
+
+    /**
+     * Provides client-side interface to bulk import lots from a CSV file. Each line is "name,start price,reserve,
+     * description" with prices in pounds. Lines are streamed to the server in batches and the generated IDs are
+     * written to FILE.ids as "line,auction ID".
+     */
+    public static void importAuctions(UserDetails sellerDetails) {
+
+        System.out.print(">> CSV File: ");
+        String path = validator.getNoneEmptyStringInput("CSV file");
+
+        CanSell seller = SaleClient.getAuctionServer();
+        ArrayList<AuctionLot> batch = new ArrayList<>();
+        ArrayList<Integer> batchLines = new ArrayList<>();
+        int lineNumber = 0;
+        int created = 0;
+        int rejected = 0;
+        long start = System.nanoTime();
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(path));
+             PrintWriter ids = new PrintWriter(path + ".ids")) {
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+
+                AuctionLot lot = SaleClient.parseLot(line);
+                if (lot == null) {
+                    //--> First line may be a header.
+                    if (lineNumber > 1) {
+                        System.out.printf(">> Line %d skipped. Expected name,start price,reserve,description.%n", lineNumber);
+                        rejected++;
+                    }
+                    continue;
+                }
+
+                batch.add(lot);
+                batchLines.add(lineNumber);
+
+                if (batch.size() == IMPORT_BATCH_SIZE) {
+                    int batchCreated = SaleClient.sendBatch(seller, sellerDetails, batch, batchLines, ids);
+                    if (batchCreated < 0) {
+                        return;
+                    }
+                    created += batchCreated;
+                    rejected += batch.size() - batchCreated;
+                    batch.clear();
+                    batchLines.clear();
+                }
+            }
+
+            if (batch.size() > 0) {
+                int batchCreated = SaleClient.sendBatch(seller, sellerDetails, batch, batchLines, ids);
+                if (batchCreated < 0) {
+                    return;
+                }
+                created += batchCreated;
+                rejected += batch.size() - batchCreated;
+            }
+        } catch (IOException e) {
+            System.out.println(">> File could not be read. Check that the file name is valid.");
+            System.out.println("------------------------------------------------------------->");
+            return;
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf(">> Imported %d auctions (%d rejected) in %.1fs. IDs written to %s.ids%n", created, rejected, seconds, path);
+        System.out.println("------------------------------------------------------------->");
+    }
+
+    /** Sends a batch and writes the generated IDs. Returns the number created or -1 if the server couldn't be reached. **/
+    private static int sendBatch(CanSell seller, UserDetails sellerDetails, ArrayList<AuctionLot> batch, ArrayList<Integer> batchLines, PrintWriter ids) {
+        long[] auctionIDs;
+        try {
+            String requestID = Client.newRequestID();
+            auctionIDs = Client.withRetries(() -> seller.createAuctions(requestID, batch, sellerDetails), result -> false);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+            System.out.println("RemoteException caught. Reconfigure registry.");
+            return -1;
+        }
+
+        int created = 0;
+        for (int i = 0; i < auctionIDs.length; i++) {
+            if (auctionIDs[i] == AuctionIds.NONE) {
+                System.out.printf(">> Line %d not created. Check prices or try again later.%n", batchLines.get(i));
+            } else {
+                ids.printf("%d,%s%n", batchLines.get(i), AuctionIds.format(auctionIDs[i]));
+                created++;
+            }
+        }
+        return created;
+    }
+
+    /** Returns the lot described by a CSV line or null if the line isn't a valid lot. **/
+    private static AuctionLot parseLot(String line) {
+        ArrayList<String> fields = SaleClient.parseCsvLine(line);
+        if (fields.size() != 4) {
+            return null;
+        }
+
+        try {
+            AuctionLot lot = new AuctionLot(fields.get(0).trim(),
+                    Money.fromPounds(Double.parseDouble(fields.get(1).trim())),
+                    Money.fromPounds(Double.parseDouble(fields.get(2).trim())),
+                    fields.get(3).trim());
+            return lot.isValid() ? lot : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Splits a line of CSV into its fields. Fields may be quoted to contain commas, and a doubled quote inside a quoted
+     * field is a literal quote. Fields are not trimmed.
+     */
+    private static ArrayList<String> parseCsvLine(String line) {
+        ArrayList<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
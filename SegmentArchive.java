@@ -0,0 +1,446 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * The on-disk tier of a SettlementArchive. Settlements are written in batches to immutable segment files in one
+ * directory, which only ever gains new segments. Each segment is memory-mapped read-only, so reads go through the
+ * page cache and nothing is loaded onto the heap except the segments sparse indexes.
+ *
+ * Segment layout: the settlements sorted by auction ID in DEFLATE compressed blocks of RECORDS_PER_BLOCK, then a
+ * footer holding the sparse indexes (each blocks first auction ID and position, and one (seller, block) entry per
+ * seller in each block) and a bloom filter of the auction IDs, then the footers offset and MAGIC. A lookup by ID
+ * inflates one block, and only in segments whose filter may hold the ID. A lookup by seller inflates only the blocks
+ * that seller appears in.
+ *
+ * Segments that can't be opened (e.g. truncated by a failing disk) are renamed with a .corrupt suffix and skipped
+ * so the rest of the archive is still served.
+ */
+public class SegmentArchive {
+
+    private static final int MAGIC = 0x41534732;                                                         //--> "ASG2"
+    private static final int RECORDS_PER_BLOCK = 128;
+    private static final String SUFFIX = ".seg";
+
+    //--> About 1% false positives. A false positive costs one block inflation.
+    private static final int FILTER_BITS_PER_RECORD = 10;
+    private static final int FILTER_PROBES = 7;
+
+    private final Path directory;
+    private final CopyOnWriteArrayList<Segment> segments = new CopyOnWriteArrayList<>();
+    private int nextSequence;
+
+    /**
+     * Opens the segments already in the directory, creating the directory if needed. Segments that can't be opened
+     * are quarantined and partial segments left by a crash are removed.
+     */
+    public SegmentArchive(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+
+        try (DirectoryStream<Path> partials = Files.newDirectoryStream(directory, "*" + SUFFIX + ".tmp")) {
+            for (Path partial : partials) {
+                Files.deleteIfExists(partial);
+            }
+        }
+
+        ArrayList<Path> existing = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            files.forEach(existing::add);
+        }
+        existing.sort(Comparator.naturalOrder());
+        for (Path file : existing) {
+            nextSequence = Math.max(nextSequence, SegmentArchive.sequenceOf(file) + 1);             //--> Even if corrupt so its name isn't reused.
+            try {
+                segments.add(Segment.open(file));
+            } catch (IOException | RuntimeException e) {
+                SegmentArchive.quarantine(file, e);
+            }
+        }
+    }
+
+    /**
+     * Opens the archive in -Dauction.archive.dir. Without it, or if it can't be opened, each archive gets its own
+     * temporary directory that is removed when the JVM exits.
+     */
+    public static SegmentArchive fromConfig() {
+        String configured = ClusterConfig.getArchiveDir();
+        if (configured != null) {
+            try {
+                return new SegmentArchive(Path.of(configured));
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+                AsyncLog.warn("archive.dirUnavailable", "dir", configured, "error", e.getMessage());
+            }
+        }
+
+        try {
+            Path temporary = Files.createTempDirectory("auction-archive-");
+            temporary.toFile().deleteOnExit();
+            return new SegmentArchive(temporary);
+        } catch (IOException e) {
+            throw new IllegalStateException("Settlement archive directory could not be opened.", e);
+        }
+    }
+
+    /** Writes the settlements to a new segment. Readers see the segment only once it is complete. **/
+    public synchronized void append(Collection<Settlement> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        Settlement[] sorted = batch.toArray(new Settlement[0]);
+        Arrays.sort(sorted, Comparator.comparingLong(Settlement::getAuctionID));
+
+        Path file = directory.resolve(String.format("segment-%010d%s", nextSequence, SUFFIX));
+        Path partial = directory.resolve(file.getFileName() + ".tmp");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        int blockCount = (sorted.length + RECORDS_PER_BLOCK - 1) / RECORDS_PER_BLOCK;
+        long[] firstIDs = new long[blockCount];
+        int[] offsets = new int[blockCount];
+        int[] lengths = new int[blockCount];
+        int[] rawLengths = new int[blockCount];
+        ArrayList<Long> sellerBlocks = new ArrayList<>();                                               //--> seller << 32 | block
+
+        for (int block = 0; block < blockCount; block++) {
+            int from = block * RECORDS_PER_BLOCK;
+            int to = Math.min(from + RECORDS_PER_BLOCK, sorted.length);
+
+            ByteArrayOutputStream raw = new ByteArrayOutputStream();
+            DataOutputStream records = new DataOutputStream(raw);
+            records.writeInt(to - from);
+            for (int i = from; i < to; i++) {
+                SegmentArchive.writeRecord(records, sorted[i]);
+                sellerBlocks.add(((long) sorted[i].getSellerID() << 32) | block);
+            }
+
+            firstIDs[block] = sorted[from].getAuctionID();
+            offsets[block] = out.size();
+            rawLengths[block] = raw.size();
+            SegmentArchive.deflate(raw.toByteArray(), out);
+            lengths[block] = out.size() - offsets[block];
+        }
+
+        long[] sellerIndex = sellerBlocks.stream().mapToLong(Long::longValue).sorted().distinct().toArray();
+        long[] filter = new long[SegmentArchive.filterWords(sorted.length)];
+        for (Settlement settlement : sorted) {
+            SegmentArchive.probe(filter, settlement.getAuctionID(), true);
+        }
+
+        int footer = out.size();
+        out.writeInt(blockCount);
+        for (int block = 0; block < blockCount; block++) {
+            out.writeLong(firstIDs[block]);
+            out.writeInt(offsets[block]);
+            out.writeInt(lengths[block]);
+            out.writeInt(rawLengths[block]);
+        }
+        out.writeInt(sellerIndex.length);
+        for (long entry : sellerIndex) {
+            out.writeLong(entry);
+        }
+        out.writeInt(filter.length);
+        for (long word : filter) {
+            out.writeLong(word);
+        }
+        out.writeLong(sorted[sorted.length - 1].getAuctionID());
+        out.writeInt(sorted.length);
+        out.writeInt(footer);
+        out.writeInt(MAGIC);
+
+        //--> Written under a temporary name and synced, then renamed so a crash never leaves a partial segment behind.
+        //--> The directory is synced after the rename so the segment is still there after a power loss.
+        try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer data = ByteBuffer.wrap(bytes.toByteArray());
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(true);
+        }
+        Files.move(partial, file, StandardCopyOption.ATOMIC_MOVE);
+        SegmentArchive.syncDirectory(directory);
+        if (ClusterConfig.getArchiveDir() == null) {
+            file.toFile().deleteOnExit();
+        }
+
+        segments.add(Segment.open(file));
+        nextSequence++;
+        AsyncLog.info("archive.segmentWritten", "file", file.getFileName(), "records", sorted.length, "bytes", bytes.size());
+    }
+
+    /** Returns the archived settlement of the auction or null if it isn't in any segment. **/
+    public Settlement get(long auctionID) {
+        for (Segment segment : segments) {
+            Settlement settlement = segment.get(auctionID);
+            if (settlement != null) {
+                return settlement;
+            }
+        }
+        return null;
+    }
+
+    /** Adds every archived settlement of the seller to 'found'. **/
+    public void collectBySeller(int sellerID, ArrayList<Settlement> found) {
+        for (Segment segment : segments) {
+            segment.collectBySeller(sellerID, found);
+        }
+    }
+
+    /** Adds every archived settlement with an auction ID from 'fromID' to 'toID' inclusive to 'found'. **/
+    public void collectRange(long fromID, long toID, ArrayList<Settlement> found) {
+        for (Segment segment : segments) {
+            segment.collectRange(fromID, toID, found);
+        }
+    }
+
+    /** Returns the number of archived settlements. **/
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.recordCount;
+        }
+        return size;
+    }
+
+    /** Returns the number of segment files. **/
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    private static int sequenceOf(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Integer.parseInt(name.substring("segment-".length(), name.length() - SUFFIX.length()));
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    /** Renames a segment that can't be opened so it is kept for inspection but not opened again. **/
+    private static void quarantine(Path file, Exception cause) {
+        cause.printStackTrace();
+        AsyncLog.warn("archive.segmentQuarantined", "file", file.getFileName(), "error", cause.getMessage());
+        try {
+            Files.move(file, file.resolveSibling(file.getFileName() + ".corrupt"), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Flushes the directory entry of a renamed file to disk. Not every platform can open a directory, so best effort. **/
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            //--> E.g. Windows. The rename is still atomic, only its durability isn't guaranteed.
+        }
+    }
+
+    /** Returns the number of longs in the filter of a segment with 'records' records. A power of two. **/
+    private static int filterWords(int records) {
+        long bits = Math.max(64L, (long) records * FILTER_BITS_PER_RECORD);
+        return (int) (Long.highestOneBit(bits - 1) << 1 >>> 6);
+    }
+
+    /**
+     * Sets ('set' true) or tests the auction IDs bits in a segment filter. Returns true if every bit was already set,
+     * i.e. the segment may hold the auction.
+     */
+    private static boolean probe(long[] filter, long auctionID, boolean set) {
+        long hash = AuctionStore.mix(auctionID);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int mask = filter.length * 64 - 1;
+        boolean present = true;
+        for (int i = 0; i < FILTER_PROBES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            long bitMask = 1L << bit;
+            if ((filter[bit >>> 6] & bitMask) == 0) {
+                present = false;
+                if (!set) {
+                    return false;
+                }
+                filter[bit >>> 6] |= bitMask;
+            }
+        }
+        return present;
+    }
+
+    private static void writeRecord(DataOutputStream out, Settlement settlement) throws IOException {
+        out.writeLong(settlement.getAuctionID());
+        out.writeInt(settlement.getSellerID());
+        Utility.writeString(out, settlement.getName());
+        out.writeInt(settlement.getWinnerID());
+        out.writeLong(settlement.getFinalPrice());
+        out.writeBoolean(settlement.isReserveMet());
+    }
+
+    private static Settlement readRecord(DataInputStream in) throws IOException {
+        return new Settlement(in.readLong(), in.readInt(), Utility.readString(in), in.readInt(), in.readLong(), in.readBoolean());
+    }
+
+    private static void deflate(byte[] raw, OutputStream out) throws IOException {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            DeflaterOutputStream compressed = new DeflaterOutputStream(out, deflater);
+            compressed.write(raw);
+            compressed.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** One memory-mapped segment file and its sparse indexes. **/
+    private static class Segment {
+
+        private final Path file;
+        private final MappedByteBuffer buffer;
+        private final long[] firstIDs;
+        private final int[] offsets;
+        private final int[] lengths;
+        private final int[] rawLengths;
+        private final long[] sellerIndex;
+        private final long[] filter;
+        private final long lastID;
+        private final int recordCount;
+
+        private Segment(Path file, MappedByteBuffer buffer) throws IOException {
+            this.file = file;
+            this.buffer = buffer;
+
+            int size = buffer.capacity();
+            if (size < 8 || buffer.getInt(size - 4) != MAGIC) {
+                throw new IOException("Not a complete archive segment: " + file);
+            }
+
+            ByteBuffer footer = buffer.duplicate().position(buffer.getInt(size - 8));
+            int blockCount = Segment.countOf(footer, 20, file);
+            firstIDs = new long[blockCount];
+            offsets = new int[blockCount];
+            lengths = new int[blockCount];
+            rawLengths = new int[blockCount];
+            for (int block = 0; block < blockCount; block++) {
+                firstIDs[block] = footer.getLong();
+                offsets[block] = footer.getInt();
+                lengths[block] = footer.getInt();
+                rawLengths[block] = footer.getInt();
+            }
+            sellerIndex = new long[Segment.countOf(footer, 8, file)];
+            for (int i = 0; i < sellerIndex.length; i++) {
+                sellerIndex[i] = footer.getLong();
+            }
+            filter = new long[Segment.countOf(footer, 8, file)];
+            if (filter.length == 0 || Integer.bitCount(filter.length) != 1) {
+                throw new IOException("Archive segment has an invalid ID filter: " + file);
+            }
+            for (int i = 0; i < filter.length; i++) {
+                filter[i] = footer.getLong();
+            }
+            lastID = footer.getLong();
+            recordCount = footer.getInt();
+        }
+
+        /** Reads the entry count of a footer array, checking the entries fit in what is left of the footer. **/
+        private static int countOf(ByteBuffer footer, int entryBytes, Path file) throws IOException {
+            int count = footer.getInt();
+            if (count < 0 || count > footer.remaining() / entryBytes) {
+                throw new IOException("Archive segment footer is corrupt: " + file);
+            }
+            return count;
+        }
+
+        static Segment open(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                return new Segment(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+
+        Settlement get(long auctionID) {
+            if (firstIDs.length == 0 || auctionID < firstIDs[0] || auctionID > lastID || !SegmentArchive.probe(filter, auctionID, false)) {
+                return null;
+            }
+            for (Settlement settlement : this.readBlock(this.blockOf(auctionID))) {
+                if (settlement.getAuctionID() == auctionID) {
+                    return settlement;
+                }
+            }
+            return null;
+        }
+
+        void collectBySeller(int sellerID, ArrayList<Settlement> found) {
+            //--> Entries are sorted by seller then block, so the sellers blocks are contiguous.
+            int i = Arrays.binarySearch(sellerIndex, (long) sellerID << 32);
+            for (i = i < 0 ? -i - 1 : i; i < sellerIndex.length && (int) (sellerIndex[i] >> 32) == sellerID; i++) {
+                for (Settlement settlement : this.readBlock((int) sellerIndex[i])) {
+                    if (settlement.getSellerID() == sellerID) {
+                        found.add(settlement);
+                    }
+                }
+            }
+        }
+
+        void collectRange(long fromID, long toID, ArrayList<Settlement> found) {
+            if (firstIDs.length == 0 || toID < firstIDs[0] || fromID > lastID) {
+                return;
+            }
+            for (int block = this.blockOf(Math.max(fromID, firstIDs[0])); block < firstIDs.length && firstIDs[block] <= toID; block++) {
+                for (Settlement settlement : this.readBlock(block)) {
+                    if (settlement.getAuctionID() >= fromID && settlement.getAuctionID() <= toID) {
+                        found.add(settlement);
+                    }
+                }
+            }
+        }
+
+        /** Returns the block that would hold the auction ID. The ID must not be below the first block. **/
+        private int blockOf(long auctionID) {
+            int block = Arrays.binarySearch(firstIDs, auctionID);
+            return block >= 0 ? block : -block - 2;
+        }
+
+        private ArrayList<Settlement> readBlock(int block) {
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(buffer.duplicate().position(offsets[block]).limit(offsets[block] + lengths[block]));
+                byte[] raw = new byte[rawLengths[block]];
+                int inflated = 0;
+                while (inflated < raw.length && !inflater.finished()) {
+                    inflated += inflater.inflate(raw, inflated, raw.length - inflated);
+                }
+
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw));
+                int count = in.readInt();
+                ArrayList<Settlement> settlements = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    settlements.add(SegmentArchive.readRecord(in));
+                }
+                return settlements;
+            } catch (IOException | DataFormatException e) {
+                throw new IllegalStateException("Archive segment is corrupt: " + file, e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Secondary index from seller ID to the IDs of the auctions they are selling. Maintained by a replica on every write
+ * so listing a sellers auctions costs O(sellers lots) rather than a scan of the whole catalogue. Entries may
+ * outlive their auction (e.g. after a rebalance hands it to another replica). Readers check each auction against
+ * the store and remove stale entries with 'remove'.
+ */
+public class SellerIndex {
+
+    private final ConcurrentHashMap<Integer, Set<Long>> lots = new ConcurrentHashMap<>();
+
+    /** Records that the seller is selling the auction. **/
+    public void add(int sellerID, long auctionID) {
+        lots.computeIfAbsent(sellerID, k -> ConcurrentHashMap.newKeySet()).add(auctionID);
+    }
+
+    /** Records that the seller is no longer selling the auction. **/
+    public void remove(int sellerID, long auctionID) {
+        Set<Long> auctionIDs = lots.get(sellerID);
+        if (auctionIDs != null) {
+            auctionIDs.remove(auctionID);
+        }
+    }
+
+    /** Returns the IDs of the sellers auctions. A live view that is safe to iterate while the index changes. **/
+    public Set<Long> getAuctionIDs(int sellerID) {
+        Set<Long> auctionIDs = lots.get(sellerID);
+        return auctionIDs == null ? Collections.emptySet() : auctionIDs;
+    }
+
+    /** Removes every entry. **/
+    public void clear() {
+        lots.clear();
+    }
+}
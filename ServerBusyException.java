@@ -0,0 +1,14 @@
+import java.rmi.RemoteException;
+
+/**
+ * Thrown by the AuctionServer when it rejects a call without forwarding it to the replicas, because the caller has
+ * used up its request rate or the cluster is at its concurrency limit. Clients should back off and retry.
+ */
+public class ServerBusyException extends RemoteException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ServerBusyException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,70 @@
+
+import java.io.Serializable;
+
+/**
+ * The outcome of a closed auction: who won, at what price and whether the reserve was met. Computed once by each
+ * replica when the auction closes (see of) and kept in its SettlementArchive, so clients and the AuctionServer never
+ * need the full Auction again. Immutable.
+ */
+public class Settlement implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long auctionID;
+    private final int sellerID;
+    private final String name;
+    //--> UserDirectory.NO_USER unless somebody bid and the reserve was met.
+    private final int winnerID;
+    //--> Top bid in pence when the auction closed. The start price if nobody bid.
+    private final long finalPrice;
+    private final boolean reserveMet;
+
+    /** Construction for Settlement objects. **/
+    Settlement(long auctionID, int sellerID, String name, int winnerID, long finalPrice, boolean reserveMet) {
+        this.auctionID = auctionID;
+        this.sellerID = sellerID;
+        this.name = name;
+        this.winnerID = winnerID;
+        this.finalPrice = finalPrice;
+        this.reserveMet = reserveMet;
+    }
+
+    /** Settles a closing auction. The reserve is met if somebody bid at least the reserve price. **/
+    public static Settlement of(Auction auction) {
+        boolean reserveMet = auction.getTopBidderID() != UserDirectory.NO_USER && auction.getTopBid() >= auction.getReserve();
+        return new Settlement(auction.getAuctionID(), auction.getSellerID(), auction.getAuctionName(),
+                reserveMet ? auction.getTopBidderID() : UserDirectory.NO_USER, auction.getTopBid(), reserveMet);
+    }
+
+    /** Returns the closed auctions ID. **/
+    public long getAuctionID() { return auctionID; }
+
+    /** Returns the ID of the seller. **/
+    public int getSellerID() { return sellerID; }
+
+    /** Returns the closed auctions name. **/
+    public String getName() { return name; }
+
+    /** Returns the ID of the winning bidder or UserDirectory.NO_USER if the auction wasn't won. **/
+    public int getWinnerID() { return winnerID; }
+
+    /** Returns the final price in pence. **/
+    public long getFinalPrice() { return finalPrice; }
+
+    /** Returns true if the auction closed with a bid at or above its reserve. **/
+    public boolean isReserveMet() { return reserveMet; }
+
+    /**
+     * Returns a hash of all settlement data. Used to compare replica responses. The auctions version isn't included
+     * as replicas may reach the same final bid through a different number of updates.
+     */
+    public int getDataHash() {
+        int hash = Long.hashCode(auctionID);
+        hash = 31 * hash + sellerID;
+        hash = 31 * hash + name.hashCode();
+        hash = 31 * hash + winnerID;
+        hash = 31 * hash + Long.hashCode(finalPrice);
+        hash = 31 * hash + (reserveMet ? 1 : 0);
+        return hash;
+    }
+}
@@ -0,0 +1,147 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A replicas settlements of closed auctions, keyed by auction ID with a secondary index by seller. Kept apart from
+ * the live AuctionStore so closed auctions don't add to listings, vote hashing, repairs or state transfer.
+ * Settlements never change once archived. Recent settlements are held in memory until there are enough to fill a
+ * segment (-Dauction.archive.segment), then written to the on-disk SegmentArchive on a background thread so the
+ * replicas write path never waits on compression or the disk. Thread safe.
+ */
+public class SettlementArchive {
+
+    //--> Auction IDs grow over time (see AuctionIds) so a higher ID is a more recently created auction.
+    public static final Comparator<Settlement> NEWEST_FIRST = Comparator.comparingLong(Settlement::getAuctionID).reversed();
+
+    //--> Shared by every archive in the JVM. One thread so segments are written one at a time.
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "archive-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ConcurrentHashMap<Long, Settlement> recent = new ConcurrentHashMap<>();
+    private final SellerIndex sellers = new SellerIndex();
+    private final SegmentArchive segments;
+    private final int segmentRecords = Math.max(1, ClusterConfig.getArchiveSegmentRecords());
+
+    //--> Raised after a failed write so a full disk doesn't mean a write attempt on every settlement.
+    private int flushAt = segmentRecords;
+    private boolean flushing;
+
+    public SettlementArchive() {
+        this(SegmentArchive.fromConfig());
+    }
+
+    public SettlementArchive(SegmentArchive segments) {
+        this.segments = segments;
+    }
+
+    /**
+     * Archives the settlement unless its auction has already been settled. Returns true if it was added. Segments
+     * are only read if their ID filter may hold the auction, so a new settlement rarely touches the disk.
+     */
+    public synchronized boolean add(Settlement settlement) {
+        long auctionID = settlement.getAuctionID();
+        if (recent.containsKey(auctionID) || segments.get(auctionID) != null) {
+            return false;
+        }
+
+        recent.put(auctionID, settlement);
+        sellers.add(settlement.getSellerID(), auctionID);
+        this.flushIfFull();
+        return true;
+    }
+
+    /** Starts writing the recent settlements to a segment if there are enough and no write is already running. **/
+    private synchronized void flushIfFull() {
+        if (recent.size() >= flushAt && !flushing) {
+            flushing = true;
+            ArrayList<Settlement> batch = new ArrayList<>(recent.values());
+            WRITER.execute(() -> this.flush(batch));
+        }
+    }
+
+    /**
+     * Writes a batch of recent settlements to a new segment. They stay readable in memory until the segment is
+     * readable, so a concurrent reader always finds them in one tier or the other.
+     */
+    private void flush(ArrayList<Settlement> batch) {
+        try {
+            segments.append(batch);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            AsyncLog.warn("archive.writeFailed", "records", batch.size(), "error", e.getMessage());
+            synchronized (this) {
+                flushAt = recent.size() + segmentRecords;
+                flushing = false;
+            }
+            return;
+        }
+
+        synchronized (this) {
+            for (Settlement settlement : batch) {
+                recent.remove(settlement.getAuctionID());
+                sellers.remove(settlement.getSellerID(), settlement.getAuctionID());
+            }
+            flushAt = segmentRecords;
+            flushing = false;
+            this.flushIfFull();                                                                      //--> More may have arrived during the write.
+        }
+    }
+
+    /** Returns the settlement of the auction or null if it hasn't been archived here. **/
+    public Settlement get(long auctionID) {
+        Settlement settlement = recent.get(auctionID);
+        return settlement != null ? settlement : segments.get(auctionID);
+    }
+
+    /** Returns up to 'limit' of the sellers settlements, most recently created auctions first. **/
+    public ArrayList<Settlement> getBySeller(int sellerID, int limit) {
+        ArrayList<Settlement> found = new ArrayList<>();
+        for (long auctionID : sellers.getAuctionIDs(sellerID)) {
+            Settlement settlement = recent.get(auctionID);
+            if (settlement != null) {
+                found.add(settlement);
+            }
+        }
+        segments.collectBySeller(sellerID, found);
+        return SettlementArchive.newest(found, limit);
+    }
+
+    /** Returns up to 'limit' settlements with auction IDs from 'fromID' to 'toID' inclusive, newest first. **/
+    public ArrayList<Settlement> getRange(long fromID, long toID, int limit) {
+        ArrayList<Settlement> found = new ArrayList<>();
+        for (Settlement settlement : recent.values()) {
+            if (settlement.getAuctionID() >= fromID && settlement.getAuctionID() <= toID) {
+                found.add(settlement);
+            }
+        }
+        segments.collectRange(fromID, toID, found);
+        return SettlementArchive.newest(found, limit);
+    }
+
+    /** Returns the number of archived settlements. **/
+    public long size() {
+        return recent.size() + segments.size();
+    }
+
+    /** Sorts newest first, dropping the duplicates a reader can see while a segment is being written. **/
+    private static ArrayList<Settlement> newest(ArrayList<Settlement> found, int limit) {
+        found.sort(NEWEST_FIRST);
+        ArrayList<Settlement> page = new ArrayList<>(Math.min(found.size(), limit));
+        for (Settlement settlement : found) {
+            if (page.size() == limit) {
+                break;
+            }
+            if (page.isEmpty() || page.get(page.size() - 1).getAuctionID() != settlement.getAuctionID()) {
+                page.add(settlement);
+            }
+        }
+        return page;
+    }
+}
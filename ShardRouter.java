@@ -0,0 +1,103 @@
+import org.jgroups.Address;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Assigns auctions to replica servers using consistent hashing. Each replica is placed on a hash ring several times
+ * (virtual nodes) and an auction is owned by the first replicationFactor distinct replicas found walking the ring
+ * clockwise from the hash of its ID. The first owner is the auctions primary. Every member builds the same ring from
+ * the same view so no coordination is needed to agree on ownership.
+ */
+public class ShardRouter {
+
+    private static final int VIRTUAL_NODES = 64;
+
+    private final TreeMap<Integer, Address> ring = new TreeMap<>();
+    private final List<Address> replicas;
+    private final int replicationFactor;
+
+    /** Builds the ring for the provided replicas. A replication factor of zero or less stores auctions on every replica. */
+    public ShardRouter(List<Address> replicas, int replicationFactor) {
+        this.replicas = new ArrayList<>(replicas);
+
+        if (replicationFactor <= 0 || replicationFactor > replicas.size()) {
+            this.replicationFactor = replicas.size();
+        } else {
+            this.replicationFactor = replicationFactor;
+        }
+
+        for (Address replica : replicas) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(ShardRouter.mix(31 * replica.hashCode() + i), replica);
+            }
+        }
+    }
+
+    /** Returns the replicas that own the provided auction. Primary owner first. **/
+    public ArrayList<Address> getOwners(long auctionID) {
+        ArrayList<Address> owners = new ArrayList<>(replicationFactor);
+
+        if (ring.isEmpty()) {
+            return owners;
+        }
+
+        //--> Walk clockwise from the auction hash, wrapping round to the start of the ring.
+        Integer start = ring.ceilingKey(ShardRouter.mix(Long.hashCode(auctionID)));
+        if (start == null) {
+            start = ring.firstKey();
+        }
+
+        for (Map.Entry<Integer, Address> entry : ring.tailMap(start, true).entrySet()) {
+            if (owners.size() == replicationFactor) {
+                return owners;
+            }
+            if (!owners.contains(entry.getValue())) {
+                owners.add(entry.getValue());
+            }
+        }
+
+        for (Map.Entry<Integer, Address> entry : ring.headMap(start, false).entrySet()) {
+            if (owners.size() == replicationFactor) {
+                return owners;
+            }
+            if (!owners.contains(entry.getValue())) {
+                owners.add(entry.getValue());
+            }
+        }
+        return owners;
+    }
+
+    /** Returns true if the provided replica owns the provided auction. **/
+    public boolean isOwner(Address replica, long auctionID) {
+        return getOwners(auctionID).contains(replica);
+    }
+
+    /** Returns true if the provided replica is the primary owner of the provided auction. **/
+    public boolean isPrimary(Address replica, long auctionID) {
+        ArrayList<Address> owners = getOwners(auctionID);
+        return owners.size() > 0 && owners.get(0).equals(replica);
+    }
+
+    /** Returns true if auctions are split across replicas rather than every replica holding every auction. **/
+    public boolean isPartitioned() {
+        return replicationFactor < replicas.size();
+    }
+
+    /** Returns all replicas on the ring. **/
+    public ArrayList<Address> getReplicas() {
+        return new ArrayList<>(replicas);
+    }
+
+    /** Spreads similar hash codes (e.g. sequential IDs) evenly around the ring. Murmur3 finaliser. **/
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
@@ -0,0 +1,58 @@
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Maps users of the auction system to compact numeric IDs. Replicated so auctions only need to store IDs. */
+public class UserDirectory implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    //--> ID 0 is reserved to mean "no user" (e.g. an auction without a top bidder).
+    public static final int NO_USER = 0;
+
+    private ConcurrentHashMap<String, Integer> idsByName = new ConcurrentHashMap<>();
+    private ConcurrentHashMap<Integer, UserDetails> detailsById = new ConcurrentHashMap<>();
+
+    //--> IDs are laid out like auction IDs: a sequence above the node ID of the front-end that allocated it (see
+    //--> AuctionIds), so front-ends running at the same time never assign the same ID. Highest sequence per node.
+    private static final int MAX_SEQUENCE = Integer.MAX_VALUE >>> AuctionIds.NODE_BITS;
+    private int[] highestSequence = new int[AuctionIds.MAX_NODE_ID + 1];
+
+    /** Returns the ID registered for the provided username or null if the user is unknown. **/
+    public Integer getUserID(String username) {
+        return idsByName.get(username);
+    }
+
+    /** Returns the details registered for the provided ID or null if the ID is unknown. **/
+    public UserDetails getUserDetails(int userID) {
+        return detailsById.get(userID);
+    }
+
+    /** Returns the ID that the front-end with the provided node ID should assign to its next new user. **/
+    public synchronized int nextUserID(int nodeID) {
+        int sequence = highestSequence[nodeID] + 1;
+        if (sequence > MAX_SEQUENCE) {
+            throw new IllegalStateException("No user IDs left for node " + nodeID);
+        }
+        return (sequence << AuctionIds.NODE_BITS) | nodeID;
+    }
+
+    /** Registers a user under the provided ID. Re-registering a known user updates their details. **/
+    public synchronized void register(int userID, UserDetails userDetails) {
+        idsByName.put(userDetails.getName(), userID);
+        detailsById.put(userID, userDetails);
+        int nodeID = userID & AuctionIds.MAX_NODE_ID;
+        highestSequence[nodeID] = Math.max(highestSequence[nodeID], userID >>> AuctionIds.NODE_BITS);
+    }
+
+    /** Copies every user from the provided directory into this one. **/
+    public synchronized void putAll(UserDirectory other) {
+        for (Integer userID : other.detailsById.keySet()) {
+            this.register(userID, other.detailsById.get(userID));
+        }
+    }
+
+    /** Returns the number of registered users. **/
+    public int size() {
+        return detailsById.size();
+    }
+}
@@ -2,17 +2,32 @@
 import org.jgroups.Address;
 import org.jgroups.util.RspList;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.PriorityQueue;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class Utility {
 
-    /** Returns the address of a member that's response was in the majority. */
+    /**
+     * Returns the address of a member that's response was in the majority. A tie for the most common response (e.g.
+     * one against one with an even replication factor) has no majority and returns null, as does an empty map, so
+     * callers treat it as a failed call rather than trusting whichever response the map happened to list first.
+     */
     public static Address getMajorityResponseAddress(HashMap<Address, Integer> hashPairs) {
 
         //--> 1: Keep track of occurrence of hash values. Key is hash value. Value is occurrence.
@@ -43,12 +58,17 @@ public class Utility {
             }
         }
 
-        //--> 6: Get the hash that appeared the highest number of times.
+        //--> 6: Get the hash that appeared the highest number of times. No majority if another hash appeared as often.
+        int mostCommonCount = 0;
         for (Integer hash : occurrenceTracker.keySet()) {
             if (occurrenceTracker.get(hash).equals(highestOccurrence)) {
                 mostCommonHashValue = hash;
+                mostCommonCount++;
             }
         }
+        if (mostCommonCount != 1) {
+            return null;
+        }
 
         //--> 7: Get the address of a member that returned the most common hash value.
         for (Address memberAddress : hashPairs.keySet()) {
@@ -68,9 +88,6 @@ public class Utility {
         //--> Loop through every member of the cluster.
         for (int i = 0; i < memberAddresses.size(); i++) {
 
-            //--> Create a massive string of all auction data for that member.
-            String auctionString = "";
-
             //--> Get all auction objects that were returned by the cluster member.
             ArrayList<Auction> memberAuctions = (ArrayList<Auction>) memberResponses.getValue(memberAddresses.get(i));
 
@@ -80,22 +97,77 @@ public class Utility {
                 continue;
             }
 
-            String auctionData = "";
-
-            //--> Loop through every auction for this cluster member and appends all auction data to a string.
+            //--> Loop through every auction for this cluster member and combine the auction hashes.
+            int auctionHash = 1;
             for (int j = 0; j < memberAuctions.size(); j++) {
-                Auction auction = memberAuctions.get(j);
-                auctionData += auction.getAuctionData();
+                auctionHash = 31 * auctionHash + memberAuctions.get(j).getDataHash();
             }
 
-            //--> Store hash value of massive String for this member in HashMap using the cluster members address as a key.
-            hashPairs.put(memberAddresses.get(i), auctionString.hashCode());
+            //--> Store combined hash value for this member in HashMap using the cluster members address as a key.
+            hashPairs.put(memberAddresses.get(i), auctionHash);
         }
 
         //--> Return the hash values for the responses from each member of the cluster in a <Member Address, Response Hash Value> pair.
         return hashPairs;
     }
 
+    /** Merges lists that are each already sorted by 'order' and returns the first 'limit' elements overall. */
+    public static <T> ArrayList<T> mergeTopK(List<? extends List<T>> sortedLists, Comparator<T> order, int limit) {
+
+        ArrayList<T> merged = new ArrayList<>(limit);
+
+        //--> Heap holds a cursor (list index, position) to the head of each list. Smallest head is polled first.
+        PriorityQueue<int[]> heads = new PriorityQueue<>(Math.max(1, sortedLists.size()),
+                (x, y) -> order.compare(sortedLists.get(x[0]).get(x[1]), sortedLists.get(y[0]).get(y[1])));
+
+        for (int i = 0; i < sortedLists.size(); i++) {
+            if (sortedLists.get(i).size() > 0) {
+                heads.add(new int[]{i, 0});
+            }
+        }
+
+        while (merged.size() < limit && !heads.isEmpty()) {
+            int[] head = heads.poll();
+            List<T> list = sortedLists.get(head[0]);
+            merged.add(list.get(head[1]));
+
+            if (head[1] + 1 < list.size()) {
+                heads.add(new int[]{head[0], head[1] + 1});
+            }
+        }
+        return merged;
+    }
+
+    /** Returns the Java serialized form of the provided object. Returns null if it can't be serialized. */
+    public static byte[] serialize(Object object) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream oStream = new ObjectOutputStream(bytes);
+            oStream.writeObject(object);
+            oStream.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Object could not be serialized.");
+            return null;
+        }
+    }
+
+    /** Reads an object back from bytes produced by serialize. Returns null if the bytes are null or invalid. */
+    public static Object deserialize(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+
+        try (ObjectInputStream iStream = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return iStream.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+            System.err.println("Object could not be deserialized.");
+            return null;
+        }
+    }
+
     /** Reads a file and returns its contents in the form of a byte array. */
     public static byte[] getFileBytes(String filePath) {
 
@@ -120,28 +192,60 @@ public class Utility {
     }
 
     /** Returns the hash values of all the states returned in a response and the address associated with that response. */
-    public static HashMap<Address, Integer> getHashMapHashes(RspList responses) {
+    public static HashMap<Address, Integer> getStateHashes(RspList responses) {
 
         HashMap <Address, Integer> hashAddresses = new HashMap<>();
 
         for (Object a: responses.keySet()) {
 
-            ConcurrentHashMap<String, Auction> tempResponse = (ConcurrentHashMap<String, Auction>) responses.getValue((Address)a);
-            HashMap<String, Auction> memberResponse = new HashMap<String, Auction>(tempResponse);
-
-            // Make hash value for object from keys.
-            String hashString = "";
-            for (String s : memberResponse.keySet()) {
-                hashString += s;
+            ArrayList<Auction> memberResponse = (ArrayList<Auction>) responses.getValue((Address)a);
+            if (memberResponse == null) {
+                continue;
             }
 
-            for (Auction auc : memberResponse.values()) {
-                hashString += auc.getAuctionData();
+            //--> Make hash value for state from its auctions. Summed so that auction order doesn't matter.
+            int stateHash = 0;
+            for (Auction auc : memberResponse) {
+                stateHash += auc.getDataHash();
             }
 
-            hashAddresses.put((Address)a, hashString.hashCode());
+            hashAddresses.put((Address)a, stateHash);
         }
 
         return hashAddresses;
     }
+
+    /**
+     * Cancels a pending JGroups request future once the timeout has passed. Request futures have no timer of their
+     * own, and cancelling (unlike completing exceptionally) also removes the request from the RequestCorrelator.
+     */
+    public static <F extends CompletableFuture<?>> F cancelAfter(F future, long timeoutMillis) {
+        CompletableFuture.runAsync(() -> future.cancel(true), CompletableFuture.delayedExecutor(timeoutMillis, TimeUnit.MILLISECONDS));
+        return future;
+    }
+
+    /**
+     * Writes a string as its UTF-8 length then bytes. Unlike DataOutput.writeUTF there is no 64KB limit. A null
+     * string is written as length -1.
+     */
+    public static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Reads a string written by writeString. **/
+    public static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
 }
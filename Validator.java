@@ -26,11 +26,11 @@ public class Validator {
         }
     }
 
-    /** Returns a valid price entered by the user. Valid means that it is a number and is not negative. */
-    public double getValidPrice(String fieldName) {
+    /** Returns a valid price in pence entered by the user. Valid means that it is a number and is not negative. */
+    public long getValidPrice(String fieldName) {
 
         Scanner scanner = new Scanner(System.in);
-        double value = 0;
+        long value = 0;
 
         while(value <= 0) {
 
@@ -41,7 +41,7 @@ public class Validator {
                 scanner.next();
             }
 
-            value = Math.round(scanner.nextDouble() * 100.0) / 100.0;
+            value = Money.fromPounds(scanner.nextDouble());
             scanner.nextLine();
 
             if (value < 0) {
@@ -53,6 +53,24 @@ public class Validator {
         return value;
     }
 
+    /** Returns the auction ID typed by the user. Valid means that it is the text form of an auction ID (see AuctionIds). */
+    public long getValidAuctionID() {
+
+        Scanner scanner = new Scanner(System.in);
+
+        while (true) {
+            String userInput = scanner.nextLine();
+            System.out.println("------------------------------------------------------------->");
+
+            long auctionID = AuctionIds.parse(userInput);
+            if (auctionID != AuctionIds.NONE) {
+                return auctionID;
+            }
+
+            System.out.printf(">> Auction ID is not valid. Please enter a valid auction ID: ");
+        }
+    }
+
     /** Returns a valid email address input by the user. */
     public String getValidEmail() {
         String userInput;
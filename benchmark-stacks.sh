@@ -0,0 +1,40 @@
+#!/bin/sh
+# Compares bid ops/s and p99 latency for each JGroups stack profile on a local multi-process cluster.
+# Starts an rmiregistry, an AuctionServer and REPLICAS replica servers per profile, runs LoadTest in bid mode and
+# then stops the cluster. Run from a directory containing the compiled classes, the stack files and the key files.
+# Every LoadTest client bids as the one user "LoadTest", so the per-user rate limit is raised by default or the run
+# would mostly measure rejections. Extra or replacement server options can be passed in SERVER_OPTS.
+#
+# Usage: JGROUPS_JAR=/path/to/jgroups.jar ./benchmark-stacks.sh [clients] [requestsPerClient]
+
+CLIENTS=${1:-200}
+REQUESTS=${2:-50}
+REPLICAS=${REPLICAS:-3}
+CP=".:${JGROUPS_JAR:?Set JGROUPS_JAR to the JGroups jar}"
+JAVA_OPTS="-Djava.net.preferIPv4Stack=true"
+SERVER_OPTS=${SERVER_OPTS:--Dauction.rate.limit=1000000 -Dauction.rate.burst=1000000}
+
+for PROFILE in low-latency high-throughput; do
+    echo ">> Profile: $PROFILE"
+
+    rmiregistry -J-Djava.class.path="$CP" &
+    PIDS=$!
+    sleep 2
+
+    java $JAVA_OPTS $SERVER_OPTS -Dauction.stack=$PROFILE -cp "$CP" AuctionServer > /dev/null 2>&1 &
+    PIDS="$PIDS $!"
+    sleep 5
+
+    i=0
+    while [ $i -lt $REPLICAS ]; do
+        java $JAVA_OPTS -Dauction.stack=$PROFILE -cp "$CP" ReplicatedServer > /dev/null 2>&1 &
+        PIDS="$PIDS $!"
+        i=$((i + 1))
+    done
+    sleep 10
+
+    java $JAVA_OPTS -cp "$CP" LoadTest "$CLIENTS" "$REQUESTS" bid
+
+    kill $PIDS
+    wait 2> /dev/null
+done
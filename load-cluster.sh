@@ -0,0 +1,38 @@
+#!/bin/sh
+# Runs LoadGenerator against a local multi-process cluster. Starts an rmiregistry, an AuctionServer and REPLICAS
+# replica servers, runs the generator and then stops the cluster. Run from a directory containing the compiled
+# classes, the stack files, the key files and Registered-users.txt. JVM options for the servers (e.g. a stack
+# profile) can be passed in SERVER_OPTS. By default the rate limits are raised, as every session's reads come from
+# this one host; set SERVER_OPTS to test the limits themselves.
+#
+# Usage: JGROUPS_JAR=/path/to/jgroups.jar ./load-cluster.sh [sessions] [opsPerSecond] [seconds] [mix]
+
+SESSIONS=${1:-1000}
+RATE=${2:-500}
+SECONDS_TO_RUN=${3:-60}
+MIX=${4:-bid=50,search=20,browse=10,list=10,create=7,close=3}
+REPLICAS=${REPLICAS:-3}
+CP=".:${JGROUPS_JAR:?Set JGROUPS_JAR to the JGroups jar}"
+JAVA_OPTS="-Djava.net.preferIPv4Stack=true"
+SERVER_OPTS=${SERVER_OPTS:--Dauction.rate.limit=1000000 -Dauction.rate.burst=1000000 -Dauction.rate.read.limit=1000000 -Dauction.rate.read.burst=1000000}
+
+rmiregistry -J-Djava.class.path="$CP" &
+PIDS=$!
+sleep 2
+
+java $JAVA_OPTS $SERVER_OPTS -cp "$CP" AuctionServer > /dev/null 2>&1 &
+PIDS="$PIDS $!"
+sleep 5
+
+i=0
+while [ $i -lt $REPLICAS ]; do
+    java $JAVA_OPTS $SERVER_OPTS -cp "$CP" ReplicatedServer > /dev/null 2>&1 &
+    PIDS="$PIDS $!"
+    i=$((i + 1))
+done
+sleep 10
+
+java $JAVA_OPTS -cp "$CP" LoadGenerator "$SESSIONS" "$RATE" "$SECONDS_TO_RUN" "$MIX"
+
+kill $PIDS
+wait 2> /dev/null